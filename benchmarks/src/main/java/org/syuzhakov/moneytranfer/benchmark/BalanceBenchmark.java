@@ -0,0 +1,76 @@
+package org.syuzhakov.moneytranfer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.model.Balance;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of AccountServiceImpl.getBalance in transaction, as called by balance endpoint.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BalanceBenchmark {
+    private static final long SEED = 20190601L;
+
+    @Param({"CURRENT", "TEMPORAL"})
+    public BalanceStorage balanceStorage;
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    @Param("1000")
+    public int accounts;
+
+    private App app;
+    private long[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        app = BenchmarkApps.start(balanceStorage, cacheEnabled);
+        accountIds = BenchmarkApps.createAccounts(app, accounts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void setup(ThreadParams threadParams) {
+            random = new SplittableRandom(SEED + threadParams.getThreadIndex());
+        }
+    }
+
+    @Benchmark
+    public Balance getBalance(ThreadState threadState) {
+        final long accountId = accountIds[threadState.random.nextInt(accounts)];
+        return app.getConnectionFactory().executeInTransaction(() -> app.getAccountService().getBalance(accountId));
+    }
+}
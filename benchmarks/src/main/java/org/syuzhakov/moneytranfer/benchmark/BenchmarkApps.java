@@ -0,0 +1,68 @@
+package org.syuzhakov.moneytranfer.benchmark;
+
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.CacheConfiguration;
+import org.syuzhakov.moneytranfer.config.ConcurrencyControl;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.UUID;
+
+/**
+ * Application instances for benchmarks: in-memory H2 database, web server disabled.
+ */
+final class BenchmarkApps {
+    static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    private BenchmarkApps() {
+    }
+
+    static App start(BalanceStorage balanceStorage, boolean cacheEnabled) {
+        return start(balanceStorage, cacheEnabled, ConcurrencyControl.PESSIMISTIC);
+    }
+
+    static App start(BalanceStorage balanceStorage, boolean cacheEnabled, ConcurrencyControl concurrency) {
+        return App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .balanceStorage(balanceStorage)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .cacheConfiguration(CacheConfiguration.builder()
+                        .enabled(cacheEnabled)
+                        .build())
+                .operationConfiguration(OperationConfiguration.builder()
+                        .concurrency(concurrency)
+                        .build())
+                .start();
+    }
+
+    /**
+     * Creates active accounts with balance large enough for the whole benchmark.
+     */
+    static long[] createAccounts(App app, int count) {
+        final long[] accountIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            accountIds[i] = app.getConnectionFactory().executeInTransaction(() -> {
+                final long accountId = app.getAccountService()
+                        .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())
+                        .getId();
+                app.getOperationService().transferMoney(Operation.builder()
+                        .targetAccount(accountId)
+                        .amount(INITIAL_BALANCE)
+                        .build());
+                return accountId;
+            });
+        }
+        return accountIds;
+    }
+}
@@ -0,0 +1,113 @@
+package org.syuzhakov.moneytranfer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.HandlerMode;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of balance endpoint over loopback. With {@code HTTP_1_1} client keeps a pool of keep-alive
+ * connections, one per concurrent request, with {@code HTTP_2} all requests are streams of one h2c connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class HttpBenchmark {
+    private static final long SEED = 20190601L;
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public HttpClient.Version protocol;
+
+    @Param({"BLOCKING", "ASYNC"})
+    public HandlerMode handlerMode;
+
+    @Param("1000")
+    public int accounts;
+
+    private App app;
+    private HttpClient client;
+    private URI[] balanceUris;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .handlerMode(handlerMode)
+                        .http2Enabled(true)
+                        .build())
+                .start();
+        balanceUris = new URI[accounts];
+        for (int i = 0; i < accounts; i++) {
+            final long accountId = app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                    .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())
+                    .getId());
+            balanceUris[i] = URI.create("http://127.0.0.1:" + app.getListenerPort()
+                    + "/account/" + accountId + "/balance");
+        }
+        client = HttpClient.newBuilder().version(protocol).build();
+        //Upgrade to h2c before threads start, otherwise every thread would open its own connection
+        final HttpResponse<Void> response = client.send(HttpRequest.newBuilder(balanceUris[0]).build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.version() != protocol) {
+            throw new IllegalStateException("Server answered with " + response.version());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void setup(ThreadParams threadParams) {
+            random = new SplittableRandom(SEED + threadParams.getThreadIndex());
+        }
+    }
+
+    @Benchmark
+    public byte[] getBalance(ThreadState threadState) throws IOException, InterruptedException {
+        final URI uri = balanceUris[threadState.random.nextInt(accounts)];
+        return client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
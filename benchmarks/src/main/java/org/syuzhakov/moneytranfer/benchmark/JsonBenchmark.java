@@ -0,0 +1,144 @@
+package org.syuzhakov.moneytranfer.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+import org.syuzhakov.moneytranfer.server.JacksonFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request decoding and response encoding as done by RestHandler, with compact (default), pretty and Smile mappers.
+ * {@code respond*} benchmarks serialize into a reused buffer and copy it into a direct buffer, as responses are sent.
+ * Allocations per response are measured with {@code -prof gc} ({@code gc.alloc.rate.norm}),
+ * response sizes are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"compact", "pretty", "smile"})
+    public String format;
+
+    private ObjectMapper mapper;
+    private ReusableBuffer responseBuffer;
+    private ByteBuffer socketBuffer;
+    private JavaType operationType;
+    private JavaType batchType;
+    private Operation operation;
+    private Balance balance;
+    private List<TransferResult> batchResult;
+    private byte[] operationJson;
+    private byte[] batchJson;
+
+    @Setup
+    public void setup() throws IOException {
+        if ("pretty".equals(format)) {
+            mapper = JacksonFactory.createPrettyRestObjectMapper();
+        } else if ("smile".equals(format)) {
+            mapper = JacksonFactory.createSmileObjectMapper();
+        } else {
+            mapper = JacksonFactory.createRestObjectMapper();
+        }
+        responseBuffer = new ReusableBuffer(64 * 1024);
+        socketBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        operationType = mapper.constructType(Operation.class);
+        batchType = mapper.getTypeFactory().constructType(new TypeReference<List<Operation>>() {
+        });
+        final Instant now = Instant.parse("2019-06-01T12:00:00Z");
+        operation = Operation.builder().id(123456L).sourceAccount(1001L).targetAccount(2002L)
+                .amount(10_000L).timestamp(now).build();
+        balance = Balance.builder().account(1001L).operation(123456L).balance(990_000L).actuality(now).build();
+        final List<Operation> batch = new ArrayList<>();
+        batchResult = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(Operation.builder().sourceAccount(1000L + i).targetAccount(2000L + i).amount(100L + i).build());
+            batchResult.add(TransferResult.builder().operation(Operation.builder().id(100_000L + i)
+                    .sourceAccount(1000L + i).targetAccount(2000L + i).amount(100L + i).timestamp(now).build()).build());
+        }
+        operationJson = mapper.writeValueAsBytes(Operation.builder()
+                .sourceAccount(1001L).targetAccount(2002L).amount(10_000L).build());
+        batchJson = mapper.writeValueAsBytes(batch);
+        System.out.printf("%s response bytes: operation=%d, balance=%d, batch result=%d%n", format,
+                mapper.writeValueAsBytes(operation).length, mapper.writeValueAsBytes(balance).length,
+                mapper.writeValueAsBytes(batchResult).length);
+    }
+
+    @Benchmark
+    public Object decodeOperation() throws IOException {
+        return mapper.readValue(operationJson, operationType);
+    }
+
+    @Benchmark
+    public byte[] encodeOperation() throws IOException {
+        return mapper.writeValueAsBytes(operation);
+    }
+
+    @Benchmark
+    public byte[] encodeBalance() throws IOException {
+        return mapper.writeValueAsBytes(balance);
+    }
+
+    @Benchmark
+    public Object decodeBatch() throws IOException {
+        return mapper.readValue(batchJson, batchType);
+    }
+
+    @Benchmark
+    public byte[] encodeBatchResult() throws IOException {
+        return mapper.writeValueAsBytes(batchResult);
+    }
+
+    @Benchmark
+    public ByteBuffer respondOperation() throws IOException {
+        return respond(operation);
+    }
+
+    @Benchmark
+    public ByteBuffer respondBatchResult() throws IOException {
+        return respond(batchResult);
+    }
+
+    private ByteBuffer respond(Object response) throws IOException {
+        responseBuffer.reset();
+        mapper.writeValue(responseBuffer, response);
+        socketBuffer.clear();
+        responseBuffer.copyTo(socketBuffer);
+        return socketBuffer;
+    }
+
+    private static class ReusableBuffer extends ByteArrayOutputStream {
+        private ReusableBuffer(int size) {
+            super(size);
+        }
+
+        private void copyTo(ByteBuffer target) {
+            target.put(buf, 0, count);
+        }
+    }
+}
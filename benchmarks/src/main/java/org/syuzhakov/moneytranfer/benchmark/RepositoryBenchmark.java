@@ -0,0 +1,368 @@
+package org.syuzhakov.moneytranfer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.database.AccountRepository;
+import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.database.BalanceSlotRepository;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.database.OperationRepository;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded latency of every repository method against in-memory H2, each call in its own transaction.
+ * Batch and history reads take {@code BATCH_SIZE} accounts or operations, scans read all {@code accounts}.
+ * Versioned balance update includes reading the version it expects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+    private static final long SEED = 20190601L;
+    private static final int BATCH_SIZE = 100;
+    private static final int SPLIT_ACCOUNTS = 100;
+    private static final int SLOTS = 8;
+    private static final String IDEMPOTENCY_KEY = "benchmark";
+
+    @Param({"CURRENT", "TEMPORAL"})
+    public BalanceStorage balanceStorage;
+
+    @Param("1000")
+    public int accounts;
+
+    private App app;
+    private ConnectionFactory connectionFactory;
+    private AccountRepository accountRepository;
+    private BalanceRepository balanceRepository;
+    private OperationRepository operationRepository;
+    private BalanceSlotRepository balanceSlotRepository;
+    private long[] accountIds;
+    private long[] splitAccountIds;
+    private List<Long> splitAccountBatch;
+    private long operationId;
+    private long savedOperationId;
+    private Instant at;
+    private List<Long> accountBatch;
+    private List<Balance> balanceBatch;
+    private Map<Integer, Long> slotBalances;
+    private List<Operation> operationBatch;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        app = BenchmarkApps.start(balanceStorage, false);
+        connectionFactory = app.getConnectionFactory();
+        accountRepository = app.getAccountRepository();
+        balanceRepository = app.getBalanceRepository();
+        operationRepository = app.getOperationRepository();
+        balanceSlotRepository = app.getBalanceSlotRepository();
+        accountIds = BenchmarkApps.createAccounts(app, accounts);
+        splitAccountIds = new long[SPLIT_ACCOUNTS];
+        splitAccountBatch = new ArrayList<>();
+        for (int i = 0; i < SPLIT_ACCOUNTS; i++) {
+            splitAccountIds[i] = connectionFactory.executeInTransaction(() -> app.getAccountService()
+                    .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).slots(SLOTS).build())
+                    .getId());
+            splitAccountBatch.add(splitAccountIds[i]);
+        }
+        connectionFactory.executeInTransaction(() -> operationRepository.createOperation(Operation.builder()
+                .targetAccount(accountIds[0])
+                .amount(1L)
+                .idempotencyKey(IDEMPOTENCY_KEY)
+                .build()));
+        operationId = connectionFactory.executeInTransaction(operationRepository::getLastOperationId);
+        //Saved operations continue after the last one, as ledger writer saves them
+        savedOperationId = operationId + 1;
+        at = Instant.now();
+        random = new SplittableRandom(SEED);
+        accountBatch = new ArrayList<>();
+        balanceBatch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            final long accountId = nextAccount();
+            accountBatch.add(accountId);
+            balanceBatch.add(Balance.builder()
+                    .account(accountId)
+                    .balance(BenchmarkApps.INITIAL_BALANCE)
+                    .operation(operationId)
+                    .actuality(at)
+                    .build());
+        }
+        slotBalances = new TreeMap<>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            slotBalances.put(slot, 0L);
+        }
+        operationBatch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            operationBatch.add(Operation.builder()
+                    .sourceAccount(accountIds[i % accounts])
+                    .targetAccount(accountIds[(i + 1) % accounts])
+                    .amount(1L)
+                    .build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Benchmark
+    public Account accountCreate() {
+        return connectionFactory.executeInTransaction(() ->
+                accountRepository.createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()));
+    }
+
+    @Benchmark
+    public Account accountGetById() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> accountRepository.getAccountById(accountId, false));
+    }
+
+    @Benchmark
+    public Account accountGetByIdForUpdate() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> accountRepository.getAccountById(accountId, true));
+    }
+
+    @Benchmark
+    public void accountUpdate() {
+        final long accountId = nextAccount();
+        connectionFactory.executeInTransaction(() -> {
+            accountRepository.updateAccount(Account.builder().id(accountId).status(AccountStatus.ACTIVE).build());
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Account accountGetAt() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> accountRepository.getAccountAt(accountId, at));
+    }
+
+    @Benchmark
+    public Map<Long, Account> accountGetBatchAt() {
+        return connectionFactory.executeInTransaction(() -> accountRepository.getAccountsAt(accountBatch, at));
+    }
+
+    @Benchmark
+    public long accountForEach() {
+        final long[] count = {0};
+        connectionFactory.executeInTransaction(() -> {
+            accountRepository.forEachAccount(account -> count[0]++);
+            return null;
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public Balance balanceGet() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> balanceRepository.getBalance(accountId, false));
+    }
+
+    @Benchmark
+    public Balance balanceGetForUpdate() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> balanceRepository.getBalance(accountId, true));
+    }
+
+    @Benchmark
+    public void balanceUpdate() {
+        final long accountId = nextAccount();
+        final Operation operation = Operation.builder().id(operationId).timestamp(Instant.now()).build();
+        connectionFactory.executeInTransaction(() -> {
+            balanceRepository.updateBalance(accountId, BenchmarkApps.INITIAL_BALANCE, operation);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Balance balanceGetVersion() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> balanceRepository.getBalanceVersion(accountId));
+    }
+
+    @Benchmark
+    public boolean balanceUpdateVersioned() {
+        final long accountId = nextAccount();
+        final Operation operation = Operation.builder().id(operationId).timestamp(Instant.now()).build();
+        return connectionFactory.executeInTransaction(() -> {
+            final Balance version = balanceRepository.getBalanceVersion(accountId);
+            return balanceRepository.updateBalance(accountId, BenchmarkApps.INITIAL_BALANCE, operation,
+                    version.getOperation());
+        });
+    }
+
+    @Benchmark
+    public void balanceUpdateBatch() {
+        connectionFactory.executeInTransaction(() -> {
+            balanceRepository.updateBalances(balanceBatch);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Map<Long, Balance> balanceGetActiveBatch() {
+        return connectionFactory.executeInTransaction(() -> balanceRepository.getActiveBalances(accountBatch));
+    }
+
+    @Benchmark
+    public Balance balanceGetAt() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() -> balanceRepository.getBalanceAt(accountId, at));
+    }
+
+    @Benchmark
+    public Map<Long, Balance> balanceGetBatchAt() {
+        return connectionFactory.executeInTransaction(() -> balanceRepository.getBalancesAt(accountBatch, at));
+    }
+
+    @Benchmark
+    public long balanceForEach() {
+        final long[] count = {0};
+        connectionFactory.executeInTransaction(() -> {
+            balanceRepository.forEachBalance(balance -> count[0]++);
+            return null;
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public void slotCreate() {
+        final long accountId = nextSplitAccount();
+        connectionFactory.executeInTransaction(() -> {
+            balanceSlotRepository.createSlots(accountId, SLOTS);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public void slotAdd() {
+        final long accountId = nextSplitAccount();
+        final int slot = random.nextInt(SLOTS);
+        connectionFactory.executeInTransaction(() -> {
+            balanceSlotRepository.addToSlot(accountId, slot, 1L);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Map<Integer, Long> slotGetBalances() {
+        final long accountId = nextSplitAccount();
+        return connectionFactory.executeInTransaction(() -> balanceSlotRepository.getSlotBalances(accountId, false));
+    }
+
+    @Benchmark
+    public Map<Integer, Long> slotGetBalancesForUpdate() {
+        final long accountId = nextSplitAccount();
+        return connectionFactory.executeInTransaction(() -> balanceSlotRepository.getSlotBalances(accountId, true));
+    }
+
+    @Benchmark
+    public void slotUpdateBalances() {
+        final long accountId = nextSplitAccount();
+        connectionFactory.executeInTransaction(() -> {
+            balanceSlotRepository.updateSlotBalances(accountId, slotBalances);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Map<Long, Long> slotGetTotals() {
+        return connectionFactory.executeInTransaction(() -> balanceSlotRepository.getSlotTotals(splitAccountBatch));
+    }
+
+    @Benchmark
+    public Operation operationCreate() {
+        final Operation operation = Operation.builder()
+                .sourceAccount(nextAccount())
+                .targetAccount(nextAccount())
+                .amount(1L)
+                .build();
+        return connectionFactory.executeInTransaction(() -> operationRepository.createOperation(operation));
+    }
+
+    @Benchmark
+    public List<Operation> operationCreateBatch() {
+        return connectionFactory.executeInTransaction(() -> operationRepository.createOperations(operationBatch));
+    }
+
+    @Benchmark
+    public long operationGetLastId() {
+        return connectionFactory.executeInTransaction(operationRepository::getLastOperationId);
+    }
+
+    @Benchmark
+    public void operationSave() {
+        final Operation operation = Operation.builder()
+                .id(savedOperationId++)
+                .sourceAccount(nextAccount())
+                .targetAccount(nextAccount())
+                .amount(1L)
+                .timestamp(Instant.now())
+                .build();
+        connectionFactory.executeInTransaction(() -> {
+            operationRepository.saveOperation(operation);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public boolean operationExists() {
+        return connectionFactory.executeInTransaction(() -> operationRepository.operationExists(operationId));
+    }
+
+    @Benchmark
+    public Operation operationGetByIdempotencyKey() {
+        return connectionFactory.executeInTransaction(() ->
+                operationRepository.getOperationByIdempotencyKey(IDEMPOTENCY_KEY));
+    }
+
+    @Benchmark
+    public int operationForEach() {
+        return connectionFactory.executeInTransaction(() ->
+                operationRepository.forEachOperation(null, 0L, BATCH_SIZE, operation -> { }));
+    }
+
+    @Benchmark
+    public int operationForEachOfAccount() {
+        final long accountId = nextAccount();
+        return connectionFactory.executeInTransaction(() ->
+                operationRepository.forEachOperation(accountId, 0L, BATCH_SIZE, operation -> { }));
+    }
+
+    private long nextAccount() {
+        return accountIds[random.nextInt(accounts)];
+    }
+
+    private long nextSplitAccount() {
+        return splitAccountIds[random.nextInt(SPLIT_ACCOUNTS)];
+    }
+}
@@ -0,0 +1,124 @@
+package org.syuzhakov.moneytranfer.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.ConcurrencyControl;
+import org.syuzhakov.moneytranfer.load.ZipfSampler;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of OperationServiceImpl.transferMoney, every call in its own transaction as in REST endpoint.
+ * Transfers that fail by locks after all retries are counted in "failures" instead of breaking the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+    private static final long SEED = 20190601L;
+
+    public enum Profile {
+        //Any account may send money to any other
+        UNIFORM,
+        //Few hot accounts take part in most transfers
+        ZIPF,
+        //Credit operations without source account
+        TOPUP
+    }
+
+    @Param({"UNIFORM", "ZIPF", "TOPUP"})
+    public Profile profile;
+
+    @Param({"CURRENT", "TEMPORAL"})
+    public BalanceStorage balanceStorage;
+
+    //Optimistic transfers take no locks on read, but repeat attempts on conflicts, which ZIPF makes frequent
+    @Param({"PESSIMISTIC", "OPTIMISTIC"})
+    public ConcurrencyControl concurrency;
+
+    @Param("1000")
+    public int accounts;
+
+    private App app;
+    private long[] accountIds;
+    private ZipfSampler zipfSampler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        app = BenchmarkApps.start(balanceStorage, false, concurrency);
+        accountIds = BenchmarkApps.createAccounts(app, accounts);
+        zipfSampler = new ZipfSampler(accounts, 1.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long failures;
+        private SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void setup(ThreadParams threadParams) {
+            //Same sequence of accounts for every run, so results are comparable
+            random = new SplittableRandom(SEED + threadParams.getThreadIndex());
+        }
+    }
+
+    @Benchmark
+    public Operation transferMoney(Counters counters) {
+        final Operation operation = nextOperation(counters.random);
+        try {
+            //Service starts transaction of every attempt itself
+            return app.getOperationService().transferMoney(operation);
+        } catch (RuntimeException e) {
+            counters.failures++;
+            return null;
+        }
+    }
+
+    private Operation nextOperation(SplittableRandom random) {
+        final int target = nextAccount(random);
+        if (profile == Profile.TOPUP) {
+            return Operation.builder().targetAccount(accountIds[target]).amount(1L).build();
+        }
+        int source = nextAccount(random);
+        while (source == target) {
+            source = nextAccount(random);
+        }
+        return Operation.builder()
+                .sourceAccount(accountIds[source])
+                .targetAccount(accountIds[target])
+                .amount(1L)
+                .build();
+    }
+
+    private int nextAccount(SplittableRandom random) {
+        return profile == Profile.ZIPF ? zipfSampler.next(random) : random.nextInt(accounts);
+    }
+}
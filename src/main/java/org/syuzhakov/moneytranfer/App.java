@@ -1,34 +1,82 @@
 package org.syuzhakov.moneytranfer;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.accesslog.AccessLogHandler;
 import lombok.Builder;
 import lombok.Getter;
 import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.config.AccessLogMode;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.CacheConfiguration;
+import org.syuzhakov.moneytranfer.config.CacheConsistency;
 import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationEngine;
 import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
 import org.syuzhakov.moneytranfer.database.AccountRepository;
 import org.syuzhakov.moneytranfer.database.AccountRepositoryImpl;
 import org.syuzhakov.moneytranfer.database.BalanceRepository;
 import org.syuzhakov.moneytranfer.database.BalanceRepositoryImpl;
+import org.syuzhakov.moneytranfer.database.BalanceSlotRepository;
+import org.syuzhakov.moneytranfer.database.BalanceSlotRepositoryImpl;
+import org.syuzhakov.moneytranfer.database.CachingAccountRepository;
+import org.syuzhakov.moneytranfer.database.CachingBalanceRepository;
 import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.database.CurrentBalanceRepositoryImpl;
 import org.syuzhakov.moneytranfer.database.DataSourceFactory;
 import org.syuzhakov.moneytranfer.database.H2DataSourceFactory;
 import org.syuzhakov.moneytranfer.database.OperationRepository;
 import org.syuzhakov.moneytranfer.database.OperationRepositoryImpl;
+import org.syuzhakov.moneytranfer.database.SettingRepository;
+import org.syuzhakov.moneytranfer.database.SettingRepositoryImpl;
 import org.syuzhakov.moneytranfer.database.ThreadLocalConnectionFactory;
+import org.syuzhakov.moneytranfer.ledger.Ledger;
+import org.syuzhakov.moneytranfer.ledger.LedgerWriter;
+import org.syuzhakov.moneytranfer.ledger.TransferJournal;
+import org.syuzhakov.moneytranfer.error.Require;
+import org.syuzhakov.moneytranfer.error.BadRequestException;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.logger.AsyncFileAccessLogReceiver;
+import org.syuzhakov.moneytranfer.logger.JsonAccessLogAttribute;
 import org.syuzhakov.moneytranfer.logger.Slf4jAccessLogReceiver;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
 import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.BatchMode;
 import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.server.HandlerExecutors;
+import org.syuzhakov.moneytranfer.server.MeteredRoutingHandler;
+import org.syuzhakov.moneytranfer.server.MetricsHandler;
+import org.syuzhakov.moneytranfer.server.OperationHistoryHandler;
 import org.syuzhakov.moneytranfer.server.RestHandler;
+import org.syuzhakov.moneytranfer.server.ThreadPerTaskExecutor;
 import org.syuzhakov.moneytranfer.service.AccountService;
 import org.syuzhakov.moneytranfer.service.AccountServiceImpl;
+import org.syuzhakov.moneytranfer.service.BalanceHistoryService;
+import org.syuzhakov.moneytranfer.service.BalanceHistoryServiceImpl;
+import org.syuzhakov.moneytranfer.service.BatchOperationService;
+import org.syuzhakov.moneytranfer.service.BatchOperationServiceImpl;
+import org.syuzhakov.moneytranfer.service.IdempotentOperationService;
+import org.syuzhakov.moneytranfer.service.LedgerAccountServiceImpl;
+import org.syuzhakov.moneytranfer.service.LedgerOperationServiceImpl;
+import org.syuzhakov.moneytranfer.service.MeteredOperationService;
 import org.syuzhakov.moneytranfer.service.OperationService;
 import org.syuzhakov.moneytranfer.service.OperationServiceImpl;
+import org.syuzhakov.moneytranfer.service.RetryingOperationService;
+import org.syuzhakov.moneytranfer.service.SequentialBatchOperationServiceImpl;
+import org.syuzhakov.moneytranfer.service.ShardedAccountServiceImpl;
+import org.syuzhakov.moneytranfer.service.ShardedOperationServiceImpl;
+import org.syuzhakov.moneytranfer.shard.ShardExecutor;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,24 +84,51 @@ import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Stream;
 
 @Getter
 public class App {
     private static final Logger LOGGER = LoggerFactory.getLogger(App.class);
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
     private DatabaseConfiguration databaseConfiguration;
     private WebServiceConfiguration webServiceConfiguration;
+    private OperationConfiguration operationConfiguration;
+    private CacheConfiguration cacheConfiguration;
+    private MetricRegistry metricRegistry = new MetricRegistry();
     private DataSourceFactory dataSourceFactory;
+    private DataSourceFactory readOnlyDataSourceFactory;
     private ConnectionFactory connectionFactory;
     private Undertow server;
+    private ExecutorService handlerExecutor;
+    private AsyncFileAccessLogReceiver accessLogReceiver;
     private AccountRepository accountRepository;
     private BalanceRepository balanceRepository;
+    private BalanceSlotRepository balanceSlotRepository;
     private OperationRepository operationRepository;
+    private BoundedCache<Long, Account> accountCache;
+    private BoundedCache<Long, Balance> balanceCache;
+    //Every cache with registered metrics, their MBeans are unregistered on stop
+    private final List<BoundedCache<?, ?>> caches = new ArrayList<>();
+    private Ledger ledger;
+    private LedgerWriter ledgerWriter;
+    private TransferJournal journal;
+    private ShardExecutor shardExecutor;
     private AccountService accountService;
     private OperationService operationService;
+    private BatchOperationService batchOperationService;
+    private BalanceHistoryService balanceHistoryService;
 
     public static void main(String[] args) {
         try {
@@ -70,10 +145,14 @@ public class App {
 
             final DatabaseConfiguration databaseConfiguration = new DatabaseConfiguration(applicationProperties);
             final WebServiceConfiguration webServiceConfiguration = new WebServiceConfiguration(applicationProperties);
+            final OperationConfiguration operationConfiguration = new OperationConfiguration(applicationProperties);
+            final CacheConfiguration cacheConfiguration = new CacheConfiguration(applicationProperties);
 
             App.builder()
                     .databaseConfiguration(databaseConfiguration)
                     .webServiceConfiguration(webServiceConfiguration)
+                    .operationConfiguration(operationConfiguration)
+                    .cacheConfiguration(cacheConfiguration)
                     .start();
         } catch (Exception e) {
             System.out.println("ERROR " + e.getMessage());
@@ -112,36 +191,233 @@ public class App {
     }
 
     @Builder(buildMethodName = "start")
-    public App(DatabaseConfiguration databaseConfiguration, WebServiceConfiguration webServiceConfiguration) {
+    public App(DatabaseConfiguration databaseConfiguration,
+               WebServiceConfiguration webServiceConfiguration,
+               OperationConfiguration operationConfiguration,
+               CacheConfiguration cacheConfiguration) {
         this.databaseConfiguration = databaseConfiguration;
         this.webServiceConfiguration = webServiceConfiguration;
+        this.operationConfiguration = Optional.ofNullable(operationConfiguration)
+                .orElseGet(() -> OperationConfiguration.builder().build());
+        this.cacheConfiguration = Optional.ofNullable(cacheConfiguration)
+                .orElseGet(() -> CacheConfiguration.builder().build());
         dataSourceFactory = new H2DataSourceFactory(databaseConfiguration);
-        connectionFactory = new ThreadLocalConnectionFactory(dataSourceFactory);
-        accountRepository = new AccountRepositoryImpl(connectionFactory);
-        balanceRepository = new BalanceRepositoryImpl(connectionFactory);
-        operationRepository = new OperationRepositoryImpl(connectionFactory);
-        accountService = new AccountServiceImpl(accountRepository, balanceRepository);
-        operationService = new OperationServiceImpl(accountRepository, balanceRepository, operationRepository);
+        if (databaseConfiguration.isReadOnlyPoolEnabled()) {
+            readOnlyDataSourceFactory = new H2DataSourceFactory(databaseConfiguration,
+                    databaseConfiguration.getReadOnlyUrl());
+        }
+        connectionFactory = new ThreadLocalConnectionFactory(dataSourceFactory, readOnlyDataSourceFactory,
+                databaseConfiguration, metricRegistry);
+        accountRepository = new AccountRepositoryImpl(connectionFactory, databaseConfiguration.getIdBlockSize());
+        if (databaseConfiguration.getBalanceStorage() == BalanceStorage.CURRENT) {
+            balanceRepository = new CurrentBalanceRepositoryImpl(connectionFactory);
+        } else {
+            balanceRepository = new BalanceRepositoryImpl(connectionFactory);
+        }
+        operationRepository = new OperationRepositoryImpl(connectionFactory, databaseConfiguration.getIdBlockSize());
+        balanceSlotRepository = new BalanceSlotRepositoryImpl(connectionFactory);
+        //Transfers check account status, so they read accounts past the cache in every consistency mode
+        final AccountRepository transferAccountRepository = accountRepository;
+        if (this.cacheConfiguration.isEnabled()) {
+            accountCache = new BoundedCache<>("account", this.cacheConfiguration.getMaxSize(),
+                    this.cacheConfiguration.getTimeToLiveMillis());
+            balanceCache = new BoundedCache<>("balance", this.cacheConfiguration.getMaxSize(),
+                    this.cacheConfiguration.getTimeToLiveMillis());
+            registerCacheMetrics("account", accountCache);
+            registerCacheMetrics("balance", balanceCache);
+            accountRepository = new CachingAccountRepository(accountRepository, connectionFactory,
+                    accountCache, this.cacheConfiguration.getConsistency());
+            balanceRepository = new CachingBalanceRepository(balanceRepository, connectionFactory,
+                    balanceCache, this.cacheConfiguration.getConsistency());
+        }
+        if (this.operationConfiguration.getEngine() == OperationEngine.LEDGER) {
+            ledger = new Ledger(this.operationConfiguration.getLedgerStripes());
+            ledgerWriter = new LedgerWriter(connectionFactory, balanceRepository, operationRepository,
+                    this.operationConfiguration.getLedgerWriterBatchSize(),
+                    this.operationConfiguration.getLedgerWriterQueueSize(),
+                    metricRegistry);
+            if (this.operationConfiguration.isJournalEnabled()) {
+                journal = new TransferJournal(Paths.get(this.operationConfiguration.getJournalDirectory()),
+                        this.operationConfiguration.getJournalSegmentSize(),
+                        this.operationConfiguration.getJournalBatchSize(),
+                        this.operationConfiguration.getJournalLingerMicros());
+            }
+            metricRegistry.gauge("ledger_writer_queue_size", "Operations waiting to be written to database",
+                    ledgerWriter::getQueueSize);
+            accountService = new LedgerAccountServiceImpl(accountRepository, ledger, connectionFactory);
+            operationService = new LedgerOperationServiceImpl(ledger, ledgerWriter, journal);
+            batchOperationService = new SequentialBatchOperationServiceImpl(operationService);
+        } else if (this.operationConfiguration.getEngine() == OperationEngine.SHARDED) {
+            //Reads without locks must not see stale cache entries
+            if (this.cacheConfiguration.isEnabled()
+                    && this.cacheConfiguration.getConsistency() != CacheConsistency.STRICT) {
+                throw new IllegalStateException("Sharded operation engine requires strict cache consistency");
+            }
+            shardExecutor = new ShardExecutor(this.operationConfiguration.getShards(),
+                    this.operationConfiguration.getShardQueueSize(), metricRegistry);
+            accountService = new ShardedAccountServiceImpl(shardExecutor, connectionFactory,
+                    new AccountServiceImpl(accountRepository, balanceRepository, balanceSlotRepository));
+            operationService = new ShardedOperationServiceImpl(shardExecutor, connectionFactory,
+                    new OperationServiceImpl(transferAccountRepository, balanceRepository, balanceSlotRepository,
+                            operationRepository, false));
+            batchOperationService = new SequentialBatchOperationServiceImpl(operationService);
+        } else {
+            accountService = new AccountServiceImpl(accountRepository, balanceRepository, balanceSlotRepository);
+            operationService = new OperationServiceImpl(transferAccountRepository, balanceRepository,
+                    balanceSlotRepository, operationRepository, this.operationConfiguration.getConcurrency(),
+                    connectionFactory, this.operationConfiguration.getOptimisticMaxAttempts());
+            batchOperationService = new BatchOperationServiceImpl(connectionFactory,
+                    transferAccountRepository, balanceRepository, balanceSlotRepository, operationRepository,
+                    this.operationConfiguration.getBatchChunkSize(),
+                    this.operationConfiguration.getRetryMaxAttempts(),
+                    this.operationConfiguration.getRetryBackoffMillis());
+        }
+        final BoundedCache<String, Operation> idempotencyCache = new BoundedCache<>("idempotency",
+                this.operationConfiguration.getIdempotencyCacheSize(),
+                this.operationConfiguration.getIdempotencyWindowMillis());
+        registerCacheMetrics("idempotency", idempotencyCache);
+        operationService = new IdempotentOperationService(operationService, operationRepository,
+                connectionFactory, idempotencyCache,
+                ledgerWriter == null ? key -> null : ledgerWriter::getUnsavedOperation);
+        if (this.operationConfiguration.getEngine() == OperationEngine.DATABASE) {
+            //Ledger does not lock rows, sharded engine runs transfers in transactions of shard threads
+            operationService = new RetryingOperationService(operationService, connectionFactory,
+                    this.operationConfiguration.getRetryMaxAttempts(),
+                    this.operationConfiguration.getRetryBackoffMillis(), metricRegistry);
+        }
+        operationService = new MeteredOperationService(operationService, metricRegistry);
+        balanceHistoryService = new BalanceHistoryServiceImpl(accountRepository, balanceRepository);
 
         if (databaseConfiguration.isPerformMigration()) {
             performDatabaseMigration();
         }
+        checkBalanceStorage();
+        checkIdBlockSize();
+
+        if (ledger != null) {
+            loadLedger();
+        }
 
         if (webServiceConfiguration.isEnabled()) {
             startWebServer();
         }
     }
 
+    private void registerCacheMetrics(String name, BoundedCache<?, ?> cache) {
+        final String prefix = "cache_" + name + "_";
+        metricRegistry.counter(prefix + "hits_total", "Cache hits", cache::getHits);
+        metricRegistry.counter(prefix + "misses_total", "Cache misses", cache::getMisses);
+        metricRegistry.gauge(prefix + "size", "Cached entries", cache::getSize);
+        caches.add(cache);
+    }
+
     private void performDatabaseMigration() {
-        Flyway.configure().dataSource(connectionFactory.getDataSource()).load().migrate();
+        Flyway.configure().dataSource(connectionFactory.getDataSource())
+                .placeholders(Map.of("idBlockSize", String.valueOf(databaseConfiguration.getIdBlockSize())))
+                .load().migrate();
+    }
+
+    /**
+     * Balance storages are not synchronized with each other, so storage cannot be changed once balances are written.
+     */
+    private void checkBalanceStorage() {
+        final SettingRepository settingRepository = new SettingRepositoryImpl(connectionFactory);
+        final String configured = databaseConfiguration.getBalanceStorage().name();
+        final String written = connectionFactory.executeInTransaction(() -> {
+            final String storage = settingRepository.getSetting("balance_storage");
+            if (storage == null) {
+                settingRepository.setSetting("balance_storage", configured);
+            }
+            return storage;
+        });
+        if (written != null && !written.equals(configured)) {
+            throw new IllegalStateException(String.format(
+                    "Balances are written in %s storage, datasource.balanceStorage=%s would not see them",
+                    written.toLowerCase(), configured.toLowerCase()));
+        }
+    }
+
+    /**
+     * Ids are assigned from blocks of sequence value * block size, smaller block would assign ids again.
+     */
+    private void checkIdBlockSize() {
+        final SettingRepository settingRepository = new SettingRepositoryImpl(connectionFactory);
+        final int configured = databaseConfiguration.getIdBlockSize();
+        final String assigned = connectionFactory.executeInTransaction(() -> {
+            final String blockSize = settingRepository.getSetting("id_block_size");
+            if (blockSize == null || Integer.parseInt(blockSize) < configured) {
+                settingRepository.setSetting("id_block_size", String.valueOf(configured));
+            }
+            return blockSize;
+        });
+        if (assigned != null && Integer.parseInt(assigned) > configured) {
+            throw new IllegalStateException(String.format(
+                    "Ids are assigned in blocks of %s, datasource.idBlockSize=%d would assign them again",
+                    assigned, configured));
+        }
+    }
+
+    private void loadLedger() {
+        final long lastSavedOperationId = connectionFactory.executeInTransaction(() -> {
+            accountRepository.forEachAccount(account -> ledger.putAccount(account.getId(), account.getStatus()));
+            balanceRepository.forEachBalance(balance ->
+                    ledger.loadBalance(balance.getAccount(), balance.getBalance(), balance.getOperation()));
+            return operationRepository.getLastOperationId();
+        });
+        ledger.setLastOperationId(lastSavedOperationId);
+        ledgerWriter.start();
+
+        if (journal != null) {
+            //Journal is the source of truth: restore balances it has and pass missing operations to database.
+            //Writer does not save operations in id order, so any journaled operation may be missing,
+            //not only the ones after the last saved id
+            connectionFactory.executeInTransaction(() -> {
+                journal.replay((operation, sourceBalance, targetBalance) -> {
+                    if (sourceBalance != null) {
+                        ledger.loadBalance(operation.getSourceAccount(), sourceBalance, operation.getId());
+                    }
+                    if (targetBalance != null) {
+                        ledger.loadBalance(operation.getTargetAccount(), targetBalance, operation.getId());
+                    }
+                    ledger.setLastOperationId(operation.getId());
+                    if (!operationRepository.operationExists(operation.getId())) {
+                        ledgerWriter.write(operation, sourceBalance, targetBalance);
+                    }
+                });
+                return null;
+            });
+            //Once replayed operations are saved, no journal segment holds unsaved ones and they can be deleted.
+            //Operation rejected by database again stops the writer and fails startup until it is resolved
+            ledgerWriter.awaitSaved();
+            journal.start();
+            ledgerWriter.trackCheckpoint(ledger.getLastOperationId(), journal::checkpoint);
+        }
     }
 
     private void startWebServer() {
+        handlerExecutor = HandlerExecutors.create(webServiceConfiguration);
+        if (handlerExecutor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor executor = (ThreadPoolExecutor) handlerExecutor;
+            metricRegistry.gauge("http_handler_queue_size", "Requests waiting for handler thread",
+                    () -> executor.getQueue().size());
+            metricRegistry.gauge("http_handler_active_threads", "Handler threads executing requests",
+                    executor::getActiveCount);
+        } else if (handlerExecutor instanceof ThreadPerTaskExecutor) {
+            metricRegistry.gauge("http_handler_active_threads", "Handler threads executing requests",
+                    ((ThreadPerTaskExecutor) handlerExecutor)::getActiveCount);
+        }
+        final Semaphore historyExports = new Semaphore(operationConfiguration.getHistoryMaxExports());
+        metricRegistry.gauge("history_active_exports", "Operation histories being streamed",
+                () -> operationConfiguration.getHistoryMaxExports() - historyExports.availablePermits());
         server = Undertow.builder()
                 .addHttpListener(webServiceConfiguration.getPort(), "0.0.0.0")
-                .setHandler(new AccessLogHandler(new RoutingHandler()
+                .setIoThreads(webServiceConfiguration.getIoThreads())
+                .setWorkerThreads(webServiceConfiguration.getWorkerThreads())
+                .setBufferSize(webServiceConfiguration.getBufferSize())
+                .setDirectBuffers(true)
+                .setHandler(withAccessLog(new MeteredRoutingHandler(metricRegistry)
                         // PUT /account
-                        .put("/account", new RestHandler<>(Account.class) {
+                        .put("/account", new RestHandler<>(Account.class, handlerExecutor) {
                             @Override
                             public Object execute(Account body, HttpServerExchange exchange) {
                                 return connectionFactory.executeInTransaction(() ->
@@ -149,7 +425,7 @@ public class App {
                             }
                         })
                         // POST /account
-                        .post("/account", new RestHandler<>(Account.class) {
+                        .post("/account", new RestHandler<>(Account.class, handlerExecutor) {
                             @Override
                             public Object execute(Account body, HttpServerExchange exchange) {
                                 return connectionFactory.executeInTransaction(() -> {
@@ -159,10 +435,10 @@ public class App {
                             }
                         })
                         // GET /account
-                        .get("/account/{id}", new RestHandler<>(Void.class) {
+                        .get("/account/{id}", new RestHandler<>(Void.class, handlerExecutor) {
                             @Override
                             public Object execute(Void body, HttpServerExchange exchange) {
-                                return connectionFactory.executeInTransaction(() -> {
+                                return connectionFactory.executeReadOnly(() -> {
                                     final String id = exchange.getQueryParameters().get("id").getFirst();
                                     final Account result = accountService.getAccountById(Long.parseLong(id));
                                     if (result == null) {
@@ -173,28 +449,158 @@ public class App {
                             }
                         })
                         // GET /account/{id}/balance
-                        .get("/account/{id}/balance", new RestHandler<>(Void.class) {
+                        .get("/account/{id}/balance", new RestHandler<>(Void.class, handlerExecutor) {
                             @Override
                             public Object execute(Void body, HttpServerExchange exchange) {
-                                return connectionFactory.executeInTransaction(() -> {
+                                final Instant at = getInstantParameter(exchange, "at");
+                                return connectionFactory.executeReadOnly(() -> {
                                     final String id = exchange.getQueryParameters().get("id").getFirst();
+                                    if (at != null) {
+                                        return balanceHistoryService.getBalanceAt(Long.parseLong(id), at);
+                                    }
                                     return accountService.getBalance(Long.parseLong(id));
                                 });
                             }
                         })
+                        // POST /account/balances
+                        .post("/account/balances", new RestHandler<>(new TypeReference<List<Long>>() {
+                        }, handlerExecutor) {
+                            @Override
+                            public Object execute(List<Long> body, HttpServerExchange exchange) {
+                                return connectionFactory.executeReadOnly(() -> accountService.getBalances(body));
+                            }
+                        })
+                        // POST /account/balances/snapshot
+                        .post("/account/balances/snapshot", new RestHandler<>(new TypeReference<List<Long>>() {
+                        }, handlerExecutor) {
+                            @Override
+                            public Object execute(List<Long> body, HttpServerExchange exchange) {
+                                final Instant at = getInstantParameter(exchange, "at");
+                                Require.notNull(at, "at");
+                                return connectionFactory.executeReadOnly(() ->
+                                        balanceHistoryService.getBalancesAt(body, at));
+                            }
+                        })
+                        // GET /account/{id}/operations
+                        .get("/account/{id}/operations", new OperationHistoryHandler(connectionFactory,
+                                operationRepository, operationConfiguration.getHistoryPageSize(), historyExports))
                         // POST /operation/transfer
-                        .post("/operation/transfer", new RestHandler<>(Operation.class) {
+                        .post("/operation/transfer", new RestHandler<>(Operation.class, handlerExecutor) {
                             @Override
                             public Object execute(Operation body, HttpServerExchange exchange) {
-                                return connectionFactory.executeInTransaction(() -> operationService.transferMoney(body));
+                                if (body != null) {
+                                    body.setIdempotencyKey(exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY));
+                                }
+                                //Service demarcates transactions itself, so a transfer failed by locks can be retried
+                                return operationService.transferMoney(body);
+                            }
+                        })
+                        // POST /operation/transfer/batch
+                        .post("/operation/transfer/batch", new RestHandler<>(new TypeReference<List<Operation>>() {
+                        }, handlerExecutor) {
+                            //Array is read element by element, an oversized one is refused before it is read whole
+                            @Override
+                            protected List<Operation> readBody(ObjectMapper mapper, JsonParser parser)
+                                    throws IOException {
+                                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                                    throw new ValidationException("Batch must be an array of operations");
+                                }
+                                //Atomic batch holds locks of all its accounts until the end
+                                final int maxSize = operationConfiguration.getBatchMaxSize();
+                                final List<Operation> operations = new ArrayList<>();
+                                for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY;
+                                     token = parser.nextToken()) {
+                                    if (token == null) {
+                                        throw new BadRequestException("Batch array is not closed");
+                                    }
+                                    if (operations.size() == maxSize) {
+                                        throw new ValidationException(
+                                                "Batch must have at most " + maxSize + " operations");
+                                    }
+                                    final Operation operation = token == JsonToken.VALUE_NULL
+                                            ? null
+                                            : mapper.readValue(parser, Operation.class);
+                                    //Idempotency keys are supported for single transfers only
+                                    if (operation != null) {
+                                        operation.setIdempotencyKey(null);
+                                    }
+                                    operations.add(operation);
+                                }
+                                return operations;
+                            }
+
+                            @Override
+                            protected boolean readsBodyIncrementally() {
+                                return true;
+                            }
+
+                            @Override
+                            public Object execute(List<Operation> body, HttpServerExchange exchange) {
+                                final String modeName = Optional.ofNullable(exchange.getQueryParameters().get("mode"))
+                                        .map(Deque::getFirst).orElse(BatchMode.BEST_EFFORT.name());
+                                final BatchMode mode;
+                                try {
+                                    mode = BatchMode.valueOf(modeName.toUpperCase().replace('-', '_'));
+                                } catch (IllegalArgumentException e) {
+                                    throw new ValidationException("Unknown batch mode: " + modeName);
+                                }
+                                //Service demarcates transactions itself
+                                return batchOperationService.transferMoney(body, mode);
                             }
                         })
-                        //Access log configuration
-                        , new Slf4jAccessLogReceiver(), "common", App.class.getClassLoader()))
+                        // GET /operations
+                        .get("/operations", new OperationHistoryHandler(connectionFactory,
+                                operationRepository, operationConfiguration.getHistoryPageSize(), historyExports))
+                        // GET /metrics
+                        .get("/metrics", new MetricsHandler(metricRegistry))))
+                .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME,
+                        webServiceConfiguration.getAccessLogMode() == AccessLogMode.FILE)
+                .setServerOption(UndertowOptions.BUFFER_PIPELINED_DATA,
+                        webServiceConfiguration.isBufferPipelinedData())
+                //Plain listener upgrades to h2c when client asks for it
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, webServiceConfiguration.isHttp2Enabled())
+                .setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS,
+                        webServiceConfiguration.getHttp2MaxConcurrentStreams())
+                .setServerOption(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE,
+                        webServiceConfiguration.getHttp2InitialWindowSize())
+                .setServerOption(UndertowOptions.MAX_CONCURRENT_REQUESTS_PER_CONNECTION,
+                        webServiceConfiguration.getHttp2MaxConcurrentStreams())
                 .build();
         server.start();
     }
 
+    private static Instant getInstantParameter(HttpServerExchange exchange, String name) {
+        final String value = Optional.ofNullable(exchange.getQueryParameters().get(name))
+                .map(Deque::getFirst).orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new ValidationException(String.format("Parameter '%s' must be an ISO-8601 instant", name));
+        }
+    }
+
+    private HttpHandler withAccessLog(HttpHandler handler) {
+        switch (webServiceConfiguration.getAccessLogMode()) {
+            case FILE:
+                accessLogReceiver = new AsyncFileAccessLogReceiver(
+                        Paths.get(webServiceConfiguration.getAccessLogDirectory()),
+                        webServiceConfiguration.getAccessLogBufferSize(),
+                        webServiceConfiguration.getAccessLogMaxFileSize(),
+                        webServiceConfiguration.getAccessLogMaxFiles());
+                accessLogReceiver.start();
+                metricRegistry.counter("access_log_dropped_total",
+                        "Access log messages dropped because buffer was full", accessLogReceiver::getDropped);
+                return new AccessLogHandler(handler, accessLogReceiver, "json", new JsonAccessLogAttribute());
+            case SLF4J:
+                return new AccessLogHandler(handler, new Slf4jAccessLogReceiver(), "common", App.class.getClassLoader());
+            default:
+                return handler;
+        }
+    }
+
     public Integer getListenerPort() {
         return Optional.ofNullable(server).map(Undertow::getListenerInfo)
                 .map(Collection::stream).flatMap(Stream::findFirst)
@@ -206,6 +612,23 @@ public class App {
         if (server != null) {
             server.stop();
         }
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdown();
+        }
+        if (accessLogReceiver != null) {
+            accessLogReceiver.stop();
+        }
+        if (journal != null) {
+            journal.stop();
+        }
+        if (ledgerWriter != null) {
+            ledgerWriter.stop();
+        }
+        if (shardExecutor != null) {
+            shardExecutor.stop();
+        }
+        caches.forEach(BoundedCache::close);
+        connectionFactory.getStatementCache().close();
     }
 
 
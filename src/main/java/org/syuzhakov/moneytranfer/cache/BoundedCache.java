@@ -0,0 +1,210 @@
+package org.syuzhakov.moneytranfer.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+
+/**
+ * Cache with size and time based eviction: least recently used entry is evicted when cache is full,
+ * entry expires when given time passes after it was put.
+ * Keys are spread over segments with own lock and own LRU order, so eviction picks the least recently used entry
+ * of the segment, and concurrent lookups of different segments do not wait for each other.
+ * Invalidations are counted per segment, so they refuse puts of the same segment only.
+ */
+public class BoundedCache<K, V> implements CacheMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedCache.class);
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+    private static final int MAX_SEGMENTS = 16;
+    //Smaller segments would make eviction order too far from LRU
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private final long timeToLiveNanos;
+    private final Segment<K, V>[] segments;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private ObjectName objectName;
+
+    public BoundedCache(String name, int maxSize, long timeToLiveMillis) {
+        this.timeToLiveNanos = timeToLiveMillis * 1_000_000;
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && maxSize / (segmentCount * 2) >= MIN_SEGMENT_SIZE) {
+            segmentCount *= 2;
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Segment<K, V>[] segments = new Segment[segmentCount];
+        this.segments = segments;
+        this.mask = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            //Remainder goes to first segments, so sizes sum up to max size
+            segments[i] = new Segment<>(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0), evictions);
+        }
+        registerMBean(name);
+    }
+
+    public V get(K key) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> entry = segment.entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            if (System.nanoTime() - entry.createdAt > timeToLiveNanos) {
+                segment.entries.remove(key);
+                evictions.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Stamp of the key to be taken before value is read from source, see {@link #put(Object, Object, long)}.
+     */
+    public long stamp(K key) {
+        return segmentOf(key).invalidations;
+    }
+
+    /**
+     * Puts value read from source unless some entry of its segment was invalidated after stamp was taken,
+     * because the value might be read before that change.
+     */
+    public void put(K key, V value, long stamp) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            //Invalidation counts and removes under segment lock, so a stale value is either refused or removed
+            if (stamp == segment.invalidations) {
+                segment.entries.put(key, new Entry<>(value));
+            }
+        }
+    }
+
+    /**
+     * Puts value or, if cache already has unexpired one, result of merge function.
+     */
+    public void merge(K key, V value, BinaryOperator<V> mergeFunction) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> entry = segment.entries.get(key);
+            if (entry == null || System.nanoTime() - entry.createdAt > timeToLiveNanos) {
+                segment.entries.put(key, new Entry<>(value));
+            } else {
+                final V mergedValue = mergeFunction.apply(entry.value, value);
+                if (mergedValue != entry.value) {
+                    segment.entries.put(key, new Entry<>(mergedValue));
+                }
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            segment.invalidations++;
+            segment.entries.remove(key);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentOf(K key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /**
+     * Unregisters MBean of the cache.
+     */
+    public void close() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Cannot unregister cache MBean: " + e.getMessage(), e);
+        }
+        objectName = null;
+    }
+
+    private void registerMBean(String name) {
+        try {
+            objectName = new ObjectName(
+                    "org.syuzhakov.moneytranfer:type=Cache,name=" + name + "-" + INSTANCE_COUNTER.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            LOGGER.warn("Cannot register cache MBean: " + e.getMessage(), e);
+        }
+    }
+
+    private static class Segment<K, V> {
+        private final Map<K, Entry<V>> entries;
+        //Changed under segment lock, read without it by stamp
+        private volatile long invalidations;
+
+        private Segment(int maxSize, LongAdder evictions) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    if (size() <= maxSize) {
+                        return false;
+                    }
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long createdAt = System.nanoTime();
+
+        private Entry(V value) {
+            this.value = value;
+        }
+    }
+}
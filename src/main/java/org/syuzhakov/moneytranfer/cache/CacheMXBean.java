@@ -0,0 +1,13 @@
+package org.syuzhakov.moneytranfer.cache;
+
+public interface CacheMXBean {
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    double getHitRate();
+
+    int getSize();
+}
@@ -0,0 +1,10 @@
+package org.syuzhakov.moneytranfer.config;
+
+public enum AccessLogMode {
+    //Common log format written synchronously through slf4j
+    SLF4J,
+    //JSON lines written by background thread to rotating files
+    FILE,
+    //No access log
+    NONE
+}
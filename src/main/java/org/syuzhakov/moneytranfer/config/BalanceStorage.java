@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.config;
+
+public enum BalanceStorage {
+    //Every balance change closes current row of balance table and inserts a new one
+    TEMPORAL,
+    //Balance_current row of account is updated in place, changes are appended to balance_history
+    CURRENT
+}
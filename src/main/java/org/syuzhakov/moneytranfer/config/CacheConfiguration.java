@@ -0,0 +1,34 @@
+package org.syuzhakov.moneytranfer.config;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Optional;
+import java.util.Properties;
+
+@Getter
+public class CacheConfiguration {
+    private boolean enabled = false;
+    private CacheConsistency consistency = CacheConsistency.STRICT;
+    private int maxSize = 100_000;
+    private long timeToLiveMillis = 60_000;
+
+    public CacheConfiguration(Properties properties) {
+        enabled = "true".equals(properties.getProperty("cache.enabled"));
+        consistency = Optional.ofNullable(properties.getProperty("cache.consistency"))
+                .map(String::toUpperCase).map(CacheConsistency::valueOf).orElse(consistency);
+        maxSize = Optional.ofNullable(properties.getProperty("cache.maxSize"))
+                .map(Integer::parseInt).orElse(maxSize);
+        timeToLiveMillis = Optional.ofNullable(properties.getProperty("cache.timeToLiveMillis"))
+                .map(Long::parseLong).orElse(timeToLiveMillis);
+    }
+
+    @Builder
+    public CacheConfiguration(boolean enabled, CacheConsistency consistency,
+                              Integer maxSize, Long timeToLiveMillis) {
+        this.enabled = enabled;
+        this.consistency = Optional.ofNullable(consistency).orElse(this.consistency);
+        this.maxSize = Optional.ofNullable(maxSize).orElse(this.maxSize);
+        this.timeToLiveMillis = Optional.ofNullable(timeToLiveMillis).orElse(this.timeToLiveMillis);
+    }
+}
@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.config;
+
+public enum CacheConsistency {
+    //Changed entries are invalidated by writing transaction and refreshed after its commit
+    STRICT,
+    //Writes do not touch cache, entry may be stale until it expires
+    BOUNDED
+}
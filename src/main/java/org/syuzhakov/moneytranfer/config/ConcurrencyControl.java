@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.config;
+
+public enum ConcurrencyControl {
+    //Account and balance rows are locked when read
+    PESSIMISTIC,
+    //Balances are read without lock and changed only if they were not changed since, conflicts are retried
+    OPTIMISTIC
+}
@@ -3,6 +3,7 @@ package org.syuzhakov.moneytranfer.config;
 import lombok.Builder;
 import lombok.Getter;
 
+import java.util.Optional;
 import java.util.Properties;
 
 @Getter
@@ -11,18 +12,86 @@ public class DatabaseConfiguration {
     private String user;
     private String password;
     private boolean performMigration = true;
+    private int statementCacheSize = 64;
+    private int queryCacheSize = 64;
+    private BalanceStorage balanceStorage = BalanceStorage.TEMPORAL;
+    //Connections are held only for a transaction, so pool is sized by cores, not by worker threads
+    private int poolMaxSize = Runtime.getRuntime().availableProcessors() * 2;
+    private int poolMinIdle;
+    private long connectionTimeoutMillis = 30_000;
+    private long idleTimeoutMillis = 600_000;
+    private long maxLifetimeMillis = 1_800_000;
+    //Zero disables leak detection
+    private long leakDetectionThresholdMillis = 0;
+    //Reads are served by a separate pool, so read spikes do not take connections of transfers
+    private boolean readOnlyPoolEnabled = true;
+    //Replica url, reads go to the main database when not set
+    private String readOnlyUrl;
+    private int readOnlyPoolMaxSize;
+    //Ids reserved from a sequence with one query, unused ones are lost on restart
+    private int idBlockSize = 100;
+    //How long a statement waits for a row lock before it fails, H2 default
+    private int lockTimeoutMillis = 1000;
 
     public DatabaseConfiguration(Properties source) {
         url = source.getProperty("datasource.url");
         user = source.getProperty("datasource.user");
         password = source.getProperty("datasource.password");
         performMigration = !"false".equals(source.getProperty("datasource.migrate"));
+        statementCacheSize = Optional.ofNullable(source.getProperty("datasource.statementCacheSize"))
+                .map(Integer::parseInt).orElse(statementCacheSize);
+        queryCacheSize = Optional.ofNullable(source.getProperty("datasource.queryCacheSize"))
+                .map(Integer::parseInt).orElse(queryCacheSize);
+        balanceStorage = Optional.ofNullable(source.getProperty("datasource.balanceStorage"))
+                .map(String::toUpperCase).map(BalanceStorage::valueOf).orElse(balanceStorage);
+        poolMaxSize = Optional.ofNullable(source.getProperty("datasource.pool.maxSize"))
+                .map(Integer::parseInt).orElse(poolMaxSize);
+        poolMinIdle = Optional.ofNullable(source.getProperty("datasource.pool.minIdle"))
+                .map(Integer::parseInt).orElse(poolMaxSize);
+        connectionTimeoutMillis = Optional.ofNullable(source.getProperty("datasource.pool.connectionTimeoutMillis"))
+                .map(Long::parseLong).orElse(connectionTimeoutMillis);
+        idleTimeoutMillis = Optional.ofNullable(source.getProperty("datasource.pool.idleTimeoutMillis"))
+                .map(Long::parseLong).orElse(idleTimeoutMillis);
+        maxLifetimeMillis = Optional.ofNullable(source.getProperty("datasource.pool.maxLifetimeMillis"))
+                .map(Long::parseLong).orElse(maxLifetimeMillis);
+        leakDetectionThresholdMillis = Optional.ofNullable(
+                source.getProperty("datasource.pool.leakDetectionThresholdMillis"))
+                .map(Long::parseLong).orElse(leakDetectionThresholdMillis);
+        readOnlyPoolEnabled = !"false".equals(source.getProperty("datasource.readOnly.enabled"));
+        readOnlyUrl = Optional.ofNullable(source.getProperty("datasource.readOnly.url")).orElse(url);
+        readOnlyPoolMaxSize = Optional.ofNullable(source.getProperty("datasource.readOnly.pool.maxSize"))
+                .map(Integer::parseInt).orElse(poolMaxSize);
+        idBlockSize = Optional.ofNullable(source.getProperty("datasource.idBlockSize"))
+                .map(Integer::parseInt).orElse(idBlockSize);
+        lockTimeoutMillis = Optional.ofNullable(source.getProperty("datasource.lockTimeoutMillis"))
+                .map(Integer::parseInt).orElse(lockTimeoutMillis);
     }
 
     @Builder
-    public DatabaseConfiguration(String url, String user, String password) {
+    public DatabaseConfiguration(String url, String user, String password,
+                                 Integer statementCacheSize, Integer queryCacheSize,
+                                 BalanceStorage balanceStorage, Integer poolMaxSize, Integer poolMinIdle,
+                                 Long connectionTimeoutMillis, Long idleTimeoutMillis, Long maxLifetimeMillis,
+                                 Long leakDetectionThresholdMillis, Boolean readOnlyPoolEnabled,
+                                 String readOnlyUrl, Integer readOnlyPoolMaxSize, Integer idBlockSize,
+                                 Integer lockTimeoutMillis) {
         this.url = url;
         this.user = user;
         this.password = password;
+        this.statementCacheSize = Optional.ofNullable(statementCacheSize).orElse(this.statementCacheSize);
+        this.queryCacheSize = Optional.ofNullable(queryCacheSize).orElse(this.queryCacheSize);
+        this.balanceStorage = Optional.ofNullable(balanceStorage).orElse(this.balanceStorage);
+        this.poolMaxSize = Optional.ofNullable(poolMaxSize).orElse(this.poolMaxSize);
+        this.poolMinIdle = Optional.ofNullable(poolMinIdle).orElse(this.poolMaxSize);
+        this.connectionTimeoutMillis = Optional.ofNullable(connectionTimeoutMillis).orElse(this.connectionTimeoutMillis);
+        this.idleTimeoutMillis = Optional.ofNullable(idleTimeoutMillis).orElse(this.idleTimeoutMillis);
+        this.maxLifetimeMillis = Optional.ofNullable(maxLifetimeMillis).orElse(this.maxLifetimeMillis);
+        this.leakDetectionThresholdMillis =
+                Optional.ofNullable(leakDetectionThresholdMillis).orElse(this.leakDetectionThresholdMillis);
+        this.readOnlyPoolEnabled = Optional.ofNullable(readOnlyPoolEnabled).orElse(this.readOnlyPoolEnabled);
+        this.readOnlyUrl = Optional.ofNullable(readOnlyUrl).orElse(url);
+        this.readOnlyPoolMaxSize = Optional.ofNullable(readOnlyPoolMaxSize).orElse(this.poolMaxSize);
+        this.idBlockSize = Optional.ofNullable(idBlockSize).orElse(this.idBlockSize);
+        this.lockTimeoutMillis = Optional.ofNullable(lockTimeoutMillis).orElse(this.lockTimeoutMillis);
     }
 }
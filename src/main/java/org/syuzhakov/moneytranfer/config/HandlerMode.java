@@ -0,0 +1,10 @@
+package org.syuzhakov.moneytranfer.config;
+
+public enum HandlerMode {
+    //Request is dispatched to XNIO worker pool and handled with blocking streams
+    BLOCKING,
+    //Body is read by I/O thread, request is handled by bounded platform thread pool
+    ASYNC,
+    //Same as ASYNC, but handler threads are virtual (JDK 21+)
+    VIRTUAL
+}
@@ -0,0 +1,113 @@
+package org.syuzhakov.moneytranfer.config;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Optional;
+import java.util.Properties;
+
+@Getter
+public class OperationConfiguration {
+    private OperationEngine engine = OperationEngine.DATABASE;
+    private int ledgerStripes = 256;
+    private int ledgerWriterBatchSize = 1000;
+    private int ledgerWriterQueueSize = 100_000;
+    private boolean journalEnabled = false;
+    private String journalDirectory = "journal";
+    private int journalSegmentSize = 64 * 1024 * 1024;
+    private int journalBatchSize = 256;
+    private long journalLingerMicros = 500;
+    private int batchChunkSize = 1000;
+    private int batchMaxSize = 10_000;
+    private int historyPageSize = 1000;
+    //History streamed at once, each holds a read-only connection while its page is written to client
+    private int historyMaxExports = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int shards = 16;
+    private int shardQueueSize = 10_000;
+    private int idempotencyCacheSize = 100_000;
+    private long idempotencyWindowMillis = 24 * 60 * 60 * 1000;
+    //Transfer failed by lock timeout or deadlock is run again in a new transaction, 1 disables retry
+    private int retryMaxAttempts = 3;
+    private long retryBackoffMillis = 5;
+    private ConcurrencyControl concurrency = ConcurrencyControl.PESSIMISTIC;
+    //Optimistic transfer is repeated within its transaction when balance was changed by a concurrent one
+    private int optimisticMaxAttempts = 10;
+
+    public OperationConfiguration(Properties properties) {
+        engine = Optional.ofNullable(properties.getProperty("operation.engine"))
+                .map(String::toUpperCase).map(OperationEngine::valueOf).orElse(engine);
+        ledgerStripes = Optional.ofNullable(properties.getProperty("operation.ledger.stripes"))
+                .map(Integer::parseInt).orElse(ledgerStripes);
+        ledgerWriterBatchSize = Optional.ofNullable(properties.getProperty("operation.ledger.writer.batchSize"))
+                .map(Integer::parseInt).orElse(ledgerWriterBatchSize);
+        ledgerWriterQueueSize = Optional.ofNullable(properties.getProperty("operation.ledger.writer.queueSize"))
+                .map(Integer::parseInt).orElse(ledgerWriterQueueSize);
+        journalEnabled = "true".equals(properties.getProperty("operation.ledger.journal.enabled"));
+        journalDirectory = Optional.ofNullable(properties.getProperty("operation.ledger.journal.directory"))
+                .orElse(journalDirectory);
+        journalSegmentSize = Optional.ofNullable(properties.getProperty("operation.ledger.journal.segmentSize"))
+                .map(Integer::parseInt).orElse(journalSegmentSize);
+        journalBatchSize = Optional.ofNullable(properties.getProperty("operation.ledger.journal.batchSize"))
+                .map(Integer::parseInt).orElse(journalBatchSize);
+        journalLingerMicros = Optional.ofNullable(properties.getProperty("operation.ledger.journal.lingerMicros"))
+                .map(Long::parseLong).orElse(journalLingerMicros);
+        batchChunkSize = Optional.ofNullable(properties.getProperty("operation.batch.chunkSize"))
+                .map(Integer::parseInt).orElse(batchChunkSize);
+        batchMaxSize = Optional.ofNullable(properties.getProperty("operation.batch.maxSize"))
+                .map(Integer::parseInt).orElse(batchMaxSize);
+        historyPageSize = Optional.ofNullable(properties.getProperty("operation.history.pageSize"))
+                .map(Integer::parseInt).orElse(historyPageSize);
+        historyMaxExports = Optional.ofNullable(properties.getProperty("operation.history.maxExports"))
+                .map(Integer::parseInt).orElse(historyMaxExports);
+        shards = Optional.ofNullable(properties.getProperty("operation.sharded.shards"))
+                .map(Integer::parseInt).orElse(shards);
+        shardQueueSize = Optional.ofNullable(properties.getProperty("operation.sharded.queueSize"))
+                .map(Integer::parseInt).orElse(shardQueueSize);
+        idempotencyCacheSize = Optional.ofNullable(properties.getProperty("operation.idempotency.cacheSize"))
+                .map(Integer::parseInt).orElse(idempotencyCacheSize);
+        idempotencyWindowMillis = Optional.ofNullable(properties.getProperty("operation.idempotency.windowMillis"))
+                .map(Long::parseLong).orElse(idempotencyWindowMillis);
+        retryMaxAttempts = Optional.ofNullable(properties.getProperty("operation.retry.maxAttempts"))
+                .map(Integer::parseInt).orElse(retryMaxAttempts);
+        retryBackoffMillis = Optional.ofNullable(properties.getProperty("operation.retry.backoffMillis"))
+                .map(Long::parseLong).orElse(retryBackoffMillis);
+        concurrency = Optional.ofNullable(properties.getProperty("operation.concurrency"))
+                .map(String::toUpperCase).map(ConcurrencyControl::valueOf).orElse(concurrency);
+        optimisticMaxAttempts = Optional.ofNullable(properties.getProperty("operation.optimistic.maxAttempts"))
+                .map(Integer::parseInt).orElse(optimisticMaxAttempts);
+    }
+
+    @Builder
+    public OperationConfiguration(OperationEngine engine, Integer ledgerStripes,
+                                  Integer ledgerWriterBatchSize, Integer ledgerWriterQueueSize,
+                                  boolean journalEnabled, String journalDirectory, Integer journalSegmentSize,
+                                  Integer journalBatchSize, Long journalLingerMicros,
+                                  Integer batchChunkSize, Integer batchMaxSize, Integer historyPageSize,
+                                  Integer historyMaxExports, Integer shards, Integer shardQueueSize,
+                                  Integer idempotencyCacheSize, Long idempotencyWindowMillis,
+                                  Integer retryMaxAttempts, Long retryBackoffMillis,
+                                  ConcurrencyControl concurrency, Integer optimisticMaxAttempts) {
+        this.engine = Optional.ofNullable(engine).orElse(this.engine);
+        this.ledgerStripes = Optional.ofNullable(ledgerStripes).orElse(this.ledgerStripes);
+        this.ledgerWriterBatchSize = Optional.ofNullable(ledgerWriterBatchSize).orElse(this.ledgerWriterBatchSize);
+        this.ledgerWriterQueueSize = Optional.ofNullable(ledgerWriterQueueSize).orElse(this.ledgerWriterQueueSize);
+        this.journalEnabled = journalEnabled;
+        this.journalDirectory = Optional.ofNullable(journalDirectory).orElse(this.journalDirectory);
+        this.journalSegmentSize = Optional.ofNullable(journalSegmentSize).orElse(this.journalSegmentSize);
+        this.journalBatchSize = Optional.ofNullable(journalBatchSize).orElse(this.journalBatchSize);
+        this.journalLingerMicros = Optional.ofNullable(journalLingerMicros).orElse(this.journalLingerMicros);
+        this.batchChunkSize = Optional.ofNullable(batchChunkSize).orElse(this.batchChunkSize);
+        this.batchMaxSize = Optional.ofNullable(batchMaxSize).orElse(this.batchMaxSize);
+        this.historyPageSize = Optional.ofNullable(historyPageSize).orElse(this.historyPageSize);
+        this.historyMaxExports = Optional.ofNullable(historyMaxExports).orElse(this.historyMaxExports);
+        this.shards = Optional.ofNullable(shards).orElse(this.shards);
+        this.shardQueueSize = Optional.ofNullable(shardQueueSize).orElse(this.shardQueueSize);
+        this.idempotencyCacheSize = Optional.ofNullable(idempotencyCacheSize).orElse(this.idempotencyCacheSize);
+        this.idempotencyWindowMillis =
+                Optional.ofNullable(idempotencyWindowMillis).orElse(this.idempotencyWindowMillis);
+        this.retryMaxAttempts = Optional.ofNullable(retryMaxAttempts).orElse(this.retryMaxAttempts);
+        this.retryBackoffMillis = Optional.ofNullable(retryBackoffMillis).orElse(this.retryBackoffMillis);
+        this.concurrency = Optional.ofNullable(concurrency).orElse(this.concurrency);
+        this.optimisticMaxAttempts = Optional.ofNullable(optimisticMaxAttempts).orElse(this.optimisticMaxAttempts);
+    }
+}
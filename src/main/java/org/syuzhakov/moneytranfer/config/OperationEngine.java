@@ -0,0 +1,10 @@
+package org.syuzhakov.moneytranfer.config;
+
+public enum OperationEngine {
+    //Every transfer is applied to database under row locks
+    DATABASE,
+    //Balances are kept in memory, database is updated asynchronously
+    LEDGER,
+    //Transfers are applied to database by single-threaded shards of accounts without row locks
+    SHARDED
+}
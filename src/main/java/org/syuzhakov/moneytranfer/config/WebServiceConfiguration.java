@@ -10,15 +10,83 @@ import java.util.Properties;
 public class WebServiceConfiguration {
     private int port;
     private boolean enabled = true;
+    private HandlerMode handlerMode = HandlerMode.BLOCKING;
+    private int handlerThreads = 64;
+    private int handlerQueueSize = 10_000;
+    private AccessLogMode accessLogMode = AccessLogMode.SLF4J;
+    private String accessLogDirectory = "logs";
+    private int accessLogBufferSize = 65_536;
+    private long accessLogMaxFileSize = 64 * 1024 * 1024;
+    private int accessLogMaxFiles = 10;
+    //Undertow defaults: I/O thread per core, 8 worker threads per I/O thread, 16 KB direct buffers
+    private int ioThreads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    private int workerThreads = ioThreads * 8;
+    private int bufferSize = 16 * 1024;
+    //Responses to pipelined HTTP/1.1 requests are buffered and flushed together
+    private boolean bufferPipelinedData;
+    //HTTP/2 cleartext (h2c), so a gateway multiplexes many requests over few connections
+    private boolean http2Enabled;
+    private int http2MaxConcurrentStreams = 1000;
+    private int http2InitialWindowSize = 1024 * 1024;
 
     public WebServiceConfiguration(Properties properties) {
         port = Optional.ofNullable(properties.getProperty("server.port")).map(Integer::parseInt).orElse(0);
         enabled = !"false".equals(properties.getProperty("server.enabled"));
+        handlerMode = Optional.ofNullable(properties.getProperty("server.handler.mode"))
+                .map(String::toUpperCase).map(HandlerMode::valueOf).orElse(handlerMode);
+        handlerThreads = Optional.ofNullable(properties.getProperty("server.handler.threads"))
+                .map(Integer::parseInt).orElse(handlerThreads);
+        handlerQueueSize = Optional.ofNullable(properties.getProperty("server.handler.queueSize"))
+                .map(Integer::parseInt).orElse(handlerQueueSize);
+        accessLogMode = Optional.ofNullable(properties.getProperty("server.accessLog.mode"))
+                .map(String::toUpperCase).map(AccessLogMode::valueOf).orElse(accessLogMode);
+        accessLogDirectory = Optional.ofNullable(properties.getProperty("server.accessLog.directory"))
+                .orElse(accessLogDirectory);
+        accessLogBufferSize = Optional.ofNullable(properties.getProperty("server.accessLog.bufferSize"))
+                .map(Integer::parseInt).orElse(accessLogBufferSize);
+        accessLogMaxFileSize = Optional.ofNullable(properties.getProperty("server.accessLog.maxFileSize"))
+                .map(Long::parseLong).orElse(accessLogMaxFileSize);
+        accessLogMaxFiles = Optional.ofNullable(properties.getProperty("server.accessLog.maxFiles"))
+                .map(Integer::parseInt).orElse(accessLogMaxFiles);
+        ioThreads = Optional.ofNullable(properties.getProperty("server.ioThreads"))
+                .map(Integer::parseInt).orElse(ioThreads);
+        workerThreads = Optional.ofNullable(properties.getProperty("server.workerThreads"))
+                .map(Integer::parseInt).orElse(ioThreads * 8);
+        bufferSize = Optional.ofNullable(properties.getProperty("server.bufferSize"))
+                .map(Integer::parseInt).orElse(bufferSize);
+        bufferPipelinedData = "true".equals(properties.getProperty("server.http.bufferPipelinedData"));
+        http2Enabled = "true".equals(properties.getProperty("server.http2.enabled"));
+        http2MaxConcurrentStreams = Optional.ofNullable(properties.getProperty("server.http2.maxConcurrentStreams"))
+                .map(Integer::parseInt).orElse(http2MaxConcurrentStreams);
+        http2InitialWindowSize = Optional.ofNullable(properties.getProperty("server.http2.initialWindowSize"))
+                .map(Integer::parseInt).orElse(http2InitialWindowSize);
     }
 
     @Builder
-    public WebServiceConfiguration(int port, boolean enabled) {
+    public WebServiceConfiguration(int port, boolean enabled,
+                                   HandlerMode handlerMode, Integer handlerThreads, Integer handlerQueueSize,
+                                   AccessLogMode accessLogMode, String accessLogDirectory,
+                                   Integer accessLogBufferSize, Long accessLogMaxFileSize,
+                                   Integer accessLogMaxFiles, Integer ioThreads, Integer workerThreads,
+                                   Integer bufferSize, Boolean bufferPipelinedData, Boolean http2Enabled,
+                                   Integer http2MaxConcurrentStreams, Integer http2InitialWindowSize) {
         this.port = port;
         this.enabled = enabled;
+        this.handlerMode = Optional.ofNullable(handlerMode).orElse(this.handlerMode);
+        this.handlerThreads = Optional.ofNullable(handlerThreads).orElse(this.handlerThreads);
+        this.handlerQueueSize = Optional.ofNullable(handlerQueueSize).orElse(this.handlerQueueSize);
+        this.accessLogMode = Optional.ofNullable(accessLogMode).orElse(this.accessLogMode);
+        this.accessLogDirectory = Optional.ofNullable(accessLogDirectory).orElse(this.accessLogDirectory);
+        this.accessLogBufferSize = Optional.ofNullable(accessLogBufferSize).orElse(this.accessLogBufferSize);
+        this.accessLogMaxFileSize = Optional.ofNullable(accessLogMaxFileSize).orElse(this.accessLogMaxFileSize);
+        this.accessLogMaxFiles = Optional.ofNullable(accessLogMaxFiles).orElse(this.accessLogMaxFiles);
+        this.ioThreads = Optional.ofNullable(ioThreads).orElse(this.ioThreads);
+        this.workerThreads = Optional.ofNullable(workerThreads).orElse(this.ioThreads * 8);
+        this.bufferSize = Optional.ofNullable(bufferSize).orElse(this.bufferSize);
+        this.bufferPipelinedData = Optional.ofNullable(bufferPipelinedData).orElse(this.bufferPipelinedData);
+        this.http2Enabled = Optional.ofNullable(http2Enabled).orElse(this.http2Enabled);
+        this.http2MaxConcurrentStreams =
+                Optional.ofNullable(http2MaxConcurrentStreams).orElse(this.http2MaxConcurrentStreams);
+        this.http2InitialWindowSize = Optional.ofNullable(http2InitialWindowSize).orElse(this.http2InitialWindowSize);
     }
 }
@@ -2,10 +2,27 @@ package org.syuzhakov.moneytranfer.database;
 
 import org.syuzhakov.moneytranfer.model.Account;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
 public interface AccountRepository {
     Account createNewAccount(Account account);
 
     Account getAccountById(long id, boolean forUpdate);
 
     void updateAccount(Account account);
+
+    void forEachAccount(Consumer<Account> consumer);
+
+    /**
+     * @return account version valid at given moment, null if account did not exist then
+     */
+    Account getAccountAt(long id, Instant at);
+
+    /**
+     * @return versions valid at given moment of accounts that existed then, by account id
+     */
+    Map<Long, Account> getAccountsAt(Collection<Long> ids, Instant at);
 }
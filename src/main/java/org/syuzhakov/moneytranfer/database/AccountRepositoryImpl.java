@@ -9,38 +9,87 @@ import org.syuzhakov.moneytranfer.model.AccountStatus;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public class AccountRepositoryImpl implements AccountRepository {
+    private static final String INSERT_NEW_ACCOUNT = new SQL()
+            .INSERT_INTO("account")
+            .VALUES("id", "?")
+            .VALUES("status", "?")
+            .VALUES("slots", "?")
+            .VALUES("fd", "sysdate")
+            .VALUES("td", "parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT')")
+            .toString();
+    private static final String SELECT_ACCOUNT =
+            "select id, status, slots, sysdate as ts from account where id = ? and sysdate between fd and td";
+    private static final String SELECT_ACCOUNT_FOR_UPDATE = SELECT_ACCOUNT + " for update";
+    private static final String CLOSE_ACCOUNT = new SQL()
+            .UPDATE("account")
+            .SET("td = ?")
+            .WHERE("id = ?")
+            .WHERE("? between fd and td")
+            .toString();
+    private static final String INSERT_ACCOUNT = new SQL()
+            .INSERT_INTO("account")
+            .VALUES("id", "?")
+            .VALUES("status", "?")
+            .VALUES("slots", "?")
+            .VALUES("fd", "?")
+            .VALUES("td", "parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT')")
+            .toString();
+    private static final String SELECT_ALL_ACCOUNTS =
+            "select id, status, slots, sysdate as ts from account where sysdate between fd and td";
+    private static final String SELECT_ACCOUNT_AT = new SQL()
+            .FROM("account")
+            .SELECT("id, status, slots, cast(? as timestamp) as ts")
+            .WHERE("id = ?")
+            .WHERE("fd <= ?")
+            .WHERE("td > ?")
+            .ORDER_BY("id desc, fd desc")
+            .toString() + " limit 1";
+    //Every account is an index lookup of its latest version with fd <= moment
+    private static final String SELECT_ACCOUNTS_AT = new SQL()
+            .FROM("table(id bigint = ?) requested")
+            .JOIN("account a on a.n = (select x.n from account x where x.id = requested.id"
+                    + " and x.fd <= ? and x.td > ? order by x.id desc, x.fd desc limit 1)")
+            .SELECT("a.id, a.status, a.slots, cast(? as timestamp) as ts")
+            .toString();
+    private static final String ACCOUNT_SEQUENCE = "SQ_ACCOUNT";
     private ConnectionFactory connectionFactory;
+    private SequenceIdAllocator idAllocator;
 
     public AccountRepositoryImpl(ConnectionFactory connectionFactory) {
+        this(connectionFactory, 1);
+    }
+
+    public AccountRepositoryImpl(ConnectionFactory connectionFactory, int idBlockSize) {
         this.connectionFactory = connectionFactory;
+        this.idAllocator = new SequenceIdAllocator(connectionFactory, ACCOUNT_SEQUENCE, idBlockSize);
     }
 
     @Override
     public Account createNewAccount(Account account) {
         try {
-            //Insert new record
-            final PreparedStatement insert = connectionFactory.getConnection().prepareStatement(new SQL()
-                    .INSERT_INTO("account")
-                    .VALUES("id", "SQ_ACCOUNT.NEXTVAL")
-                    .VALUES("status", "?")
-                    .VALUES("fd", "sysdate")
-                    .VALUES("td", "parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT')")
-                    .toString());
-            insert.setInt(1, account.getStatus().getValue());
+            //Insert new record, id is known in advance so it is not read back
+            final long id = idAllocator.nextId();
+            final int slots = Optional.ofNullable(account.getSlots()).orElse(1);
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_NEW_ACCOUNT);
+            insert.setLong(1, id);
+            insert.setInt(2, account.getStatus().getValue());
+            insert.setInt(3, slots);
             insert.executeUpdate();
-            insert.close();
-
-            //Get inserted account
-            final Statement select = connectionFactory.getConnection().createStatement();
-            final ResultSet resultSet = select
-                    .executeQuery("select id, status, sysdate as ts from account where n = scope_identity()");
-            final Account result = mapAccount(resultSet);
-            select.close();
-            return result;
+            return Account.builder()
+                    .id(id)
+                    .status(account.getStatus())
+                    .slots(slots)
+                    .actuality(Instant.now())
+                    .build();
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
@@ -49,16 +98,10 @@ public class AccountRepositoryImpl implements AccountRepository {
     @Override
     public Account getAccountById(long id, boolean forUpdate) {
         try {
-            String sql = "select id, status, sysdate as ts from account where id = ? and sysdate between fd and td";
-            if (forUpdate) {
-                sql += " for update";
-            }
-            final PreparedStatement select = connectionFactory.getConnection().prepareStatement(sql);
+            final PreparedStatement select = connectionFactory.prepareStatement(
+                    forUpdate ? SELECT_ACCOUNT_FOR_UPDATE : SELECT_ACCOUNT);
             select.setLong(1, id);
-            final ResultSet resultSet = select.executeQuery();
-            final Account result = mapAccount(resultSet);
-            select.close();
-            return result;
+            return mapAccount(select.executeQuery());
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
@@ -76,31 +119,69 @@ public class AccountRepositoryImpl implements AccountRepository {
             final Timestamp lockTime = Timestamp.from(lockedAccount.getActuality());
 
             //Close current record
-            final PreparedStatement update = connectionFactory.getConnection().prepareStatement(new SQL()
-                    .UPDATE("account")
-                    .SET("td = ?")
-                    .WHERE("id = ?")
-                    .WHERE("? between fd and td")
-                    .toString());
+            final PreparedStatement update = connectionFactory.prepareStatement(CLOSE_ACCOUNT);
             update.setTimestamp(1, lockTime);
             update.setLong(2, account.getId());
             update.setTimestamp(3, lockTime);
             update.executeUpdate();
-            update.close();
 
             //Insert new record
-            final PreparedStatement insert = connectionFactory.getConnection().prepareStatement(new SQL()
-                    .INSERT_INTO("account")
-                    .VALUES("id", "?")
-                    .VALUES("status", "?")
-                    .VALUES("fd", "?")
-                    .VALUES("td", "parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT')")
-                    .toString());
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_ACCOUNT);
             insert.setLong(1, account.getId());
             insert.setInt(2, account.getStatus().getValue());
-            insert.setTimestamp(3, lockTime);
+            insert.setInt(3, Optional.ofNullable(account.getSlots()).orElse(lockedAccount.getSlots()));
+            insert.setTimestamp(4, lockTime);
             insert.executeUpdate();
-            insert.close();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void forEachAccount(Consumer<Account> consumer) {
+        try {
+            final ResultSet resultSet = connectionFactory.prepareStatement(SELECT_ALL_ACCOUNTS).executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(readAccount(resultSet));
+            }
+            resultSet.close();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Account getAccountAt(long id, Instant at) {
+        try {
+            final Timestamp timestamp = Timestamp.from(at);
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_ACCOUNT_AT);
+            select.setTimestamp(1, timestamp);
+            select.setLong(2, id);
+            select.setTimestamp(3, timestamp);
+            select.setTimestamp(4, timestamp);
+            return mapAccount(select.executeQuery());
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, Account> getAccountsAt(Collection<Long> ids, Instant at) {
+        try {
+            final Timestamp timestamp = Timestamp.from(at);
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_ACCOUNTS_AT);
+            select.setTimestamp(1, timestamp);
+            select.setObject(2, ids.toArray(new Long[0]));
+            select.setTimestamp(3, timestamp);
+            select.setTimestamp(4, timestamp);
+            final ResultSet resultSet = select.executeQuery();
+            final Map<Long, Account> accounts = new HashMap<>();
+            while (resultSet.next()) {
+                final Account account = readAccount(resultSet);
+                accounts.put(account.getId(), account);
+            }
+            resultSet.close();
+            return accounts;
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
@@ -109,13 +190,18 @@ public class AccountRepositoryImpl implements AccountRepository {
     private Account mapAccount(ResultSet resultSet) throws SQLException {
         Account account = null;
         if (resultSet.next()) {
-            account = Account.builder()
-                    .id(resultSet.getLong("id"))
-                    .status(AccountStatus.fromValue(resultSet.getInt("status")))
-                    .actuality(resultSet.getTimestamp("ts").toInstant())
-                    .build();
+            account = readAccount(resultSet);
         }
         resultSet.close();
         return account;
     }
+
+    private Account readAccount(ResultSet resultSet) throws SQLException {
+        return Account.builder()
+                .id(resultSet.getLong("id"))
+                .status(AccountStatus.fromValue(resultSet.getInt("status")))
+                .slots(resultSet.getInt("slots"))
+                .actuality(resultSet.getTimestamp("ts").toInstant())
+                .build();
+    }
 }
@@ -3,8 +3,49 @@ package org.syuzhakov.moneytranfer.database;
 import org.syuzhakov.moneytranfer.model.Balance;
 import org.syuzhakov.moneytranfer.model.Operation;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
 public interface BalanceRepository {
     Balance getBalance(Long accountId, boolean forUpdate);
 
+    /**
+     * Reads current balance without lock from database, never from cache. Operation balance was last changed by
+     * is its version for {@link #updateBalance(Long, Long, Operation, Long)}.
+     */
+    Balance getBalanceVersion(Long accountId);
+
     void updateBalance(Long accountId, Long balance, Operation operation);
+
+    /**
+     * Changes balance only if it was last changed by expected operation.
+     *
+     * @return false if balance was changed by another operation since it was read
+     */
+    boolean updateBalance(Long accountId, Long balance, Operation operation, long expectedOperation);
+
+    void updateBalances(List<Balance> balances);
+
+    void forEachBalance(Consumer<Balance> consumer);
+
+    /**
+     * Resolves account statuses and balances with one query.
+     *
+     * @return balances of given accounts that exist and are active, by account id.
+     * Accounts without balance record get zero balance without operation.
+     */
+    Map<Long, Balance> getActiveBalances(Collection<Long> accountIds);
+
+    /**
+     * @return balance valid at given moment, null if account had no balance then
+     */
+    Balance getBalanceAt(Long accountId, Instant at);
+
+    /**
+     * @return balances valid at given moment of accounts that had balance then, by account id
+     */
+    Map<Long, Balance> getBalancesAt(Collection<Long> accountIds, Instant at);
 }
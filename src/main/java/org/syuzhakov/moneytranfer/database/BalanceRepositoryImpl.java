@@ -1,7 +1,9 @@
 package org.syuzhakov.moneytranfer.database;
 
 import org.apache.ibatis.jdbc.SQL;
+import org.h2.api.ErrorCode;
 import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
 import org.syuzhakov.moneytranfer.model.Balance;
 import org.syuzhakov.moneytranfer.model.Operation;
 
@@ -9,8 +11,75 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class BalanceRepositoryImpl implements BalanceRepository {
+    //td of current record
+    private static final String OPEN_TD = "parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT')";
+    private static final String SELECT_BALANCE = new SQL()
+            .FROM("balance")
+            .SELECT("account_id, balance, operation_id, sysdate as ts")
+            .WHERE("account_id = ?")
+            .WHERE("sysdate between fd and td")
+            .toString();
+    //Sysdate is fixed when transaction starts, a transaction that waited for the lock would read a closed record
+    private static final String SELECT_CURRENT_BALANCE = new SQL()
+            .FROM("balance")
+            .SELECT("account_id, balance, operation_id, sysdate as ts")
+            .WHERE("account_id = ?")
+            .WHERE("td = " + OPEN_TD)
+            .toString();
+    private static final String SELECT_BALANCE_FOR_UPDATE = SELECT_CURRENT_BALANCE + " for update";
+    private static final String CLOSE_BALANCE = new SQL()
+            .UPDATE("balance")
+            .SET("td = ?")
+            .WHERE("account_id = ?")
+            .WHERE("td = " + OPEN_TD)
+            .toString();
+    private static final String CLOSE_BALANCE_VERSION = CLOSE_BALANCE + " and operation_id = ?";
+    private static final String INSERT_BALANCE = new SQL()
+            .INSERT_INTO("balance")
+            .VALUES("account_id", "?")
+            .VALUES("balance", "?")
+            .VALUES("operation_id", "?")
+            .VALUES("fd", "?")
+            .VALUES("td", "coalesce(?, " + OPEN_TD + ")")
+            .toString();
+    private static final String SELECT_ALL_BALANCES = new SQL()
+            .FROM("balance")
+            .SELECT("account_id, balance, operation_id, sysdate as ts")
+            .WHERE("sysdate between fd and td")
+            .toString();
+    private static final String SELECT_ACTIVE_BALANCES = new SQL()
+            .SELECT("a.id as account_id, coalesce(b.balance, 0) as balance, b.operation_id, sysdate as ts")
+            .FROM("table(id bigint = ?) requested")
+            .JOIN("account a on a.id = requested.id and sysdate between a.fd and a.td")
+            .LEFT_OUTER_JOIN("balance b on b.account_id = a.id and sysdate between b.fd and b.td")
+            .WHERE("a.status = ?")
+            .toString();
+    private static final String SELECT_BALANCE_AT = new SQL()
+            .FROM("balance")
+            .SELECT("account_id, balance, operation_id, cast(? as timestamp) as ts")
+            .WHERE("account_id = ?")
+            .WHERE("fd <= ?")
+            .WHERE("td > ?")
+            .ORDER_BY("account_id desc, fd desc")
+            .toString() + " limit 1";
+    //Every account is an index lookup of its latest record with fd <= moment
+    private static final String SELECT_BALANCES_AT = new SQL()
+            .FROM("table(id bigint = ?) requested")
+            .JOIN("balance b on b.n = (select x.n from balance x where x.account_id = requested.id"
+                    + " and x.fd <= ? and x.td > ? order by x.account_id desc, x.fd desc limit 1)")
+            .SELECT("b.account_id, b.balance, b.operation_id, cast(? as timestamp) as ts")
+            .toString();
     private ConnectionFactory connectionFactory;
 
     public BalanceRepositoryImpl(ConnectionFactory connectionFactory) {
@@ -20,20 +89,21 @@ public class BalanceRepositoryImpl implements BalanceRepository {
     @Override
     public Balance getBalance(Long accountId, boolean forUpdate) {
         try {
-            String sql = new SQL().FROM("balance")
-                    .SELECT("account_id, balance, operation_id, sysdate as ts")
-                    .WHERE("account_id = ?")
-                    .WHERE("sysdate between fd and td")
-                    .toString();
-            if (forUpdate) {
-                sql += " for update";
-            }
-            final PreparedStatement select = connectionFactory.getConnection().prepareStatement(sql);
+            final PreparedStatement select = connectionFactory.prepareStatement(
+                    forUpdate ? SELECT_BALANCE_FOR_UPDATE : SELECT_BALANCE);
             select.setLong(1, accountId);
-            final ResultSet resultSet = select.executeQuery();
-            final Balance result = mapBalance(resultSet);
-            select.close();
-            return result;
+            return mapBalance(select.executeQuery());
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Balance getBalanceVersion(Long accountId) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_CURRENT_BALANCE);
+            select.setLong(1, accountId);
+            return mapBalance(select.executeQuery());
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
@@ -44,48 +114,184 @@ public class BalanceRepositoryImpl implements BalanceRepository {
         final Timestamp updateTime = Timestamp.from(operation.getTimestamp());
         try {
             //Close current record
-            final PreparedStatement update = connectionFactory.getConnection().prepareStatement(new SQL()
-                    .UPDATE("balance")
-                    .SET("td = ?")
-                    .WHERE("account_id = ?")
-                    .WHERE("sysdate between fd and td")
-                    .toString());
+            final PreparedStatement update = connectionFactory.prepareStatement(CLOSE_BALANCE);
             update.setTimestamp(1, updateTime);
             update.setLong(2, accountId);
             update.executeUpdate();
-            update.close();
-
-            //Insert new record
-            final PreparedStatement insert = connectionFactory.getConnection().prepareStatement(new SQL()
-                    .INSERT_INTO("balance")
-                    .VALUES("account_id", "?")
-                    .VALUES("balance", "?")
-                    .VALUES("operation_id", "?")
-                    .VALUES("fd", "?")
-                    .VALUES("td", "parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT')")
-                    .toString());
-            insert.setLong(1, accountId);
-            insert.setLong(2, balance);
-            insert.setLong(3, operation.getId());
-            insert.setTimestamp(4, updateTime);
-            insert.executeUpdate();
-            insert.close();
+
+            insertBalance(accountId, balance, operation, updateTime);
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public boolean updateBalance(Long accountId, Long balance, Operation operation, long expectedOperation) {
+        final Timestamp updateTime = Timestamp.from(operation.getTimestamp());
+        try {
+            //Close current record if it is still of expected version
+            final PreparedStatement update = connectionFactory.prepareStatement(CLOSE_BALANCE_VERSION);
+            update.setTimestamp(1, updateTime);
+            update.setLong(2, accountId);
+            update.setLong(3, expectedOperation);
+            if (update.executeUpdate() == 0) {
+                return false;
+            }
+
+            insertBalance(accountId, balance, operation, updateTime);
+            return true;
+        } catch (SQLException e) {
+            //Record was changed by a transaction committed while this one waited for its lock
+            if (e.getErrorCode() == ErrorCode.CONCURRENT_UPDATE_1) {
+                return false;
+            }
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private void insertBalance(Long accountId, Long balance, Operation operation, Timestamp updateTime)
+            throws SQLException {
+        final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_BALANCE);
+        insert.setLong(1, accountId);
+        insert.setLong(2, balance);
+        insert.setLong(3, operation.getId());
+        insert.setTimestamp(4, updateTime);
+        insert.setNull(5, Types.TIMESTAMP);
+        insert.executeUpdate();
+    }
+
+    @Override
+    public void updateBalances(List<Balance> balances) {
+        try {
+            //Close current record of every account once
+            final PreparedStatement update = connectionFactory.prepareStatement(CLOSE_BALANCE);
+            final Set<Long> closedAccounts = new HashSet<>();
+            for (Balance balance : balances) {
+                if (closedAccounts.add(balance.getAccount())) {
+                    update.setTimestamp(1, Timestamp.from(balance.getActuality()));
+                    update.setLong(2, balance.getAccount());
+                    update.addBatch();
+                }
+            }
+            update.executeBatch();
+
+            //Every new record is closed by the next record of the same account, the last one stays open
+            final Timestamp[] closeTimes = new Timestamp[balances.size()];
+            final Map<Long, Timestamp> nextUpdateTimes = new HashMap<>();
+            for (int i = balances.size() - 1; i >= 0; i--) {
+                final Balance balance = balances.get(i);
+                closeTimes[i] = nextUpdateTimes.put(balance.getAccount(), Timestamp.from(balance.getActuality()));
+            }
+
+            //Insert new records
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_BALANCE);
+            for (int i = 0; i < balances.size(); i++) {
+                final Balance balance = balances.get(i);
+                insert.setLong(1, balance.getAccount());
+                insert.setLong(2, balance.getBalance());
+                insert.setLong(3, balance.getOperation());
+                insert.setTimestamp(4, Timestamp.from(balance.getActuality()));
+                insert.setTimestamp(5, closeTimes[i]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
     }
 
+    @Override
+    public void forEachBalance(Consumer<Balance> consumer) {
+        try {
+            final ResultSet resultSet = connectionFactory.prepareStatement(SELECT_ALL_BALANCES).executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(readBalance(resultSet));
+            }
+            resultSet.close();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, Balance> getActiveBalances(Collection<Long> accountIds) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_ACTIVE_BALANCES);
+            select.setObject(1, accountIds.toArray(new Long[0]));
+            select.setInt(2, AccountStatus.ACTIVE.getValue());
+            final ResultSet resultSet = select.executeQuery();
+            final Map<Long, Balance> balances = new HashMap<>();
+            while (resultSet.next()) {
+                final Balance balance = Balance.builder()
+                        .account(resultSet.getLong("account_id"))
+                        .operation((Long) resultSet.getObject("operation_id"))
+                        .balance(resultSet.getLong("balance"))
+                        .actuality(resultSet.getTimestamp("ts").toInstant())
+                        .build();
+                balances.put(balance.getAccount(), balance);
+            }
+            resultSet.close();
+            return balances;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Balance getBalanceAt(Long accountId, Instant at) {
+        try {
+            final Timestamp timestamp = Timestamp.from(at);
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_BALANCE_AT);
+            select.setTimestamp(1, timestamp);
+            select.setLong(2, accountId);
+            select.setTimestamp(3, timestamp);
+            select.setTimestamp(4, timestamp);
+            return mapBalance(select.executeQuery());
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, Balance> getBalancesAt(Collection<Long> accountIds, Instant at) {
+        try {
+            final Timestamp timestamp = Timestamp.from(at);
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_BALANCES_AT);
+            select.setTimestamp(1, timestamp);
+            select.setObject(2, accountIds.toArray(new Long[0]));
+            select.setTimestamp(3, timestamp);
+            select.setTimestamp(4, timestamp);
+            return mapBalances(select.executeQuery());
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private Map<Long, Balance> mapBalances(ResultSet resultSet) throws SQLException {
+        final Map<Long, Balance> balances = new HashMap<>();
+        while (resultSet.next()) {
+            final Balance balance = readBalance(resultSet);
+            balances.put(balance.getAccount(), balance);
+        }
+        resultSet.close();
+        return balances;
+    }
+
     private Balance mapBalance(ResultSet resultSet) throws SQLException {
         Balance balance = null;
         if (resultSet.next()) {
-            balance = Balance.builder()
-                    .account(resultSet.getLong("account_id"))
-                    .operation(resultSet.getLong("operation_id"))
-                    .balance(resultSet.getLong("balance"))
-                    .actuality(resultSet.getTimestamp("ts").toInstant())
-                    .build();
+            balance = readBalance(resultSet);
         }
         resultSet.close();
         return balance;
     }
+
+    private Balance readBalance(ResultSet resultSet) throws SQLException {
+        return Balance.builder()
+                .account(resultSet.getLong("account_id"))
+                .operation(resultSet.getLong("operation_id"))
+                .balance(resultSet.getLong("balance"))
+                .actuality(resultSet.getTimestamp("ts").toInstant())
+                .build();
+    }
 }
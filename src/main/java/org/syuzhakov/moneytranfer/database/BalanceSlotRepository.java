@@ -0,0 +1,29 @@
+package org.syuzhakov.moneytranfer.database;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Slot rows of split accounts. Credit changes one slot row, so concurrent credits of an account
+ * lock different rows.
+ */
+public interface BalanceSlotRepository {
+    /**
+     * Creates missing slot rows with zero balance, so credits never insert rows concurrently.
+     */
+    void createSlots(long accountId, int slots);
+
+    void addToSlot(long accountId, int slot, long amount);
+
+    /**
+     * @return balances of account slots by slot number in ascending order
+     */
+    Map<Integer, Long> getSlotBalances(long accountId, boolean forUpdate);
+
+    void updateSlotBalances(long accountId, Map<Integer, Long> balances);
+
+    /**
+     * @return sums of slot balances of given accounts that have slots, by account id
+     */
+    Map<Long, Long> getSlotTotals(Collection<Long> accountIds);
+}
@@ -0,0 +1,127 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.apache.ibatis.jdbc.SQL;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class BalanceSlotRepositoryImpl implements BalanceSlotRepository {
+    private static final String INSERT_SLOTS =
+            "insert into balance_slot (account_id, slot, balance) select ?, x, 0 from system_range(0, ?)" +
+                    " where x not in (select slot from balance_slot where account_id = ?)";
+    private static final String ADD_TO_SLOT = new SQL()
+            .UPDATE("balance_slot")
+            .SET("balance = balance + ?")
+            .WHERE("account_id = ?")
+            .WHERE("slot = ?")
+            .toString();
+    private static final String SELECT_SLOTS = new SQL()
+            .FROM("balance_slot")
+            .SELECT("slot, balance")
+            .WHERE("account_id = ?")
+            .ORDER_BY("slot")
+            .toString();
+    private static final String SELECT_SLOTS_FOR_UPDATE = SELECT_SLOTS + " for update";
+    private static final String UPDATE_SLOT = new SQL()
+            .UPDATE("balance_slot")
+            .SET("balance = ?")
+            .WHERE("account_id = ?")
+            .WHERE("slot = ?")
+            .toString();
+    private static final String SELECT_SLOT_TOTALS = new SQL()
+            .SELECT("s.account_id, sum(s.balance) as balance")
+            .FROM("table(id bigint = ?) requested")
+            .JOIN("balance_slot s on s.account_id = requested.id")
+            .GROUP_BY("s.account_id")
+            .toString();
+    private ConnectionFactory connectionFactory;
+
+    public BalanceSlotRepositoryImpl(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public void createSlots(long accountId, int slots) {
+        try {
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_SLOTS);
+            insert.setLong(1, accountId);
+            insert.setInt(2, slots - 1);
+            insert.setLong(3, accountId);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void addToSlot(long accountId, int slot, long amount) {
+        try {
+            final PreparedStatement update = connectionFactory.prepareStatement(ADD_TO_SLOT);
+            update.setLong(1, amount);
+            update.setLong(2, accountId);
+            update.setInt(3, slot);
+            if (update.executeUpdate() != 1) {
+                throw new UnexpectedException(String.format("Slot %s of account %s does not exist", slot, accountId));
+            }
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Integer, Long> getSlotBalances(long accountId, boolean forUpdate) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(
+                    forUpdate ? SELECT_SLOTS_FOR_UPDATE : SELECT_SLOTS);
+            select.setLong(1, accountId);
+            final ResultSet resultSet = select.executeQuery();
+            final Map<Integer, Long> balances = new TreeMap<>();
+            while (resultSet.next()) {
+                balances.put(resultSet.getInt("slot"), resultSet.getLong("balance"));
+            }
+            resultSet.close();
+            return balances;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void updateSlotBalances(long accountId, Map<Integer, Long> balances) {
+        try {
+            final PreparedStatement update = connectionFactory.prepareStatement(UPDATE_SLOT);
+            for (Map.Entry<Integer, Long> balance : balances.entrySet()) {
+                update.setLong(1, balance.getValue());
+                update.setLong(2, accountId);
+                update.setInt(3, balance.getKey());
+                update.addBatch();
+            }
+            update.executeBatch();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, Long> getSlotTotals(Collection<Long> accountIds) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_SLOT_TOTALS);
+            select.setObject(1, accountIds.toArray(new Long[0]));
+            final ResultSet resultSet = select.executeQuery();
+            final Map<Long, Long> totals = new HashMap<>();
+            while (resultSet.next()) {
+                totals.put(resultSet.getLong("account_id"), resultSet.getLong("balance"));
+            }
+            resultSet.close();
+            return totals;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+}
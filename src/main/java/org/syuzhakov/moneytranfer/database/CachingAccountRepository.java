@@ -0,0 +1,74 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.config.CacheConsistency;
+import org.syuzhakov.moneytranfer.model.Account;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Serves reads of accounts without lock from cache. Locking reads always go to database.
+ */
+public class CachingAccountRepository implements AccountRepository {
+    private final AccountRepository delegate;
+    private final ConnectionFactory connectionFactory;
+    private final BoundedCache<Long, Account> cache;
+    private final CacheConsistency consistency;
+
+    public CachingAccountRepository(AccountRepository delegate, ConnectionFactory connectionFactory,
+                                    BoundedCache<Long, Account> cache, CacheConsistency consistency) {
+        this.delegate = delegate;
+        this.connectionFactory = connectionFactory;
+        this.cache = cache;
+        this.consistency = consistency;
+    }
+
+    @Override
+    public Account createNewAccount(Account account) {
+        return delegate.createNewAccount(account);
+    }
+
+    @Override
+    public Account getAccountById(long id, boolean forUpdate) {
+        if (forUpdate) {
+            return delegate.getAccountById(id, true);
+        }
+        final Account cachedAccount = cache.get(id);
+        if (cachedAccount != null) {
+            return cachedAccount;
+        }
+        final long stamp = cache.stamp(id);
+        final Account account = delegate.getAccountById(id, false);
+        if (account != null) {
+            cache.put(id, account, stamp);
+        }
+        return account;
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        delegate.updateAccount(account);
+        if (consistency == CacheConsistency.STRICT) {
+            cache.invalidate(account.getId());
+            connectionFactory.afterCommit(() -> cache.invalidate(account.getId()));
+        }
+    }
+
+    @Override
+    public void forEachAccount(Consumer<Account> consumer) {
+        delegate.forEachAccount(consumer);
+    }
+
+    @Override
+    public Account getAccountAt(long id, Instant at) {
+        return delegate.getAccountAt(id, at);
+    }
+
+    @Override
+    public Map<Long, Account> getAccountsAt(Collection<Long> ids, Instant at) {
+        return delegate.getAccountsAt(ids, at);
+    }
+}
@@ -0,0 +1,115 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.config.CacheConsistency;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Serves reads of balances without lock from cache. Locking and versioned reads always go to database.
+ * Cache never replaces a balance with a balance of earlier operation, so late puts of concurrent
+ * readers and writers cannot bring an old balance back.
+ */
+public class CachingBalanceRepository implements BalanceRepository {
+    private final BalanceRepository delegate;
+    private final ConnectionFactory connectionFactory;
+    private final BoundedCache<Long, Balance> cache;
+    private final CacheConsistency consistency;
+
+    public CachingBalanceRepository(BalanceRepository delegate, ConnectionFactory connectionFactory,
+                                    BoundedCache<Long, Balance> cache, CacheConsistency consistency) {
+        this.delegate = delegate;
+        this.connectionFactory = connectionFactory;
+        this.cache = cache;
+        this.consistency = consistency;
+    }
+
+    @Override
+    public Balance getBalance(Long accountId, boolean forUpdate) {
+        if (forUpdate) {
+            return delegate.getBalance(accountId, true);
+        }
+        final Balance cachedBalance = cache.get(accountId);
+        if (cachedBalance != null) {
+            return cachedBalance;
+        }
+        final Balance balance = delegate.getBalance(accountId, false);
+        if (balance != null) {
+            cache.merge(accountId, balance, CachingBalanceRepository::latest);
+        }
+        return balance;
+    }
+
+    @Override
+    public Balance getBalanceVersion(Long accountId) {
+        return delegate.getBalanceVersion(accountId);
+    }
+
+    @Override
+    public void updateBalance(Long accountId, Long balance, Operation operation) {
+        delegate.updateBalance(accountId, balance, operation);
+        refreshAfterCommit(accountId, balance, operation);
+    }
+
+    @Override
+    public boolean updateBalance(Long accountId, Long balance, Operation operation, long expectedOperation) {
+        if (!delegate.updateBalance(accountId, balance, operation, expectedOperation)) {
+            return false;
+        }
+        refreshAfterCommit(accountId, balance, operation);
+        return true;
+    }
+
+    @Override
+    public void updateBalances(List<Balance> balances) {
+        delegate.updateBalances(balances);
+        balances.forEach(this::refreshAfterCommit);
+    }
+
+    @Override
+    public void forEachBalance(Consumer<Balance> consumer) {
+        delegate.forEachBalance(consumer);
+    }
+
+    @Override
+    public Map<Long, Balance> getActiveBalances(Collection<Long> accountIds) {
+        return delegate.getActiveBalances(accountIds);
+    }
+
+    @Override
+    public Balance getBalanceAt(Long accountId, Instant at) {
+        return delegate.getBalanceAt(accountId, at);
+    }
+
+    @Override
+    public Map<Long, Balance> getBalancesAt(Collection<Long> accountIds, Instant at) {
+        return delegate.getBalancesAt(accountIds, at);
+    }
+
+    private void refreshAfterCommit(Long accountId, Long balance, Operation operation) {
+        refreshAfterCommit(Balance.builder()
+                .account(accountId)
+                .balance(balance)
+                .operation(operation.getId())
+                .actuality(operation.getTimestamp())
+                .build());
+    }
+
+    private void refreshAfterCommit(Balance balance) {
+        if (consistency == CacheConsistency.STRICT) {
+            cache.invalidate(balance.getAccount());
+            connectionFactory.afterCommit(() ->
+                    cache.merge(balance.getAccount(), balance, CachingBalanceRepository::latest));
+        }
+    }
+
+    private static Balance latest(Balance cachedBalance, Balance newBalance) {
+        return newBalance.getOperation() > cachedBalance.getOperation() ? newBalance : cachedBalance;
+    }
+}
@@ -2,6 +2,7 @@ package org.syuzhakov.moneytranfer.database;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.function.Supplier;
 
 public interface ConnectionFactory {
@@ -9,5 +10,48 @@ public interface ConnectionFactory {
 
     Connection getConnection();
 
+    /**
+     * Prepares statement on current connection or takes it from statement cache.
+     * Statement must not be closed by caller and must not be executed again while its result set is in use.
+     */
+    PreparedStatement prepareStatement(String sql);
+
+    PreparedStatement prepareStatement(String sql, String[] generatedColumns);
+
+    StatementCache getStatementCache();
+
+    /**
+     * Executes target in transaction. Connection is taken from pool only when target needs it,
+     * nested call joins the outer transaction.
+     */
     <T> T executeInTransaction(Supplier<T> target);
+
+    /**
+     * Executes target inside current transaction. When target throws, only its own changes are rolled back
+     * and the transaction goes on. Without transaction target is executed in a new one.
+     */
+    <T> T executeInSavepoint(Supplier<T> target);
+
+    /**
+     * Returns true when current thread executes a transaction, so a nested call would join it.
+     */
+    boolean isInTransaction();
+
+    /**
+     * Executes target that only reads, on a read-only connection outside of the main pool when one is configured.
+     * Every statement sees data committed before it started. Call inside transaction joins the transaction.
+     */
+    <T> T executeReadOnly(Supplier<T> target);
+
+    /**
+     * Runs action after current transaction is committed, or at once when there is no transaction.
+     * Action is not run if transaction is rolled back.
+     */
+    void afterCommit(Runnable action);
+
+    /**
+     * Runs action after current transaction is committed (after all after commit actions) or rolled back,
+     * or at once when there is no transaction.
+     */
+    void afterCompletion(Runnable action);
 }
@@ -0,0 +1,277 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.apache.ibatis.jdbc.SQL;
+import org.h2.api.ErrorCode;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one balance_current row per account, so reading and locking a balance is a primary key lookup
+ * regardless of history size. Every change is also appended to balance_history.
+ */
+public class CurrentBalanceRepositoryImpl implements BalanceRepository {
+    private static final String SELECT_BALANCE = new SQL()
+            .FROM("balance_current")
+            .SELECT("account_id, balance, operation_id, sysdate as ts")
+            .WHERE("account_id = ?")
+            .toString();
+    private static final String SELECT_BALANCE_FOR_UPDATE = SELECT_BALANCE + " for update";
+    private static final String MERGE_BALANCE =
+            "merge into balance_current (account_id, balance, operation_id, ts) key (account_id) values (?, ?, ?, ?)";
+    private static final String UPDATE_BALANCE_VERSION = new SQL()
+            .UPDATE("balance_current")
+            .SET("balance = ?")
+            .SET("operation_id = ?")
+            .SET("ts = ?")
+            .WHERE("account_id = ?")
+            .WHERE("operation_id = ?")
+            .toString();
+    private static final String INSERT_HISTORY = new SQL()
+            .INSERT_INTO("balance_history")
+            .VALUES("account_id", "?")
+            .VALUES("balance", "?")
+            .VALUES("operation_id", "?")
+            .VALUES("ts", "?")
+            .toString();
+    private static final String SELECT_ALL_BALANCES = new SQL()
+            .FROM("balance_current")
+            .SELECT("account_id, balance, operation_id, sysdate as ts")
+            .toString();
+    private static final String SELECT_ACTIVE_BALANCES = new SQL()
+            .SELECT("a.id as account_id, coalesce(b.balance, 0) as balance, b.operation_id, sysdate as ts")
+            .FROM("table(id bigint = ?) requested")
+            .JOIN("account a on a.id = requested.id and sysdate between a.fd and a.td")
+            .LEFT_OUTER_JOIN("balance_current b on b.account_id = a.id")
+            .WHERE("a.status = ?")
+            .toString();
+    private static final String SELECT_BALANCE_AT = new SQL()
+            .FROM("balance_history")
+            .SELECT("account_id, balance, operation_id, cast(? as timestamp) as ts")
+            .WHERE("account_id = ?")
+            .WHERE("ts <= ?")
+            .ORDER_BY("account_id desc, ts desc, n desc")
+            .toString() + " limit 1";
+    //Every account is an index lookup of its latest history record with ts <= moment
+    private static final String SELECT_BALANCES_AT = new SQL()
+            .FROM("table(id bigint = ?) requested")
+            .JOIN("balance_history h on h.n = (select x.n from balance_history x where x.account_id = requested.id"
+                    + " and x.ts <= ? order by x.account_id desc, x.ts desc, x.n desc limit 1)")
+            .SELECT("h.account_id, h.balance, h.operation_id, cast(? as timestamp) as ts")
+            .toString();
+    private ConnectionFactory connectionFactory;
+
+    public CurrentBalanceRepositoryImpl(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public Balance getBalance(Long accountId, boolean forUpdate) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(
+                    forUpdate ? SELECT_BALANCE_FOR_UPDATE : SELECT_BALANCE);
+            select.setLong(1, accountId);
+            final ResultSet resultSet = select.executeQuery();
+            Balance balance = null;
+            if (resultSet.next()) {
+                balance = readBalance(resultSet);
+            }
+            resultSet.close();
+            return balance;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Balance getBalanceVersion(Long accountId) {
+        return getBalance(accountId, false);
+    }
+
+    @Override
+    public void updateBalance(Long accountId, Long balance, Operation operation) {
+        final Timestamp updateTime = Timestamp.from(operation.getTimestamp());
+        try {
+            //Update current record in place
+            final PreparedStatement merge = connectionFactory.prepareStatement(MERGE_BALANCE);
+            setBalance(merge, accountId, balance, operation.getId(), updateTime);
+            merge.executeUpdate();
+
+            //Append history record
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_HISTORY);
+            setBalance(insert, accountId, balance, operation.getId(), updateTime);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public boolean updateBalance(Long accountId, Long balance, Operation operation, long expectedOperation) {
+        final Timestamp updateTime = Timestamp.from(operation.getTimestamp());
+        try {
+            //Update current record in place if it is still of expected version
+            final PreparedStatement update = connectionFactory.prepareStatement(UPDATE_BALANCE_VERSION);
+            update.setLong(1, balance);
+            update.setLong(2, operation.getId());
+            update.setTimestamp(3, updateTime);
+            update.setLong(4, accountId);
+            update.setLong(5, expectedOperation);
+            if (update.executeUpdate() == 0) {
+                return false;
+            }
+
+            //Append history record
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_HISTORY);
+            setBalance(insert, accountId, balance, operation.getId(), updateTime);
+            insert.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            //Record was changed by a transaction committed while this one waited for its lock
+            if (e.getErrorCode() == ErrorCode.CONCURRENT_UPDATE_1) {
+                return false;
+            }
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void updateBalances(List<Balance> balances) {
+        try {
+            //Only the last balance of every account becomes current
+            final Map<Long, Balance> lastBalances = new LinkedHashMap<>();
+            for (Balance balance : balances) {
+                lastBalances.put(balance.getAccount(), balance);
+            }
+            final PreparedStatement merge = connectionFactory.prepareStatement(MERGE_BALANCE);
+            for (Balance balance : lastBalances.values()) {
+                setBalance(merge, balance);
+                merge.addBatch();
+            }
+            merge.executeBatch();
+
+            //Every balance goes to history
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_HISTORY);
+            for (Balance balance : balances) {
+                setBalance(insert, balance);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void forEachBalance(Consumer<Balance> consumer) {
+        try {
+            final ResultSet resultSet = connectionFactory.prepareStatement(SELECT_ALL_BALANCES).executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(readBalance(resultSet));
+            }
+            resultSet.close();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, Balance> getActiveBalances(Collection<Long> accountIds) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_ACTIVE_BALANCES);
+            select.setObject(1, accountIds.toArray(new Long[0]));
+            select.setInt(2, AccountStatus.ACTIVE.getValue());
+            final ResultSet resultSet = select.executeQuery();
+            final Map<Long, Balance> balances = new HashMap<>();
+            while (resultSet.next()) {
+                final Balance balance = Balance.builder()
+                        .account(resultSet.getLong("account_id"))
+                        .operation((Long) resultSet.getObject("operation_id"))
+                        .balance(resultSet.getLong("balance"))
+                        .actuality(resultSet.getTimestamp("ts").toInstant())
+                        .build();
+                balances.put(balance.getAccount(), balance);
+            }
+            resultSet.close();
+            return balances;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Balance getBalanceAt(Long accountId, Instant at) {
+        try {
+            final Timestamp timestamp = Timestamp.from(at);
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_BALANCE_AT);
+            select.setTimestamp(1, timestamp);
+            select.setLong(2, accountId);
+            select.setTimestamp(3, timestamp);
+            final ResultSet resultSet = select.executeQuery();
+            Balance balance = null;
+            if (resultSet.next()) {
+                balance = readBalance(resultSet);
+            }
+            resultSet.close();
+            return balance;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, Balance> getBalancesAt(Collection<Long> accountIds, Instant at) {
+        try {
+            final Timestamp timestamp = Timestamp.from(at);
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_BALANCES_AT);
+            select.setTimestamp(1, timestamp);
+            select.setObject(2, accountIds.toArray(new Long[0]));
+            select.setTimestamp(3, timestamp);
+            final ResultSet resultSet = select.executeQuery();
+            final Map<Long, Balance> balances = new HashMap<>();
+            while (resultSet.next()) {
+                final Balance balance = readBalance(resultSet);
+                balances.put(balance.getAccount(), balance);
+            }
+            resultSet.close();
+            return balances;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private void setBalance(PreparedStatement statement, Balance balance) throws SQLException {
+        setBalance(statement, balance.getAccount(), balance.getBalance(), balance.getOperation(),
+                Timestamp.from(balance.getActuality()));
+    }
+
+    private void setBalance(PreparedStatement statement, long accountId, long balance, long operationId,
+                            Timestamp timestamp) throws SQLException {
+        statement.setLong(1, accountId);
+        statement.setLong(2, balance);
+        statement.setLong(3, operationId);
+        statement.setTimestamp(4, timestamp);
+    }
+
+    private Balance readBalance(ResultSet resultSet) throws SQLException {
+        return Balance.builder()
+                .account(resultSet.getLong("account_id"))
+                .operation(resultSet.getLong("operation_id"))
+                .balance(resultSet.getLong("balance"))
+                .actuality(resultSet.getTimestamp("ts").toInstant())
+                .build();
+    }
+}
@@ -7,17 +7,38 @@ import javax.sql.DataSource;
 
 public class H2DataSourceFactory implements DataSourceFactory {
     private DatabaseConfiguration configuration;
+    private String url;
 
     public H2DataSourceFactory(DatabaseConfiguration configuration) {
+        this(configuration, configuration.getUrl());
+    }
+
+    public H2DataSourceFactory(DatabaseConfiguration configuration, String url) {
         this.configuration = configuration;
+        this.url = url;
     }
 
     @Override
     public DataSource getDataSource() {
         final JdbcDataSource dataSource = new JdbcDataSource();
-        dataSource.setURL(configuration.getUrl());
+        dataSource.setURL(withLockTimeout(withQueryCache(url)));
         dataSource.setUser(configuration.getUser());
         dataSource.setPassword(configuration.getPassword());
         return dataSource;
     }
+
+    private String withQueryCache(String url) {
+        //H2 keeps parsed commands per session, default size of 8 is too small for all repositories
+        if (url == null || url.toUpperCase().contains("QUERY_CACHE_SIZE")) {
+            return url;
+        }
+        return url + ";QUERY_CACHE_SIZE=" + configuration.getQueryCacheSize();
+    }
+
+    private String withLockTimeout(String url) {
+        if (url == null || url.toUpperCase().contains("LOCK_TIMEOUT")) {
+            return url;
+        }
+        return url + ";LOCK_TIMEOUT=" + configuration.getLockTimeoutMillis();
+    }
 }
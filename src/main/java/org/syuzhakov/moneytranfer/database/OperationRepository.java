@@ -2,6 +2,30 @@ package org.syuzhakov.moneytranfer.database;
 
 import org.syuzhakov.moneytranfer.model.Operation;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface OperationRepository {
     Operation createOperation(Operation operation);
+
+    List<Operation> createOperations(List<Operation> operations);
+
+    /**
+     * Saves operation with id assigned by caller, the id is not assigned to created operations afterwards.
+     */
+    void saveOperation(Operation operation);
+
+    long getLastOperationId();
+
+    boolean operationExists(long id);
+
+    Operation getOperationByIdempotencyKey(String idempotencyKey);
+
+    /**
+     * Passes at most {@code limit} operations with id greater than {@code afterId} in ascending id order.
+     * With not null {@code accountId} only operations where it is source or target account are passed.
+     *
+     * @return number of passed operations
+     */
+    int forEachOperation(Long accountId, long afterId, int limit, Consumer<Operation> consumer);
 }
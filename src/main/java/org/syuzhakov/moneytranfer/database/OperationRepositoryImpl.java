@@ -1,73 +1,242 @@
 package org.syuzhakov.moneytranfer.database;
 
 import org.apache.ibatis.jdbc.SQL;
+import org.syuzhakov.moneytranfer.error.DuplicateOperationException;
 import org.syuzhakov.moneytranfer.error.UnexpectedException;
 import org.syuzhakov.moneytranfer.model.Operation;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class OperationRepositoryImpl implements OperationRepository {
+    private static final String INSERT_OPERATION = new SQL()
+            .INSERT_INTO("operation")
+            .VALUES("id", "?")
+            .VALUES("source_account", "?")
+            .VALUES("target_account", "?")
+            .VALUES("amount", "?")
+            .VALUES("ts", "?")
+            .VALUES("idempotency_key", "?")
+            .toString();
+    private static final String SELECT_LAST_OPERATION_ID = "select coalesce(max(id), 0) from operation";
+    private static final String SELECT_OPERATION_EXISTS = "select 1 from operation where id = ?";
+    private static final String SELECT_OPERATIONS = new SQL()
+            .FROM("operation")
+            .SELECT("id, source_account, target_account, amount, ts, idempotency_key")
+            .WHERE("id > ?")
+            .ORDER_BY("id")
+            .toString() + " limit ?";
+    //Every branch is an index range scan on (account, id), only 2 * limit rows are merged
+    private static final String SELECT_ACCOUNT_OPERATIONS =
+            "select id, source_account, target_account, amount, ts, idempotency_key from (" +
+                    "(select id, source_account, target_account, amount, ts, idempotency_key from operation" +
+                    " where source_account = ? and id > ? order by id limit ?)" +
+                    " union all " +
+                    "(select id, source_account, target_account, amount, ts, idempotency_key from operation" +
+                    " where target_account = ? and id > ? order by id limit ?)" +
+                    ") order by id limit ?";
+    private static final String SELECT_OPERATION_BY_IDEMPOTENCY_KEY = new SQL()
+            .FROM("operation")
+            .SELECT("id, source_account, target_account, amount, ts, idempotency_key")
+            .WHERE("idempotency_key = ?")
+            .toString();
+    //Unique index violation
+    private static final String DUPLICATE_KEY_STATE = "23505";
+    private static final String OPERATION_SEQUENCE = "SQ_OPERATION";
     private ConnectionFactory connectionFactory;
+    private SequenceIdAllocator idAllocator;
 
     public OperationRepositoryImpl(ConnectionFactory connectionFactory) {
+        this(connectionFactory, 1);
+    }
+
+    public OperationRepositoryImpl(ConnectionFactory connectionFactory, int idBlockSize) {
         this.connectionFactory = connectionFactory;
+        this.idAllocator = new SequenceIdAllocator(connectionFactory, OPERATION_SEQUENCE, idBlockSize);
     }
 
     @Override
     public Operation createOperation(Operation operation) {
+        //Id and timestamp are assigned here, so inserted record is not read back
+        final Operation created = Operation.builder()
+                .id(idAllocator.nextId())
+                .sourceAccount(operation.getSourceAccount())
+                .targetAccount(operation.getTargetAccount())
+                .amount(operation.getAmount())
+                .timestamp(now())
+                .idempotencyKey(operation.getIdempotencyKey())
+                .build();
+        saveOperation(created);
+        return created;
+    }
+
+    @Override
+    public List<Operation> createOperations(List<Operation> operations) {
         try {
-            //Insert new record
-            final SQL sql = new SQL()
-                    .INSERT_INTO("operation")
-                    .VALUES("amount", "?")
-                    .VALUES("ts", "sysdate");
-            if (operation.getSourceAccount() != null) {
-                sql.VALUES("source_account", "?");
+            //All operations of a batch share timestamp
+            final Instant timestamp = now();
+            final long[] ids = idAllocator.nextIds(operations.size());
+            final List<Operation> result = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                final Operation operation = operations.get(i);
+                result.add(Operation.builder()
+                        .id(ids[i])
+                        .sourceAccount(operation.getSourceAccount())
+                        .targetAccount(operation.getTargetAccount())
+                        .amount(operation.getAmount())
+                        .timestamp(timestamp)
+                        .build());
             }
-            if (operation.getTargetAccount() != null) {
-                sql.VALUES("target_account", "?");
+
+            //Insert all records with one batch
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_OPERATION);
+            for (Operation operation : result) {
+                setOperation(insert, operation);
+                insert.addBatch();
             }
+            insert.executeBatch();
+            return result;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void saveOperation(Operation operation) {
+        idAllocator.reserveThrough(operation.getId());
+        try {
+            final PreparedStatement insert = connectionFactory.prepareStatement(INSERT_OPERATION);
+            setOperation(insert, operation);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw translate(e, operation);
+        }
+    }
+
+    @Override
+    public Operation getOperationByIdempotencyKey(String idempotencyKey) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_OPERATION_BY_IDEMPOTENCY_KEY);
+            select.setString(1, idempotencyKey);
+            return mapOperation(select.executeQuery());
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public long getLastOperationId() {
+        try {
+            final ResultSet resultSet = connectionFactory.prepareStatement(SELECT_LAST_OPERATION_ID).executeQuery();
+            resultSet.next();
+            final long result = resultSet.getLong(1);
+            resultSet.close();
+            return result;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
 
-            final PreparedStatement insert = connectionFactory.getConnection().prepareStatement(sql.toString());
+    @Override
+    public boolean operationExists(long id) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_OPERATION_EXISTS);
+            select.setLong(1, id);
+            final ResultSet resultSet = select.executeQuery();
+            final boolean result = resultSet.next();
+            resultSet.close();
+            return result;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
 
-            int i = 0;
-            insert.setLong(++i, operation.getAmount());
-            if (operation.getSourceAccount() != null) {
-                insert.setLong(++i, operation.getSourceAccount());
+    @Override
+    public int forEachOperation(Long accountId, long afterId, int limit, Consumer<Operation> consumer) {
+        try {
+            final PreparedStatement select;
+            if (accountId == null) {
+                select = connectionFactory.prepareStatement(SELECT_OPERATIONS);
+                select.setLong(1, afterId);
+                select.setInt(2, limit);
+            } else {
+                select = connectionFactory.prepareStatement(SELECT_ACCOUNT_OPERATIONS);
+                select.setLong(1, accountId);
+                select.setLong(2, afterId);
+                select.setInt(3, limit);
+                select.setLong(4, accountId);
+                select.setLong(5, afterId);
+                select.setInt(6, limit);
+                select.setInt(7, limit);
             }
-            if (operation.getTargetAccount() != null) {
-                insert.setLong(++i, operation.getTargetAccount());
+            final ResultSet resultSet = select.executeQuery();
+            int count = 0;
+            while (resultSet.next()) {
+                consumer.accept(readOperation(resultSet));
+                count++;
             }
-            insert.executeUpdate();
-            insert.close();
-
-            //Get inserted operation
-            final Statement select = connectionFactory.getConnection().createStatement();
-            final ResultSet resultSet = select.executeQuery(
-                    "select id, source_account, target_account, amount, ts from operation where id = scope_identity()");
-            final Operation result = mapOperation(resultSet);
-            select.close();
-            return result;
+            resultSet.close();
+            return count;
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
     }
 
+    private RuntimeException translate(SQLException e, Operation operation) {
+        if (DUPLICATE_KEY_STATE.equals(e.getSQLState()) && operation.getIdempotencyKey() != null) {
+            return new DuplicateOperationException(
+                    "Operation with idempotency key is already in progress: " + operation.getIdempotencyKey(), e);
+        }
+        return new UnexpectedException(e);
+    }
+
+    private void setOperation(PreparedStatement insert, Operation operation) throws SQLException {
+        insert.setLong(1, operation.getId());
+        setNullableLong(insert, 2, operation.getSourceAccount());
+        setNullableLong(insert, 3, operation.getTargetAccount());
+        insert.setLong(4, operation.getAmount());
+        insert.setTimestamp(5, Timestamp.from(operation.getTimestamp()));
+        insert.setString(6, operation.getIdempotencyKey());
+    }
+
+    //Truncated to precision of timestamp column, so returned operation equals the stored one
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    private void setNullableLong(PreparedStatement statement, int index, Long value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.BIGINT);
+        } else {
+            statement.setLong(index, value);
+        }
+    }
+
     private Operation mapOperation(ResultSet resultSet) throws SQLException {
         Operation operation = null;
         if (resultSet.next()) {
-            operation = Operation.builder()
-                    .id(resultSet.getLong("id"))
-                    .sourceAccount((Long) resultSet.getObject("source_account"))
-                    .targetAccount((Long) resultSet.getObject("target_account"))
-                    .amount(resultSet.getLong("amount"))
-                    .timestamp(resultSet.getTimestamp("ts").toInstant())
-                    .build();
+            operation = readOperation(resultSet);
         }
         resultSet.close();
         return operation;
     }
+
+    private Operation readOperation(ResultSet resultSet) throws SQLException {
+        return Operation.builder()
+                .id(resultSet.getLong("id"))
+                .sourceAccount((Long) resultSet.getObject("source_account"))
+                .targetAccount((Long) resultSet.getObject("target_account"))
+                .amount(resultSet.getLong("amount"))
+                .timestamp(resultSet.getTimestamp("ts").toInstant())
+                .idempotencyKey(resultSet.getString("idempotency_key"))
+                .build();
+    }
 }
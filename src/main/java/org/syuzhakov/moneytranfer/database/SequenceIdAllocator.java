@@ -0,0 +1,84 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Assigns ids from a database sequence on the client side with hi/lo scheme: one sequence value {@code hi}
+ * reserves block of ids from {@code hi * blockSize} to {@code hi * blockSize + blockSize - 1}, they are handed out
+ * from memory, so inserts need neither the sequence nor a read of generated keys.
+ * Ids stay unique while block size does not decrease. Ids of an unused block are lost, ids are in order
+ * of assignment within a block, not in order of commit.
+ * Sequences start at 1, so id 0 is never assigned: ledger journal stores missing account as 0.
+ */
+public class SequenceIdAllocator {
+    private final ConnectionFactory connectionFactory;
+    private final String selectHi;
+    private final int blockSize;
+    private long next;
+    //Exclusive
+    private long blockEnd;
+
+    public SequenceIdAllocator(ConnectionFactory connectionFactory, String sequenceName, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.connectionFactory = connectionFactory;
+        this.selectHi = "select max(" + sequenceName + ".nextval) from system_range(1, ?)";
+        this.blockSize = blockSize;
+    }
+
+    public synchronized long nextId() {
+        if (next == blockEnd) {
+            reserveBlock(1);
+        }
+        return next++;
+    }
+
+    public synchronized long[] nextIds(int count) {
+        final long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    /**
+     * Makes sure given id, assigned elsewhere, is never assigned here. Reserves all blocks up to it with one query.
+     */
+    public synchronized void reserveThrough(long id) {
+        if (id < next) {
+            return;
+        }
+        if (id >= blockEnd) {
+            if (next == blockEnd) {
+                reserveBlock(1);
+            }
+            if (id >= blockEnd) {
+                reserveBlock(Math.max(id / blockSize - blockEnd / blockSize + 1, 1));
+            }
+        }
+        next = Math.max(next, id + 1);
+    }
+
+    private void reserveBlock(long blocks) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(selectHi);
+            select.setLong(1, blocks);
+            final ResultSet resultSet = select.executeQuery();
+            resultSet.next();
+            final long hi = resultSet.getLong(1);
+            resultSet.close();
+            if (hi < 1) {
+                throw new UnexpectedException("Sequence value must be positive, id 0 is reserved: " + hi);
+            }
+            next = hi * blockSize;
+            blockEnd = next + blockSize;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.syuzhakov.moneytranfer.database;
+
+/**
+ * Named values stored with the data, such as the storage balances are written in.
+ */
+public interface SettingRepository {
+    /**
+     * @return value of setting, null if it is not set
+     */
+    String getSetting(String name);
+
+    void setSetting(String name, String value);
+}
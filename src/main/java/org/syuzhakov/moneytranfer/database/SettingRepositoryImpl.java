@@ -0,0 +1,48 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.apache.ibatis.jdbc.SQL;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class SettingRepositoryImpl implements SettingRepository {
+    private static final String SELECT_SETTING = new SQL()
+            .FROM("setting")
+            .SELECT("value")
+            .WHERE("name = ?")
+            .toString();
+    private static final String MERGE_SETTING = "merge into setting (name, value) key (name) values (?, ?)";
+    private ConnectionFactory connectionFactory;
+
+    public SettingRepositoryImpl(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public String getSetting(String name) {
+        try {
+            final PreparedStatement select = connectionFactory.prepareStatement(SELECT_SETTING);
+            select.setString(1, name);
+            final ResultSet resultSet = select.executeQuery();
+            final String value = resultSet.next() ? resultSet.getString(1) : null;
+            resultSet.close();
+            return value;
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void setSetting(String name, String value) {
+        try {
+            final PreparedStatement merge = connectionFactory.prepareStatement(MERGE_SETTING);
+            merge.setString(1, name);
+            merge.setString(2, value);
+            merge.executeUpdate();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+}
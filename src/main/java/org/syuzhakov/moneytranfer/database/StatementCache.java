@@ -0,0 +1,191 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps prepared statements of every physical connection, so SQL is parsed once per connection
+ * instead of once per call. Statements are prepared on unwrapped connection, because pool closes
+ * statements of its proxy when connection is returned. Cache of a connection is used only by the thread
+ * that holds the connection, least recently used statements are closed when cache is full.
+ * Pool gets physical connections through {@link #evictOnClose(DataSource)}, so statements of a connection
+ * are closed and forgotten when pool closes it.
+ */
+public class StatementCache implements StatementCacheMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementCache.class);
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+    private final int maxSize;
+    private final Map<Connection, Map<String, PreparedStatement>> statements = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        registerMBean();
+    }
+
+    /**
+     * Wraps source of physical connections, every connection it gives evicts its statements when closed.
+     */
+    public DataSource evictOnClose(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    final Object result = invoke(dataSource, method, args);
+                    return result instanceof Connection ? evictOnClose((Connection) result) : result;
+                });
+    }
+
+    /**
+     * Unregisters MBean of the cache.
+     */
+    public void close() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Cannot unregister statement cache MBean: " + e.getMessage(), e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * @param generatedColumns columns to return as generated keys, may be null
+     */
+    public PreparedStatement prepare(Connection connection, String sql, String[] generatedColumns) throws SQLException {
+        if (maxSize <= 0) {
+            //Statement is closed by pool when connection is returned
+            return prepareStatement(connection, sql, generatedColumns);
+        }
+        final Connection physicalConnection = connection.unwrap(Connection.class);
+        final Map<String, PreparedStatement> connectionStatements =
+                statements.computeIfAbsent(physicalConnection, ignored -> new LruMap());
+        final String key = generatedColumns == null ? sql : String.join(",", generatedColumns) + "\n" + sql;
+        PreparedStatement statement = connectionStatements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            hits.increment();
+            statement.clearParameters();
+            return statement;
+        }
+        misses.increment();
+        statement = prepareStatement(physicalConnection, sql, generatedColumns);
+        connectionStatements.put(key, statement);
+        return statement;
+    }
+
+    private Connection evictOnClose(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        evict((Connection) proxy);
+                    }
+                    return invoke(connection, method, args);
+                });
+    }
+
+    private void evict(Connection connection) {
+        final Map<String, PreparedStatement> connectionStatements = statements.remove(connection);
+        if (connectionStatements == null) {
+            return;
+        }
+        for (PreparedStatement statement : connectionStatements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            objectName = new ObjectName(
+                    "org.syuzhakov.moneytranfer:type=StatementCache,name=" + INSTANCE_COUNTER.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            LOGGER.warn("Cannot register statement cache MBean: " + e.getMessage(), e);
+        }
+    }
+
+    private PreparedStatement prepareStatement(Connection connection, String sql, String[] generatedColumns)
+            throws SQLException {
+        return generatedColumns == null
+                ? connection.prepareStatement(sql)
+                : connection.prepareStatement(sql, generatedColumns);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return statements.size();
+    }
+
+    private class LruMap extends LinkedHashMap<String, PreparedStatement> {
+        private LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            evictions.increment();
+            try {
+                eldest.getValue().close();
+            } catch (SQLException e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.syuzhakov.moneytranfer.database;
+
+public interface StatementCacheMXBean {
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    double getHitRate();
+
+    /**
+     * @return number of physical connections with cached statements
+     */
+    int getConnectionCount();
+}
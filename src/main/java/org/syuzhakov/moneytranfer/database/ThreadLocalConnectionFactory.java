@@ -1,22 +1,72 @@
 package org.syuzhakov.moneytranfer.database;
 
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
 import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.metrics.Counter;
+import org.syuzhakov.moneytranfer.metrics.Histogram;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 public class ThreadLocalConnectionFactory implements ConnectionFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionFactory.class);
     private final DataSource dataSource;
+    //Null when reads share the main pool
+    private final DataSource readOnlyDataSource;
+    private final StatementCache statementCache;
     private final ThreadLocal<Connection> connection = new ThreadLocal<>();
+    //After commit actions of current transaction
+    private final ThreadLocal<List<Runnable>> transaction = new ThreadLocal<>();
+    //After completion actions of current transaction, run after commit actions or after rollback
+    private final ThreadLocal<List<Runnable>> completion = new ThreadLocal<>();
+    //Set while thread executes read-only unit of work
+    private final ThreadLocal<Boolean> readOnly = new ThreadLocal<>();
+    private final Histogram transactionDuration;
+    private final Counter transactionRollbacks;
 
-    public ThreadLocalConnectionFactory(DataSourceFactory dataSourceFactory) {
-        this.dataSource = buildPooledDataSource(dataSourceFactory);
+    public ThreadLocalConnectionFactory(DataSourceFactory dataSourceFactory, int statementCacheSize) {
+        this(dataSourceFactory, statementCacheSize, new MetricRegistry());
+    }
+
+    public ThreadLocalConnectionFactory(DataSourceFactory dataSourceFactory, int statementCacheSize,
+                                        MetricRegistry metricRegistry) {
+        this(dataSourceFactory, DatabaseConfiguration.builder().statementCacheSize(statementCacheSize).build(),
+                metricRegistry);
+    }
+
+    public ThreadLocalConnectionFactory(DataSourceFactory dataSourceFactory, DatabaseConfiguration configuration,
+                                        MetricRegistry metricRegistry) {
+        this(dataSourceFactory, null, configuration, metricRegistry);
+    }
+
+    /**
+     * @param readOnlyDataSourceFactory source of connections for {@link #executeReadOnly}, e.g. a replica,
+     *                                  null to run read-only work in transactions of the main pool
+     */
+    public ThreadLocalConnectionFactory(DataSourceFactory dataSourceFactory, DataSourceFactory readOnlyDataSourceFactory,
+                                        DatabaseConfiguration configuration, MetricRegistry metricRegistry) {
+        this.statementCache = new StatementCache(configuration.getStatementCacheSize());
+        this.dataSource = buildPooledDataSource(dataSourceFactory, configuration);
+        this.readOnlyDataSource = readOnlyDataSourceFactory == null ? null
+                : buildReadOnlyDataSource(readOnlyDataSourceFactory, configuration);
+        transactionDuration = metricRegistry.histogram("db_transaction_duration_seconds",
+                "Duration of database transactions", "outcome");
+        transactionRollbacks = metricRegistry.counter("db_transaction_rollbacks_total",
+                "Rolled back database transactions", "exception");
+        registerMetrics(metricRegistry);
     }
 
     @Override
@@ -27,55 +77,265 @@ public class ThreadLocalConnectionFactory implements ConnectionFactory {
     @Override
     public Connection getConnection() {
         Connection conn = this.connection.get();
-        if (conn == null) {
-            conn = getConnectionFromPool();
+        //Connection taken outside of transaction may be closed by caller, then it is replaced
+        if (conn == null || isClosed(conn)) {
+            conn = getConnectionFromPool(this.readOnly.get() != null ? readOnlyDataSource : dataSource);
             this.connection.set(conn);
+            if (this.transaction.get() != null) {
+                beginTransaction(conn);
+            }
         }
         return conn;
     }
 
+    @Override
+    public PreparedStatement prepareStatement(String sql) {
+        return prepareStatement(sql, null);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] generatedColumns) {
+        try {
+            return statementCache.prepare(getConnection(), sql, generatedColumns);
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
     @Override
     public <T> T executeInTransaction(Supplier<T> target) {
-        final Connection connection = getConnection();
+        if (this.transaction.get() != null) {
+            return target.get();
+        }
+        final List<Runnable> afterCommitActions = new ArrayList<>();
+        final List<Runnable> afterCompletionActions = new ArrayList<>();
+        this.transaction.set(afterCommitActions);
+        this.completion.set(afterCompletionActions);
+        final long start = System.nanoTime();
+        String outcome = "rollback";
+        final T result;
         try {
-            connection.setAutoCommit(false);
-            final T result = target.get();
-            connection.commit();
-            return result;
-        } catch (RuntimeException e) {
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                LOGGER.error(ex.getMessage(), ex);
+            //Connection may be taken before transaction
+            Optional.ofNullable(this.connection.get()).ifPresent(this::beginTransaction);
+            result = target.get();
+            final Connection connection = this.connection.get();
+            if (connection != null) {
+                connection.commit();
             }
+            outcome = "commit";
+        } catch (RuntimeException e) {
+            rollback(e);
             throw e;
         } catch (SQLException e) {
+            rollback(e);
+            throw new UnexpectedException(e);
+        } finally {
+            transactionDuration.observeNanos(System.nanoTime() - start, outcome);
+            this.transaction.remove();
+            this.completion.remove();
+            final Connection connection = this.connection.get();
+            if (connection != null) {
+                this.connection.remove();
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    LOGGER.error(ex.getMessage(), ex);
+                }
+            }
+            if (!"commit".equals(outcome)) {
+                runActions(afterCompletionActions, "After completion");
+            }
+        }
+        runActions(afterCommitActions, "After commit");
+        runActions(afterCompletionActions, "After completion");
+        return result;
+    }
+
+    @Override
+    public <T> T executeInSavepoint(Supplier<T> target) {
+        if (this.transaction.get() == null) {
+            return executeInTransaction(target);
+        }
+        final Connection connection = getConnection();
+        final Savepoint savepoint;
+        try {
+            savepoint = connection.setSavepoint();
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+        try {
+            return target.get();
+        } catch (RuntimeException e) {
             try {
-                connection.rollback();
+                connection.rollback(savepoint);
             } catch (SQLException ex) {
                 LOGGER.error(ex.getMessage(), ex);
             }
-            throw new UnexpectedException(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isInTransaction() {
+        return this.transaction.get() != null;
+    }
+
+    @Override
+    public <T> T executeReadOnly(Supplier<T> target) {
+        if (this.transaction.get() != null || this.readOnly.get() != null) {
+            //Reads of a writing transaction must see its own changes
+            return target.get();
+        }
+        if (readOnlyDataSource == null) {
+            return executeInTransaction(target);
+        }
+        //Connection taken outside of transaction is put aside until read-only work is done
+        final Connection outerConnection = this.connection.get();
+        this.connection.remove();
+        this.readOnly.set(Boolean.TRUE);
+        final long start = System.nanoTime();
+        try {
+            return target.get();
         } finally {
+            transactionDuration.observeNanos(System.nanoTime() - start, "read_only");
+            this.readOnly.remove();
+            final Connection connection = this.connection.get();
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    LOGGER.error(ex.getMessage(), ex);
+                }
+            }
+            if (outerConnection != null) {
+                this.connection.set(outerConnection);
+            } else {
+                this.connection.remove();
+            }
+        }
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        final List<Runnable> afterCommitActions = this.transaction.get();
+        if (afterCommitActions == null) {
+            action.run();
+        } else {
+            afterCommitActions.add(action);
+        }
+    }
+
+    @Override
+    public void afterCompletion(Runnable action) {
+        final List<Runnable> afterCompletionActions = this.completion.get();
+        if (afterCompletionActions == null) {
+            action.run();
+        } else {
+            afterCompletionActions.add(action);
+        }
+    }
+
+    private void runActions(List<Runnable> actions, String description) {
+        for (Runnable action : actions) {
             try {
-                connection.close();
-            } catch (SQLException ex) {
-                LOGGER.error(ex.getMessage(), ex);
+                action.run();
+            } catch (RuntimeException e) {
+                LOGGER.error(description + " action failed: " + e.getMessage(), e);
             }
         }
     }
 
-    private Connection getConnectionFromPool() {
+    private boolean isClosed(Connection connection) {
         try {
-            return dataSource.getConnection();
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private void beginTransaction(Connection connection) {
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private void rollback(Exception cause) {
+        transactionRollbacks.increment(cause.getClass().getSimpleName());
+        final Connection connection = this.connection.get();
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    private Connection getConnectionFromPool(DataSource pool) {
+        try {
+            return pool.getConnection();
         } catch (SQLException e) {
             throw new UnexpectedException(e);
         }
     }
 
-    private DataSource buildPooledDataSource(DataSourceFactory dataSourceFactory) {
+    private void registerMetrics(MetricRegistry metricRegistry) {
+        registerPoolMetrics(metricRegistry, (HikariDataSource) dataSource, "db_pool_");
+        if (readOnlyDataSource != null) {
+            registerPoolMetrics(metricRegistry, (HikariDataSource) readOnlyDataSource, "db_readonly_pool_");
+        }
+        metricRegistry.counter("db_statement_cache_hits_total", "Prepared statement cache hits",
+                statementCache::getHits);
+        metricRegistry.counter("db_statement_cache_misses_total", "Prepared statement cache misses",
+                statementCache::getMisses);
+    }
+
+    private void registerPoolMetrics(MetricRegistry metricRegistry, HikariDataSource pool, String prefix) {
+        registerPoolGauge(metricRegistry, pool, prefix + "connections_active", "Connections in use",
+                HikariPoolMXBean::getActiveConnections);
+        registerPoolGauge(metricRegistry, pool, prefix + "connections_idle", "Idle connections",
+                HikariPoolMXBean::getIdleConnections);
+        registerPoolGauge(metricRegistry, pool, prefix + "connections_pending", "Threads waiting for a connection",
+                HikariPoolMXBean::getThreadsAwaitingConnection);
+        registerPoolGauge(metricRegistry, pool, prefix + "connections_total", "Open connections",
+                HikariPoolMXBean::getTotalConnections);
+    }
+
+    private void registerPoolGauge(MetricRegistry metricRegistry, HikariDataSource pool, String name, String help,
+                                   ToIntFunction<HikariPoolMXBean> value) {
+        //Pool MXBean is available once the pool is started by the first connection
+        metricRegistry.gauge(name, help, () -> Optional.ofNullable(pool.getHikariPoolMXBean())
+                .map(value::applyAsInt).orElse(0));
+    }
+
+    private DataSource buildPooledDataSource(DataSourceFactory dataSourceFactory, DatabaseConfiguration configuration) {
         final HikariDataSource dataSource = new HikariDataSource();
-        dataSource.setDataSource(dataSourceFactory.getDataSource());
+        dataSource.setDataSource(statementCache.evictOnClose(dataSourceFactory.getDataSource()));
+        dataSource.setMaximumPoolSize(configuration.getPoolMaxSize());
+        dataSource.setMinimumIdle(configuration.getPoolMinIdle());
+        dataSource.setConnectionTimeout(configuration.getConnectionTimeoutMillis());
+        dataSource.setIdleTimeout(configuration.getIdleTimeoutMillis());
+        dataSource.setMaxLifetime(configuration.getMaxLifetimeMillis());
+        dataSource.setLeakDetectionThreshold(configuration.getLeakDetectionThresholdMillis());
+        return dataSource;
+    }
+
+    //Connections are used in auto-commit mode, so nothing is ever committed through them
+    private DataSource buildReadOnlyDataSource(DataSourceFactory dataSourceFactory,
+                                               DatabaseConfiguration configuration) {
+        final HikariDataSource dataSource = (HikariDataSource) buildPooledDataSource(dataSourceFactory, configuration);
+        dataSource.setMaximumPoolSize(configuration.getReadOnlyPoolMaxSize());
+        dataSource.setMinimumIdle(configuration.getReadOnlyPoolMaxSize());
+        dataSource.setReadOnly(true);
+        dataSource.setAutoCommit(true);
         return dataSource;
     }
 }
@@ -0,0 +1,12 @@
+package org.syuzhakov.moneytranfer.error;
+
+public class DuplicateOperationException extends ExpectedException {
+
+    public DuplicateOperationException(String message) {
+        super(message, new ErrorResponse(409, 409001, message));
+    }
+
+    public DuplicateOperationException(String message, Throwable cause) {
+        super(message, cause, new ErrorResponse(409, 409001, message));
+    }
+}
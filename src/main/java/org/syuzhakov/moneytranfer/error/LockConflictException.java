@@ -0,0 +1,12 @@
+package org.syuzhakov.moneytranfer.error;
+
+public class LockConflictException extends ExpectedException {
+
+    public LockConflictException(String message) {
+        super(message, new ErrorResponse(503, 503002, message));
+    }
+
+    public LockConflictException(String message, Throwable cause) {
+        super(message, cause, new ErrorResponse(503, 503002, message));
+    }
+}
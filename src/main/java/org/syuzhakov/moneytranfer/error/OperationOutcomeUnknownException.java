@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.error;
+
+public class OperationOutcomeUnknownException extends ExpectedException {
+
+    public OperationOutcomeUnknownException(String message, Throwable cause) {
+        super(message, cause, new ErrorResponse(500, 500011, message));
+    }
+}
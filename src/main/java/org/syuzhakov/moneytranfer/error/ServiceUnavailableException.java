@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.error;
+
+public class ServiceUnavailableException extends ExpectedException {
+
+    public ServiceUnavailableException(String message) {
+        super(message, new ErrorResponse(503, 503001, message));
+    }
+}
@@ -0,0 +1,155 @@
+package org.syuzhakov.moneytranfer.ledger;
+
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Authoritative in-memory state of accounts and balances. Accounts are spread over lock stripes,
+ * every stripe owns its own maps, so state of an account may be read or changed only under its stripe lock.
+ */
+public class Ledger {
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    private final Stripe[] stripes;
+    private final int mask;
+    private final AtomicLong operationSequence = new AtomicLong();
+
+    public Ledger(int stripeCount) {
+        final int size = Integer.highestOneBit(Math.max(stripeCount - 1, 1)) << 1;
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Locks stripes of given accounts. Stripes are always taken in ascending order,
+     * so two transfers over the same pair of accounts in opposite directions cannot deadlock.
+     */
+    public Lock lock(Long firstAccountId, Long secondAccountId) {
+        int first = firstAccountId == null ? -1 : stripeIndex(firstAccountId);
+        int second = secondAccountId == null ? -1 : stripeIndex(secondAccountId);
+        if (first > second) {
+            final int swap = first;
+            first = second;
+            second = swap;
+        }
+        if (first == second) {
+            first = -1;
+        }
+        return new Lock(first < 0 ? null : stripes[first], second < 0 ? null : stripes[second]);
+    }
+
+    //Following accessors require stripe lock of the account to be held
+
+    public AccountStatus getStatus(long accountId) {
+        final long status = stripeOf(accountId).statuses.get(accountId, NO_VALUE);
+        return status == NO_VALUE ? null : AccountStatus.fromValue((int) status);
+    }
+
+    public long getBalance(long accountId) {
+        return stripeOf(accountId).balances.get(accountId, 0L);
+    }
+
+    public void putBalance(long accountId, long balance, long operationId) {
+        final Stripe stripe = stripeOf(accountId);
+        stripe.balances.put(accountId, balance);
+        stripe.operations.put(accountId, operationId);
+    }
+
+    //Following methods take stripe lock of the account by themselves
+
+    public void putAccount(long accountId, AccountStatus status) {
+        try (Lock ignored = lock(accountId, null)) {
+            stripeOf(accountId).statuses.put(accountId, status.getValue());
+        }
+    }
+
+    public AccountStatus readStatus(long accountId) {
+        try (Lock ignored = lock(accountId, null)) {
+            return getStatus(accountId);
+        }
+    }
+
+    public Balance readBalance(long accountId) {
+        try (Lock ignored = lock(accountId, null)) {
+            final Stripe stripe = stripeOf(accountId);
+            final long operationId = stripe.operations.get(accountId, NO_VALUE);
+            return Balance.builder()
+                    .account(accountId)
+                    .balance(stripe.balances.get(accountId, 0L))
+                    .operation(operationId == NO_VALUE ? null : operationId)
+                    .actuality(Instant.now())
+                    .build();
+        }
+    }
+
+    /**
+     * Sets balance unless the account already has a balance of the same or later operation.
+     */
+    public void loadBalance(long accountId, long balance, long operationId) {
+        try (Lock ignored = lock(accountId, null)) {
+            if (stripeOf(accountId).operations.get(accountId, NO_VALUE) < operationId) {
+                putBalance(accountId, balance, operationId);
+            }
+        }
+    }
+
+    public long nextOperationId() {
+        return operationSequence.incrementAndGet();
+    }
+
+    public long getLastOperationId() {
+        return operationSequence.get();
+    }
+
+    public void setLastOperationId(long operationId) {
+        operationSequence.accumulateAndGet(operationId, Math::max);
+    }
+
+    private Stripe stripeOf(long accountId) {
+        return stripes[stripeIndex(accountId)];
+    }
+
+    private int stripeIndex(long accountId) {
+        final long hash = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongLongHashMap statuses = new LongLongHashMap();
+        private final LongLongHashMap balances = new LongLongHashMap();
+        private final LongLongHashMap operations = new LongLongHashMap();
+    }
+
+    public static class Lock implements AutoCloseable {
+        private final Stripe first;
+        private final Stripe second;
+
+        private Lock(Stripe first, Stripe second) {
+            this.first = first;
+            this.second = second;
+            if (first != null) {
+                first.lock.lock();
+            }
+            if (second != null) {
+                second.lock.lock();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (second != null) {
+                second.lock.unlock();
+            }
+            if (first != null) {
+                first.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.ledger;
+
+import org.syuzhakov.moneytranfer.model.Operation;
+
+@FunctionalInterface
+public interface LedgerEntryConsumer {
+    void accept(Operation operation, Long sourceBalance, Long targetBalance);
+}
@@ -0,0 +1,409 @@
+package org.syuzhakov.moneytranfer.ledger;
+
+import lombok.AllArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.database.OperationRepository;
+import org.syuzhakov.moneytranfer.error.OperationOutcomeUnknownException;
+import org.syuzhakov.moneytranfer.error.ServiceUnavailableException;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Persists operations applied to {@link Ledger} into database in background.
+ * Entries are written in the order they were accepted, batch per transaction.
+ * A batch failed {@value #MAX_BATCH_ATTEMPTS} times is written entry by entry. Entry rejected by database
+ * is logged to {@value #REJECTED_LOGGER} logger and the writer stops: database would otherwise hold balances
+ * of a transfer it has no operation for. Entries queued after it are dropped, the journal keeps them
+ * as checkpoint never moves past an unsaved entry, and they are written again on the next start.
+ * Entry appended to journal is saved only once its record is durable, the writer stops the same way
+ * when the journal fails to make it durable.
+ */
+public class LedgerWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LedgerWriter.class);
+    private static final String REJECTED_LOGGER = "ledger.rejected";
+    private static final Logger REJECTED = LoggerFactory.getLogger(REJECTED_LOGGER);
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+    private final ConnectionFactory connectionFactory;
+    private final BalanceRepository balanceRepository;
+    private final OperationRepository operationRepository;
+    private final BlockingQueue<Entry> queue;
+    //Operations with idempotency key that are not in database yet
+    private final Map<String, Entry> unsavedKeys = new ConcurrentHashMap<>();
+    private final AtomicInteger unsaved = new AtomicInteger();
+    //Ids saved after a gap, checkpoint moves over them when the gap is closed
+    private final PriorityQueue<Long> savedAhead = new PriorityQueue<>();
+    private LongConsumer checkpointListener;
+    private long checkpoint;
+    private final int batchSize;
+    private final Thread thread;
+    private volatile boolean running;
+    //Set when database rejects an entry, writer saves nothing afterwards
+    private volatile String failure;
+
+    public LedgerWriter(ConnectionFactory connectionFactory,
+                        BalanceRepository balanceRepository,
+                        OperationRepository operationRepository,
+                        int batchSize,
+                        int queueSize,
+                        MetricRegistry metricRegistry) {
+        this.connectionFactory = connectionFactory;
+        this.balanceRepository = balanceRepository;
+        this.operationRepository = operationRepository;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        metricRegistry.gauge("ledger_writer_failed",
+                "1 when ledger writer is stopped by operation rejected by database", () -> failure == null ? 0 : 1);
+        this.thread = new Thread(this::run, "ledger-writer");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops accepting new work and waits until queued entries are written.
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (unsaved.get() > 0) {
+            LOGGER.error("Ledger writer stopped with {} unsaved operations", unsaved.get());
+        }
+    }
+
+    /**
+     * Waits until every enqueued operation is saved.
+     *
+     * @throws UnexpectedException if writer is stopped by operation rejected by database
+     */
+    public void awaitSaved() {
+        while (unsaved.get() > 0) {
+            if (failure != null) {
+                throw new UnexpectedException(failure);
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnexpectedException("Interrupted while waiting for ledger writer", e);
+            }
+        }
+    }
+
+    /**
+     * Starts tracking the greatest operation id such that it and all lower ids are saved.
+     * Listener is called with the initial checkpoint and then whenever it moves.
+     * Operation ids are expected to go one after another from the initial checkpoint.
+     */
+    public void trackCheckpoint(long savedOperationId, LongConsumer listener) {
+        synchronized (savedAhead) {
+            checkpoint = savedOperationId;
+            checkpointListener = listener;
+        }
+        listener.accept(savedOperationId);
+    }
+
+    /**
+     * Refuses new operations once writer is stopped by operation rejected by database.
+     * Called before an operation is applied, operations that pass the check are still accepted by write methods.
+     *
+     * @throws ServiceUnavailableException if writer is stopped
+     */
+    public void checkRunning() {
+        if (failure != null) {
+            throw new ServiceUnavailableException(failure);
+        }
+    }
+
+    /**
+     * Enqueues operation and resulting balances. Blocks when queue is full.
+     * Should be called under ledger lock of the operation accounts to keep per-account order,
+     * before the balances are put to ledger: when interrupted it throws and nothing is enqueued.
+     */
+    public void write(Operation operation, Long sourceBalance, Long targetBalance) {
+        try {
+            enqueue(operation, sourceBalance, targetBalance, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnexpectedException("Interrupted while writing to ledger queue", e);
+        }
+    }
+
+    /**
+     * Same as {@link #write(Operation, Long, Long)} for operation already appended to journal, which cannot be
+     * undone. Operation is saved after its record is durable. Keeps waiting for queue space when interrupted
+     * and restores interrupt flag afterwards.
+     *
+     * @param durable future of {@link TransferJournal#append} for the operation
+     */
+    public void writeUninterruptibly(Operation operation, Long sourceBalance, Long targetBalance,
+                                     CompletableFuture<Void> durable) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                enqueue(operation, sourceBalance, targetBalance, durable);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until journal record of the found operation is durable, so a repeated request is not answered earlier
+     * than the original one.
+     *
+     * @return operation with the idempotency key which is accepted but not written to database yet, null if none
+     * @throws OperationOutcomeUnknownException if journal failed to make the operation durable
+     */
+    public Operation getUnsavedOperation(String idempotencyKey) {
+        final Entry entry = unsavedKeys.get(idempotencyKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.durable != null) {
+            try {
+                entry.durable.join();
+            } catch (CompletionException e) {
+                throw new OperationOutcomeUnknownException(String.format("Outcome of operation %s is unknown,"
+                        + " it may be applied on restart", entry.operation.getId()), e.getCause());
+            }
+        }
+        return entry.operation;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void enqueue(Operation operation, Long sourceBalance, Long targetBalance,
+                         CompletableFuture<Void> durable) throws InterruptedException {
+        final String key = operation.getIdempotencyKey();
+        final Entry entry = new Entry(operation, sourceBalance, targetBalance, durable);
+        if (key != null) {
+            unsavedKeys.put(key, entry);
+        }
+        unsaved.incrementAndGet();
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            unsaved.decrementAndGet();
+            if (key != null) {
+                unsavedKeys.remove(key, entry);
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        final List<Entry> batch = new ArrayList<>(batchSize);
+        int failures = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (failure != null) {
+                    //Nothing is saved any more, queue is drained so that writers do not block on it
+                    batch.clear();
+                    if (running) {
+                        queue.take();
+                    } else {
+                        queue.clear();
+                    }
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    final Entry first = running ? queue.take() : queue.poll();
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                if (!awaitDurable(batch)) {
+                    continue;
+                }
+                if (failures < MAX_BATCH_ATTEMPTS) {
+                    persist(batch);
+                } else {
+                    persistEach(batch);
+                }
+                batch.clear();
+                failures = 0;
+            } catch (InterruptedException e) {
+                //Woken up by stop(), remaining entries are flushed by the loop
+            } catch (RuntimeException e) {
+                //Keep the batch and try again, database is expected to come back
+                failures++;
+                LOGGER.error("Failed to persist ledger batch of " + batch.size() + " operations", e);
+                pause();
+            }
+        }
+    }
+
+    /**
+     * Waits until journal records of the batch are durable.
+     *
+     * @return false if journal failed to make one of them durable, writer is stopped then
+     */
+    private boolean awaitDurable(List<Entry> batch) {
+        for (Entry entry : batch) {
+            if (entry.durable == null) {
+                continue;
+            }
+            try {
+                entry.durable.join();
+            } catch (CompletionException e) {
+                failure = String.format("Ledger writer is stopped, journal failed to make operation %s durable",
+                        entry.operation.getId());
+                LOGGER.error(failure, e.getCause());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void persist(List<Entry> batch) {
+        connectionFactory.executeInTransaction(() -> {
+            for (Entry entry : batch) {
+                final Operation operation = entry.operation;
+                operationRepository.saveOperation(operation);
+                if (entry.sourceBalance != null) {
+                    balanceRepository.updateBalance(operation.getSourceAccount(), entry.sourceBalance, operation);
+                }
+                if (entry.targetBalance != null) {
+                    balanceRepository.updateBalance(operation.getTargetAccount(), entry.targetBalance, operation);
+                }
+            }
+            return null;
+        });
+        //Committed, database lookup finds the keys from now on
+        released(batch);
+    }
+
+    private void released(List<Entry> entries) {
+        for (Entry entry : entries) {
+            final String key = entry.operation.getIdempotencyKey();
+            if (key != null) {
+                unsavedKeys.remove(key, entry);
+            }
+        }
+        advanceCheckpoint(entries);
+        unsaved.addAndGet(-entries.size());
+    }
+
+    private void advanceCheckpoint(List<Entry> entries) {
+        final LongConsumer listener;
+        final long saved;
+        synchronized (savedAhead) {
+            if (checkpointListener == null) {
+                return;
+            }
+            final long previous = checkpoint;
+            for (Entry entry : entries) {
+                if (entry.operation.getId() > checkpoint) {
+                    savedAhead.add(entry.operation.getId());
+                }
+            }
+            while (!savedAhead.isEmpty() && savedAhead.peek() == checkpoint + 1) {
+                checkpoint = savedAhead.poll();
+            }
+            saved = checkpoint;
+            if (saved == previous) {
+                return;
+            }
+            listener = checkpointListener;
+        }
+        listener.accept(saved);
+    }
+
+    /**
+     * Persists entries one per transaction and removes them from the batch.
+     * Entry failed for other reason than unavailable database stops the writer, it and the entries after it
+     * stay unsaved.
+     */
+    private void persistEach(List<Entry> batch) {
+        while (!batch.isEmpty()) {
+            final Entry entry = batch.get(0);
+            try {
+                persist(Collections.singletonList(entry));
+            } catch (RuntimeException e) {
+                if (isDatabaseUnavailable(e)) {
+                    throw e;
+                }
+                reject(entry, e);
+                return;
+            }
+            batch.remove(0);
+        }
+    }
+
+    private void reject(Entry entry, RuntimeException e) {
+        final Operation operation = entry.operation;
+        REJECTED.error("id={} sourceAccount={} targetAccount={} amount={} timestamp={} sourceBalance={}"
+                        + " targetBalance={} idempotencyKey={}",
+                operation.getId(), operation.getSourceAccount(), operation.getTargetAccount(),
+                operation.getAmount(), operation.getTimestamp(), entry.sourceBalance, entry.targetBalance,
+                operation.getIdempotencyKey(), e);
+        failure = String.format("Ledger writer is stopped, operation %s is rejected by database: %s",
+                operation.getId(), e.getMessage());
+    }
+
+    private static boolean isDatabaseUnavailable(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException
+                    || cause instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            //Stop requested, loop will make final attempts
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final Operation operation;
+        private final Long sourceBalance;
+        private final Long targetBalance;
+        //Null when journal is disabled or operation is replayed from it
+        private final CompletableFuture<Void> durable;
+    }
+}
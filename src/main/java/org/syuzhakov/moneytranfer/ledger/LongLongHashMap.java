@@ -0,0 +1,118 @@
+package org.syuzhakov.moneytranfer.ledger;
+
+/**
+ * Open addressing long to long map with linear probing. Not thread safe.
+ */
+public class LongLongHashMap {
+    private static final long FREE_KEY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        final int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR));
+        allocate(capacity);
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+        int index = indexOf(key);
+        while (true) {
+            final long current = keys[index];
+            if (current == key) {
+                return values[index];
+            } else if (current == FREE_KEY) {
+                return defaultValue;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int index = indexOf(key);
+        while (true) {
+            final long current = keys[index];
+            if (current == key) {
+                return true;
+            } else if (current == FREE_KEY) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public void put(long key, long value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+        int index = indexOf(key);
+        while (true) {
+            final long current = keys[index];
+            if (current == key) {
+                values[index] = value;
+                return;
+            } else if (current == FREE_KEY) {
+                keys[index] = key;
+                values[index] = value;
+                if (++size >= threshold) {
+                    rehash(keys.length * 2);
+                }
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int indexOf(long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(capacity);
+        size = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int size) {
+        final int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        return capacity < 0 ? 1 << 30 : capacity;
+    }
+}
@@ -0,0 +1,400 @@
+package org.syuzhakov.moneytranfer.ledger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of ledger transfers stored in memory-mapped segment files.
+ * Appends are made durable by group commit: one background thread forces all records appended
+ * since the previous commit, so a single fsync is shared by every transfer of the batch.
+ * Record is 64 bytes of fixed fields followed by length and UTF-8 bytes of idempotency key, padded to 8 bytes.
+ * Segment is deleted by {@link #checkpoint(long)} once it is not appended to and all its operations are saved.
+ */
+public class TransferJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransferJournal.class);
+    private static final int FIXED_SIZE = 64;
+    private static final int KEY_LENGTH_SIZE = 4;
+    private static final int MAX_KEY_BYTES = 256;
+    private static final int MAX_RECORD_SIZE = recordSize(MAX_KEY_BYTES);
+    private static final int MAGIC = 0x4A524E32;
+    //Missing account, account ids are never 0 as SequenceIdAllocator starts blocks at 1
+    private static final long NONE = 0L;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingAppended = lock.newCondition();
+    private final Condition batchTaken = lock.newCondition();
+    private final Thread committer;
+    //Max operation id of every segment that is not appended to any more
+    private final Map<Long, Long> closedSegments = new TreeMap<>();
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private long segmentMaxOperationId;
+    private int position;
+    private int pending;
+    private long firstPendingNanos;
+    private CompletableFuture<Void> openBatch = new CompletableFuture<>();
+    private Exception failure;
+    private volatile boolean running;
+
+    public TransferJournal(Path directory, int segmentSize, int maxBatchSize, long lingerMicros) {
+        this.directory = directory;
+        this.segmentSize = Math.max(segmentSize, MAX_RECORD_SIZE);
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        this.committer = new Thread(this::runCommitter, "journal-committer");
+        this.committer.setDaemon(true);
+    }
+
+    /**
+     * Reads all valid records of existing segments in append order.
+     * Reading of a segment stops at its first empty or damaged record.
+     * Segments read are deleted by checkpoint like the ones rolled after {@link #start()}.
+     */
+    public void replay(LedgerEntryConsumer consumer) {
+        try {
+            Files.createDirectories(directory);
+            for (Path path : listSegments()) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    int offset = 0;
+                    int size;
+                    long maxOperationId = 0;
+                    while ((size = readRecord(buffer, offset, consumer)) > 0) {
+                        maxOperationId = Math.max(maxOperationId, buffer.getLong(offset + 8));
+                        offset += size;
+                    }
+                    closeSegment(segmentIndexOf(path), maxOperationId);
+                }
+            }
+        } catch (IOException e) {
+            throw new UnexpectedException("Cannot replay journal at " + directory, e);
+        }
+    }
+
+    /**
+     * Opens a new segment for appends and starts group commit.
+     */
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            segmentIndex = listSegments().stream()
+                    .map(this::segmentIndexOf)
+                    .max(Long::compareTo)
+                    .orElse(0L);
+            openSegment();
+        } catch (IOException e) {
+            throw new UnexpectedException("Cannot open journal at " + directory, e);
+        }
+        running = true;
+        committer.start();
+    }
+
+    /**
+     * Commits pending records and stops the committer.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            pendingAppended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends record and returns future completed when the record is durable.
+     * Should be called under ledger lock of the operation accounts to keep per-account order.
+     */
+    public CompletableFuture<Void> append(Operation operation, Long sourceBalance, Long targetBalance) {
+        lock.lock();
+        try {
+            while (pending >= maxBatchSize && failure == null) {
+                batchTaken.awaitUninterruptibly();
+            }
+            if (failure != null || !running) {
+                throw new UnexpectedException("Journal is not available", failure);
+            }
+            final byte[] key = keyOf(operation);
+            if (position + recordSize(key.length) > segmentSize) {
+                //Records of the full segment must be durable before it is abandoned
+                force(segment);
+                closedSegments.put(segmentIndex, segmentMaxOperationId);
+                openSegment();
+            }
+            writeRecord(operation, sourceBalance, targetBalance, key);
+            segmentMaxOperationId = Math.max(segmentMaxOperationId, operation.getId());
+            if (pending++ == 0) {
+                firstPendingNanos = System.nanoTime();
+                pendingAppended.signal();
+            } else if (pending >= maxBatchSize) {
+                pendingAppended.signal();
+            }
+            return openBatch;
+        } catch (IOException e) {
+            failure = e;
+            throw new UnexpectedException("Cannot roll journal segment", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes segments not appended to any more which hold only operations with ids up to the saved one.
+     */
+    public void checkpoint(long savedOperationId) {
+        final List<Long> released = new ArrayList<>();
+        lock.lock();
+        try {
+            final Iterator<Map.Entry<Long, Long>> segments = closedSegments.entrySet().iterator();
+            while (segments.hasNext()) {
+                final Map.Entry<Long, Long> closed = segments.next();
+                if (closed.getValue() <= savedOperationId) {
+                    released.add(closed.getKey());
+                    segments.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Long index : released) {
+            try {
+                Files.deleteIfExists(segmentPath(index));
+                LOGGER.info("Journal segment {} deleted", segmentPath(index));
+            } catch (IOException e) {
+                LOGGER.warn("Cannot delete journal segment " + segmentPath(index), e);
+            }
+        }
+    }
+
+    private void closeSegment(long index, long maxOperationId) {
+        lock.lock();
+        try {
+            closedSegments.put(index, maxOperationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runCommitter() {
+        while (true) {
+            final CompletableFuture<Void> batch;
+            final MappedByteBuffer buffer;
+            final Exception failed;
+            lock.lock();
+            try {
+                while (pending == 0 && running) {
+                    pendingAppended.awaitUninterruptibly();
+                }
+                if (pending == 0) {
+                    return;
+                }
+                //Linger to let concurrent transfers join the batch
+                long remaining = lingerNanos - (System.nanoTime() - firstPendingNanos);
+                while (pending < maxBatchSize && remaining > 0 && running) {
+                    remaining = awaitNanos(remaining);
+                }
+                batch = openBatch;
+                buffer = segment;
+                failed = failure;
+                openBatch = new CompletableFuture<>();
+                pending = 0;
+                batchTaken.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (failed != null) {
+                //Records after a failed one are never reported durable ahead of it
+                batch.completeExceptionally(failed);
+                continue;
+            }
+            try {
+                force(buffer);
+                batch.complete(null);
+            } catch (RuntimeException e) {
+                //Transfers of the batch are not applied, yet their records may be on disk, refuse further transfers
+                LOGGER.error("Journal commit failed", e);
+                lock.lock();
+                try {
+                    failure = e;
+                    batchTaken.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                batch.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Writes changes of the segment to disk.
+     */
+    protected void force(MappedByteBuffer buffer) {
+        buffer.force();
+    }
+
+    private long awaitNanos(long nanos) {
+        try {
+            return pendingAppended.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            return 0;
+        }
+    }
+
+    private void writeRecord(Operation operation, Long sourceBalance, Long targetBalance, byte[] key) {
+        final int offset = position;
+        final int size = recordSize(key.length);
+        segment.putLong(offset + 8, operation.getId());
+        segment.putLong(offset + 16, valueOf(operation.getSourceAccount()));
+        segment.putLong(offset + 24, valueOf(operation.getTargetAccount()));
+        segment.putLong(offset + 32, operation.getAmount());
+        segment.putLong(offset + 40, ChronoUnit.MICROS.between(Instant.EPOCH, operation.getTimestamp()));
+        segment.putLong(offset + 48, valueOf(sourceBalance));
+        segment.putLong(offset + 56, valueOf(targetBalance));
+        segment.putInt(offset + FIXED_SIZE, key.length);
+        final ByteBuffer keyBuffer = segment.duplicate();
+        keyBuffer.position(offset + FIXED_SIZE + KEY_LENGTH_SIZE);
+        keyBuffer.put(key);
+        segment.putInt(offset + 4, checksum(segment, offset, size));
+        //Magic is written last, record is visible to replay only when complete
+        segment.putInt(offset, MAGIC);
+        position += size;
+    }
+
+    /**
+     * @return size of the record read, 0 when there is no valid record at the offset
+     */
+    private int readRecord(MappedByteBuffer buffer, int offset, LedgerEntryConsumer consumer) {
+        if (offset + FIXED_SIZE + KEY_LENGTH_SIZE > buffer.capacity() || buffer.getInt(offset) != MAGIC) {
+            return 0;
+        }
+        final int keyLength = buffer.getInt(offset + FIXED_SIZE);
+        if (keyLength < 0 || keyLength > MAX_KEY_BYTES) {
+            return 0;
+        }
+        final int size = recordSize(keyLength);
+        if (offset + size > buffer.capacity() || buffer.getInt(offset + 4) != checksum(buffer, offset, size)) {
+            return 0;
+        }
+        String key = null;
+        if (keyLength > 0) {
+            final byte[] bytes = new byte[keyLength];
+            final ByteBuffer keyBuffer = buffer.duplicate();
+            keyBuffer.position(offset + FIXED_SIZE + KEY_LENGTH_SIZE);
+            keyBuffer.get(bytes);
+            key = new String(bytes, StandardCharsets.UTF_8);
+        }
+        final Long sourceAccount = nullable(buffer.getLong(offset + 16));
+        final Long targetAccount = nullable(buffer.getLong(offset + 24));
+        final Operation operation = Operation.builder()
+                .id(buffer.getLong(offset + 8))
+                .sourceAccount(sourceAccount)
+                .targetAccount(targetAccount)
+                .amount(buffer.getLong(offset + 32))
+                .timestamp(Instant.EPOCH.plus(buffer.getLong(offset + 40), ChronoUnit.MICROS))
+                .idempotencyKey(key)
+                .build();
+        consumer.accept(operation,
+                sourceAccount == null ? null : buffer.getLong(offset + 48),
+                targetAccount == null ? null : buffer.getLong(offset + 56));
+        return size;
+    }
+
+    private int checksum(MappedByteBuffer buffer, int offset, int size) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8);
+        record.limit(offset + size);
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private void openSegment() throws IOException {
+        final Path path = segmentPath(++segmentIndex);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        position = 0;
+        segmentMaxOperationId = 0;
+        LOGGER.info("Journal segment {} opened", path);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private long segmentIndexOf(Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] keyOf(Operation operation) {
+        if (operation.getIdempotencyKey() == null) {
+            return new byte[0];
+        }
+        final byte[] key = operation.getIdempotencyKey().getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_KEY_BYTES) {
+            throw new UnexpectedException("Idempotency key is too long for journal: " + operation.getIdempotencyKey());
+        }
+        return key;
+    }
+
+    private static int recordSize(int keyLength) {
+        return (FIXED_SIZE + KEY_LENGTH_SIZE + keyLength + 7) & ~7;
+    }
+
+    private static long valueOf(Long value) {
+        return value == null ? NONE : value;
+    }
+
+    private static Long nullable(long value) {
+        return value == NONE ? null : value;
+    }
+}
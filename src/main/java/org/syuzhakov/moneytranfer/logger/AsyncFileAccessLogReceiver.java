@@ -0,0 +1,145 @@
+package org.syuzhakov.moneytranfer.logger;
+
+import io.undertow.server.handlers.accesslog.AccessLogReceiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log receiver that never blocks request threads: messages are put into a ring buffer
+ * and written to {@code access.log} by a background thread. Messages that do not fit into the buffer are dropped
+ * and counted. When file exceeds max size it is renamed to {@code access.log.1}, older files are shifted
+ * and the oldest one beyond max files is deleted.
+ */
+public class AsyncFileAccessLogReceiver implements AccessLogReceiver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncFileAccessLogReceiver.class);
+    private static final String FILE_NAME = "access.log";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final Path directory;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final RingBuffer<String> buffer;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private volatile boolean running;
+    private OutputStream output;
+    private long fileSize;
+
+    public AsyncFileAccessLogReceiver(Path directory, int bufferSize, long maxFileSize, int maxFiles) {
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.buffer = new RingBuffer<>(Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1);
+        this.thread = new Thread(this::run, "access-log-writer");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            openFile();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open access log in " + directory, e);
+        }
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops writer after messages already in buffer are written.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void logMessage(String message) {
+        if (!buffer.offer(message)) {
+            dropped.increment();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        while (running) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        drain();
+        try {
+            output.close();
+        } catch (IOException e) {
+            LOGGER.error("Cannot close access log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes everything available in buffer and flushes file.
+     *
+     * @return false if buffer was empty
+     */
+    private boolean drain() {
+        String message = buffer.poll();
+        if (message == null) {
+            return false;
+        }
+        try {
+            while (message != null) {
+                final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+                if (fileSize > 0 && fileSize + bytes.length + 1 > maxFileSize) {
+                    rotate();
+                }
+                output.write(bytes);
+                output.write('\n');
+                fileSize += bytes.length + 1;
+                message = buffer.poll();
+            }
+            output.flush();
+        } catch (IOException e) {
+            LOGGER.error("Cannot write access log: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    private void rotate() throws IOException {
+        output.close();
+        Files.deleteIfExists(directory.resolve(FILE_NAME + "." + maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            final Path file = directory.resolve(FILE_NAME + "." + i);
+            if (Files.exists(file)) {
+                Files.move(file, directory.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(directory.resolve(FILE_NAME), directory.resolve(FILE_NAME + ".1"),
+                StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        final Path file = directory.resolve(FILE_NAME);
+        output = new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        fileSize = Files.size(file);
+    }
+}
@@ -0,0 +1,64 @@
+package org.syuzhakov.moneytranfer.logger;
+
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.attribute.ReadOnlyAttributeException;
+import io.undertow.server.HttpServerExchange;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Formats completed exchange as a single JSON line:
+ * {@code {"ts":1561906800000,"remote":"127.0.0.1","method":"GET","uri":"/account/1","status":200,"bytes":42,"micros":350}}.
+ * {@code micros} is -1 unless server records request start time.
+ */
+public class JsonAccessLogAttribute implements ExchangeAttribute {
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    @Override
+    public String readAttribute(HttpServerExchange exchange) {
+        final StringBuilder line = BUFFER.get();
+        line.setLength(0);
+        line.append("{\"ts\":").append(System.currentTimeMillis());
+        line.append(",\"remote\":");
+        final InetSocketAddress sourceAddress = exchange.getSourceAddress();
+        appendString(line, sourceAddress == null ? null : sourceAddress.getHostString());
+        line.append(",\"method\":");
+        appendString(line, exchange.getRequestMethod().toString());
+        line.append(",\"uri\":");
+        if (exchange.getQueryString().isEmpty()) {
+            appendString(line, exchange.getRequestURI());
+        } else {
+            appendString(line, exchange.getRequestURI() + '?' + exchange.getQueryString());
+        }
+        line.append(",\"status\":").append(exchange.getStatusCode());
+        line.append(",\"bytes\":").append(exchange.getResponseBytesSent());
+        final long startTime = exchange.getRequestStartTime();
+        line.append(",\"micros\":").append(startTime > 0 ? (System.nanoTime() - startTime) / 1000 : -1);
+        line.append('}');
+        return line.toString();
+    }
+
+    @Override
+    public void writeAttribute(HttpServerExchange exchange, String newValue) throws ReadOnlyAttributeException {
+        throw new ReadOnlyAttributeException("JSON access log", newValue);
+    }
+
+    private void appendString(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,70 @@
+package org.syuzhakov.moneytranfer.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * Every slot carries a sequence number telling whether it is free for the producer of given position
+ * or holds an element for the consumer, so producers only contend on a single CAS of the tail.
+ */
+class RingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    //Accessed by consumer thread only
+    private long head;
+
+    RingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if buffer is full
+     */
+    boolean offer(E element) {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long sequence = sequences.get(index);
+            if (sequence < position) {
+                //Slot is not consumed yet after the previous lap
+                return false;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                elements.lazySet(index, element);
+                sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return next element or null if buffer is empty. Must be called by a single thread.
+     */
+    E poll() {
+        final int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        final E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return element;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,28 @@
+package org.syuzhakov.moneytranfer.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Counter extends Metric {
+    private final Map<List<String>, LongAdder> values = new ConcurrentHashMap<>();
+
+    Counter(String name, String help, String... labelNames) {
+        super(name, help, "counter", labelNames);
+    }
+
+    public void increment(String... labelValues) {
+        values.computeIfAbsent(labelValues(labelValues), ignored -> new LongAdder()).increment();
+    }
+
+    public long get(String... labelValues) {
+        final LongAdder value = values.get(labelValues(labelValues));
+        return value == null ? 0 : value.sum();
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        values.forEach((labelValues, value) -> writeSample(out, getName(), labelValues, null, null, value.sum()));
+    }
+}
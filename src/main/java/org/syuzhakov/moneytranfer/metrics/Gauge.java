@@ -0,0 +1,32 @@
+package org.syuzhakov.moneytranfer.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Value read from a supplier on every scrape. Also used for counters maintained elsewhere.
+ */
+public class Gauge extends Metric {
+    private final Map<List<String>, DoubleSupplier> suppliers = new ConcurrentHashMap<>();
+
+    Gauge(String name, String help, String type, DoubleSupplier supplier) {
+        super(name, help, type);
+        suppliers.put(List.of(), supplier);
+    }
+
+    Gauge(String name, String help, String type, String... labelNames) {
+        super(name, help, type, labelNames);
+    }
+
+    public void set(DoubleSupplier supplier, String... labelValues) {
+        suppliers.put(labelValues(labelValues), supplier);
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        suppliers.forEach((labelValues, supplier) ->
+                writeSample(out, getName(), labelValues, null, null, supplier.getAsDouble()));
+    }
+}
@@ -0,0 +1,77 @@
+package org.syuzhakov.moneytranfer.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in seconds with fixed buckets.
+ */
+public class Histogram extends Metric {
+    //From 0.5 ms to 10 s
+    public static final double[] DEFAULT_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private final double[] buckets;
+    private final Map<List<String>, Values> values = new ConcurrentHashMap<>();
+
+    Histogram(String name, String help, double[] buckets, String... labelNames) {
+        super(name, help, "histogram", labelNames);
+        this.buckets = buckets;
+    }
+
+    public void observeNanos(long nanos, String... labelValues) {
+        observe(nanos / 1e9, labelValues);
+    }
+
+    public void observe(double value, String... labelValues) {
+        final Values histogram = values.computeIfAbsent(labelValues(labelValues), ignored -> new Values(buckets.length));
+        int bucket = 0;
+        while (bucket < buckets.length && value > buckets[bucket]) {
+            bucket++;
+        }
+        histogram.counts[bucket].increment();
+        histogram.sum.add(value);
+    }
+
+    public long getCount(String... labelValues) {
+        final Values histogram = values.get(labelValues(labelValues));
+        if (histogram == null) {
+            return 0;
+        }
+        long count = 0;
+        for (LongAdder bucketCount : histogram.counts) {
+            count += bucketCount.sum();
+        }
+        return count;
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        values.forEach((labelValues, histogram) -> {
+            long cumulativeCount = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulativeCount += histogram.counts[i].sum();
+                writeSample(out, getName() + "_bucket", labelValues, "le", String.valueOf(buckets[i]), cumulativeCount);
+            }
+            cumulativeCount += histogram.counts[buckets.length].sum();
+            writeSample(out, getName() + "_bucket", labelValues, "le", "+Inf", cumulativeCount);
+            writeSample(out, getName() + "_sum", labelValues, null, null, histogram.sum.sum());
+            writeSample(out, getName() + "_count", labelValues, null, null, cumulativeCount);
+        });
+    }
+
+    private static class Values {
+        //Last bucket counts values above all bounds
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Values(int bucketCount) {
+            counts = new LongAdder[bucketCount + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+    }
+}
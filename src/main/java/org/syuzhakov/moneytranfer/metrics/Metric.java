@@ -0,0 +1,82 @@
+package org.syuzhakov.moneytranfer.metrics;
+
+import java.util.List;
+
+/**
+ * Metric family written in Prometheus text format.
+ */
+public abstract class Metric {
+    private final String name;
+    private final String help;
+    private final String type;
+    private final List<String> labelNames;
+
+    protected Metric(String name, String help, String type, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.labelNames = List.of(labelNames);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        writeSamples(out);
+    }
+
+    protected abstract void writeSamples(StringBuilder out);
+
+    protected List<String> labelValues(String... values) {
+        if (values.length != labelNames.size()) {
+            throw new IllegalArgumentException(String.format("Metric %s expects labels %s", name, labelNames));
+        }
+        return List.of(values);
+    }
+
+    protected void writeSample(StringBuilder out, String sampleName, List<String> labelValues,
+                               String extraLabel, String extraValue, double value) {
+        out.append(sampleName);
+        if (!labelValues.isEmpty() || extraLabel != null) {
+            out.append('{');
+            for (int i = 0; i < labelValues.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                appendLabel(out, labelNames.get(i), labelValues.get(i));
+            }
+            if (extraLabel != null) {
+                if (!labelValues.isEmpty()) {
+                    out.append(',');
+                }
+                appendLabel(out, extraLabel, extraValue);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private void appendLabel(StringBuilder out, String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,60 @@
+package org.syuzhakov.moneytranfer.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of one application instance. Metric registered twice under the same name is returned again,
+ * so every component may register what it needs.
+ */
+public class MetricRegistry {
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, labelNames));
+    }
+
+    public Histogram histogram(String name, String help, String... labelNames) {
+        return register(new Histogram(name, help, Histogram.DEFAULT_BUCKETS, labelNames));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier supplier) {
+        register(new Gauge(name, help, "gauge", supplier));
+    }
+
+    /**
+     * Gauge with labels, supplier of every label combination is set with {@link Gauge#set}.
+     */
+    public Gauge gauge(String name, String help, String... labelNames) {
+        return register(new Gauge(name, help, "gauge", labelNames));
+    }
+
+    /**
+     * Counter whose value is maintained by the monitored component itself.
+     */
+    public void counter(String name, String help, DoubleSupplier supplier) {
+        register(new Gauge(name, help, "counter", supplier));
+    }
+
+    /**
+     * @return all metrics in Prometheus text exposition format
+     */
+    public String scrape() {
+        final StringBuilder out = new StringBuilder();
+        metrics.values().forEach(metric -> metric.write(out));
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T register(T metric) {
+        final Metric registered = metrics.putIfAbsent(metric.getName(), metric);
+        if (registered == null) {
+            return metric;
+        }
+        if (registered.getClass() != metric.getClass()) {
+            throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered with other type");
+        }
+        return (T) registered;
+    }
+}
@@ -12,11 +12,18 @@ public class Account {
     private Long id;
     private AccountStatus status;
     private Instant actuality;
+    //Number of balance slots credits are spread over, account with more than one slot is split
+    private Integer slots;
 
-    @Builder
     public Account(Long id, AccountStatus status, Instant actuality) {
+        this(id, status, actuality, null);
+    }
+
+    @Builder
+    public Account(Long id, AccountStatus status, Instant actuality, Integer slots) {
         this.id = id;
         this.status = status;
         this.actuality = actuality;
+        this.slots = slots;
     }
 }
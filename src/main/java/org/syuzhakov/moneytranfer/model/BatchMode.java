@@ -0,0 +1,8 @@
+package org.syuzhakov.moneytranfer.model;
+
+public enum BatchMode {
+    //Whole batch is applied in one transaction or rejected
+    ATOMIC,
+    //Every operation is applied if possible, failures are reported per operation
+    BEST_EFFORT
+}
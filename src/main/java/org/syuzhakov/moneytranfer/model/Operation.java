@@ -14,13 +14,17 @@ public class Operation {
     private Long targetAccount;
     private Long amount;
     private Instant timestamp;
+    //Client supplied key, repeated requests with the same key return the first operation
+    private String idempotencyKey;
 
     @Builder
-    public Operation(Long id, Long sourceAccount, Long targetAccount, Long amount, Instant timestamp) {
+    public Operation(Long id, Long sourceAccount, Long targetAccount, Long amount, Instant timestamp,
+                     String idempotencyKey) {
         this.id = id;
         this.sourceAccount = sourceAccount;
         this.targetAccount = targetAccount;
         this.amount = amount;
         this.timestamp = timestamp;
+        this.idempotencyKey = idempotencyKey;
     }
 }
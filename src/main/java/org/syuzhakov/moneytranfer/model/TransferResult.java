@@ -0,0 +1,19 @@
+package org.syuzhakov.moneytranfer.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.syuzhakov.moneytranfer.error.ErrorResponse;
+
+@Data
+@NoArgsConstructor
+public class TransferResult {
+    private Operation operation;
+    private ErrorResponse error;
+
+    @Builder
+    public TransferResult(Operation operation, ErrorResponse error) {
+        this.operation = operation;
+        this.error = error;
+    }
+}
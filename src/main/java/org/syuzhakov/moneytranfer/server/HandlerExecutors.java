@@ -0,0 +1,74 @@
+package org.syuzhakov.moneytranfer.server;
+
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for {@link RestHandler}. Executors are bounded: when all threads are busy and queue is full,
+ * or, with virtual threads, when the limit of requests in progress is reached, request is rejected instead of piling
+ * up in memory.
+ */
+public final class HandlerExecutors {
+
+    private HandlerExecutors() {
+    }
+
+    /**
+     * @return executor for configured handler mode or null for blocking mode
+     */
+    public static ExecutorService create(WebServiceConfiguration configuration) {
+        switch (configuration.getHandlerMode()) {
+            case ASYNC:
+                return bounded(configuration, platformThreadFactory());
+            case VIRTUAL:
+                //Virtual threads are not pooled, a new one runs every request
+                return new ThreadPerTaskExecutor(threadPerTaskExecutor(virtualThreadFactory()),
+                        configuration.getHandlerThreads());
+            default:
+                return null;
+        }
+    }
+
+    private static ExecutorService bounded(WebServiceConfiguration configuration, ThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(configuration.getHandlerThreads(), configuration.getHandlerThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(configuration.getHandlerQueueSize()),
+                threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "rest-handler-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ExecutorService threadPerTaskExecutor(ThreadFactory threadFactory) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual handler mode requires JDK 21 or later", e);
+        }
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        //Thread.ofVirtual() is looked up reflectively, so the application still runs on Java 11
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builderType.getMethod("name", String.class, long.class).invoke(builder, "rest-handler-virtual-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual handler mode requires JDK 21 or later", e);
+        }
+    }
+}
@@ -1,24 +1,60 @@
 package org.syuzhakov.moneytranfer.server;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 public class JacksonFactory {
     public static final ObjectMapper DEFAULT_INSTANCE = createRestObjectMapper();
+    public static final ObjectMapper PRETTY_INSTANCE = createPrettyRestObjectMapper();
+    public static final ObjectMapper SMILE_INSTANCE = createSmileObjectMapper();
+    //Binary JSON for internal clients, negotiated with Content-Type and Accept headers
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
 
+    /**
+     * Production mapper: compact output, response models are written by {@link ModelJsonModule}.
+     */
     public static ObjectMapper createRestObjectMapper() {
-        final ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.findAndRegisterModules();
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        final ObjectMapper objectMapper = createBaseObjectMapper(new JsonFactory());
+        objectMapper.registerModule(new ModelJsonModule());
+        return objectMapper;
+    }
+
+    /**
+     * Smile mapper: the same data model as JSON, field names are shared back references and numbers are binary.
+     */
+    public static ObjectMapper createSmileObjectMapper() {
+        final ObjectMapper objectMapper = createBaseObjectMapper(new SmileFactory());
+        objectMapper.registerModule(new ModelJsonModule());
+        return objectMapper;
+    }
+
+    /**
+     * Indented output of reflective serializers, for reading responses by eye.
+     */
+    public static ObjectMapper createPrettyRestObjectMapper() {
+        final ObjectMapper objectMapper = createBaseObjectMapper(new JsonFactory());
         objectMapper.configure(SerializationFeature.INDENT_OUTPUT, true);
-        objectMapper.configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, false);
-        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         return objectMapper;
     }
 
     public static ObjectMapper getDefaultRestMapper() {
         return DEFAULT_INSTANCE;
     }
+
+    public static ObjectMapper getRestMapper(boolean pretty) {
+        return pretty ? PRETTY_INSTANCE : DEFAULT_INSTANCE;
+    }
+
+    private static ObjectMapper createBaseObjectMapper(JsonFactory factory) {
+        final ObjectMapper objectMapper = new ObjectMapper(factory);
+        objectMapper.findAndRegisterModules();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, false);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return objectMapper;
+    }
 }
@@ -0,0 +1,45 @@
+package org.syuzhakov.moneytranfer.server;
+
+import io.undertow.predicate.Predicate;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.HttpString;
+import org.syuzhakov.moneytranfer.metrics.Histogram;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+
+/**
+ * Routing handler recording latency of every route. Route template is used as label instead of request path,
+ * so number of time series does not depend on number of accounts.
+ */
+public class MeteredRoutingHandler extends RoutingHandler {
+    private final Histogram requestDuration;
+
+    public MeteredRoutingHandler(MetricRegistry metricRegistry) {
+        this.requestDuration = metricRegistry.histogram("http_request_duration_seconds",
+                "Duration of HTTP requests from routing to response completion", "method", "route", "status");
+    }
+
+    @Override
+    public synchronized RoutingHandler add(HttpString method, String template, HttpHandler handler) {
+        return super.add(method, template, meter(method, template, handler));
+    }
+
+    @Override
+    public synchronized RoutingHandler add(HttpString method, String template, Predicate predicate,
+                                           HttpHandler handler) {
+        return super.add(method, template, predicate, meter(method, template, handler));
+    }
+
+    private HttpHandler meter(HttpString method, String template, HttpHandler handler) {
+        final String methodName = method.toString();
+        return exchange -> {
+            final long start = System.nanoTime();
+            exchange.addExchangeCompleteListener((ex, nextListener) -> {
+                requestDuration.observeNanos(System.nanoTime() - start,
+                        methodName, template, String.valueOf(ex.getStatusCode()));
+                nextListener.proceed();
+            });
+            handler.handleRequest(exchange);
+        };
+    }
+}
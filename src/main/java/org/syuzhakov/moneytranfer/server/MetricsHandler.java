@@ -0,0 +1,24 @@
+package org.syuzhakov.moneytranfer.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+
+/**
+ * Exposes metrics in Prometheus text format.
+ */
+public class MetricsHandler implements HttpHandler {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private final MetricRegistry metricRegistry;
+
+    public MetricsHandler(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, CONTENT_TYPE);
+        exchange.getResponseSender().send(metricRegistry.scrape());
+    }
+}
@@ -0,0 +1,175 @@
+package org.syuzhakov.moneytranfer.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.syuzhakov.moneytranfer.error.ErrorResponse;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Streaming serializers of response models. They write the same JSON as reflective bean serializers
+ * with {@code NON_NULL} inclusion, instants as epoch milliseconds, but field names are pre-encoded
+ * and no bean properties or jsr310 serializers are looked up.
+ */
+public class ModelJsonModule extends SimpleModule {
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString SOURCE_ACCOUNT = new SerializedString("sourceAccount");
+    private static final SerializableString TARGET_ACCOUNT = new SerializedString("targetAccount");
+    private static final SerializableString AMOUNT = new SerializedString("amount");
+    private static final SerializableString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializableString IDEMPOTENCY_KEY = new SerializedString("idempotencyKey");
+    private static final SerializableString ACCOUNT = new SerializedString("account");
+    private static final SerializableString OPERATION = new SerializedString("operation");
+    private static final SerializableString BALANCE = new SerializedString("balance");
+    private static final SerializableString ACTUALITY = new SerializedString("actuality");
+    private static final SerializableString STATUS = new SerializedString("status");
+    private static final SerializableString SLOTS = new SerializedString("slots");
+    private static final SerializableString ERROR = new SerializedString("error");
+    private static final SerializableString ERROR_CODE = new SerializedString("errorCode");
+    private static final SerializableString MESSAGE = new SerializedString("message");
+
+    public ModelJsonModule() {
+        super("ModelJsonModule");
+        addSerializer(Operation.class, new OperationSerializer());
+        addSerializer(Balance.class, new BalanceSerializer());
+        addSerializer(Account.class, new AccountSerializer());
+        addSerializer(TransferResult.class, new TransferResultSerializer());
+        addSerializer(ErrorResponse.class, new ErrorResponseSerializer());
+    }
+
+    private static class OperationSerializer extends StdSerializer<Operation> {
+        private OperationSerializer() {
+            super(Operation.class);
+        }
+
+        @Override
+        public void serialize(Operation value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject();
+            writeOperationFields(value, generator);
+            generator.writeEndObject();
+        }
+    }
+
+    private static class BalanceSerializer extends StdSerializer<Balance> {
+        private BalanceSerializer() {
+            super(Balance.class);
+        }
+
+        @Override
+        public void serialize(Balance value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            writeNumber(generator, ACCOUNT, value.getAccount());
+            writeNumber(generator, OPERATION, value.getOperation());
+            writeNumber(generator, BALANCE, value.getBalance());
+            writeInstant(generator, ACTUALITY, value.getActuality());
+            generator.writeEndObject();
+        }
+    }
+
+    private static class AccountSerializer extends StdSerializer<Account> {
+        private AccountSerializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public void serialize(Account value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            writeNumber(generator, ID, value.getId());
+            if (value.getStatus() != null) {
+                generator.writeFieldName(STATUS);
+                generator.writeString(value.getStatus().name());
+            }
+            writeInstant(generator, ACTUALITY, value.getActuality());
+            if (value.getSlots() != null) {
+                generator.writeFieldName(SLOTS);
+                generator.writeNumber(value.getSlots());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static class TransferResultSerializer extends StdSerializer<TransferResult> {
+        private TransferResultSerializer() {
+            super(TransferResult.class);
+        }
+
+        @Override
+        public void serialize(TransferResult value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject();
+            if (value.getOperation() != null) {
+                generator.writeFieldName(OPERATION);
+                generator.writeStartObject();
+                writeOperationFields(value.getOperation(), generator);
+                generator.writeEndObject();
+            }
+            if (value.getError() != null) {
+                generator.writeFieldName(ERROR);
+                writeErrorResponse(value.getError(), generator);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static class ErrorResponseSerializer extends StdSerializer<ErrorResponse> {
+        private ErrorResponseSerializer() {
+            super(ErrorResponse.class);
+        }
+
+        @Override
+        public void serialize(ErrorResponse value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            writeErrorResponse(value, generator);
+        }
+    }
+
+    private static void writeOperationFields(Operation value, JsonGenerator generator) throws IOException {
+        writeNumber(generator, ID, value.getId());
+        writeNumber(generator, SOURCE_ACCOUNT, value.getSourceAccount());
+        writeNumber(generator, TARGET_ACCOUNT, value.getTargetAccount());
+        writeNumber(generator, AMOUNT, value.getAmount());
+        writeInstant(generator, TIMESTAMP, value.getTimestamp());
+        if (value.getIdempotencyKey() != null) {
+            generator.writeFieldName(IDEMPOTENCY_KEY);
+            generator.writeString(value.getIdempotencyKey());
+        }
+    }
+
+    private static void writeErrorResponse(ErrorResponse value, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (value.getErrorCode() != null) {
+            generator.writeFieldName(ERROR_CODE);
+            generator.writeNumber(value.getErrorCode());
+        }
+        if (value.getMessage() != null) {
+            generator.writeFieldName(MESSAGE);
+            generator.writeString(value.getMessage());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeNumber(JsonGenerator generator, SerializableString name, Long value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeNumber(value);
+        }
+    }
+
+    private static void writeInstant(JsonGenerator generator, SerializableString name, Instant value)
+            throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeNumber(value.toEpochMilli());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.syuzhakov.moneytranfer.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.database.OperationRepository;
+import org.syuzhakov.moneytranfer.error.ExpectedException;
+import org.syuzhakov.moneytranfer.error.ServiceUnavailableException;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams operations as JSON array in ascending id order, optionally of a single account ({@code id} path parameter).
+ * Query parameters: {@code after} - operation id to continue after, {@code limit} - max number of operations,
+ * all operations after {@code after} if absent. Operations are read with keyset pages of {@code pageSize},
+ * page per read-only connection checkout, and every row is written to response as soon as it is read
+ * from result set, so memory use does not depend on result size. Client continues with {@code after} set
+ * to the last id it got. Connection is held while its page is written to client, so at most {@code exports}
+ * histories (shared by handlers given the same semaphore) are streamed at once, others get {@code 503}.
+ */
+public class OperationHistoryHandler implements HttpHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OperationHistoryHandler.class);
+    private final ConnectionFactory connectionFactory;
+    private final OperationRepository operationRepository;
+    private final int pageSize;
+    private final Semaphore exports;
+
+    public OperationHistoryHandler(ConnectionFactory connectionFactory, OperationRepository operationRepository,
+                                   int pageSize, Semaphore exports) {
+        this.connectionFactory = connectionFactory;
+        this.operationRepository = operationRepository;
+        this.pageSize = pageSize;
+        this.exports = exports;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+        exchange.startBlocking();
+        final boolean pretty = RestHandler.isPretty(exchange);
+        final ObjectMapper mapper = JacksonFactory.getRestMapper(pretty);
+
+        //Validate input before response is started
+        final Long accountId;
+        final long after;
+        final long limit;
+        try {
+            accountId = getParameter(exchange, "id");
+            after = Optional.ofNullable(getParameter(exchange, "after")).orElse(0L);
+            limit = Optional.ofNullable(getParameter(exchange, "limit")).orElse(Long.MAX_VALUE);
+            if (limit <= 0) {
+                throw new ValidationException("Parameter 'limit' must be positive");
+            }
+        } catch (ExpectedException e) {
+            writeError(exchange, mapper, e);
+            return;
+        }
+        //Slow client would otherwise hold read-only connections of other requests
+        if (!exports.tryAcquire()) {
+            writeError(exchange, mapper, new ServiceUnavailableException("Too many operation history exports"));
+            return;
+        }
+        try {
+            stream(exchange, mapper, pretty, accountId, after, limit);
+        } finally {
+            exports.release();
+        }
+    }
+
+    private void stream(HttpServerExchange exchange, ObjectMapper mapper, boolean pretty,
+                        Long accountId, long after, long limit) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(exchange.getOutputStream())) {
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            generator.writeStartArray();
+            final long[] lastId = {after};
+            long remaining = limit;
+            while (remaining > 0) {
+                final int pageLimit = (int) Math.min(remaining, pageSize);
+                final int count = connectionFactory.executeReadOnly(() ->
+                        operationRepository.forEachOperation(accountId, lastId[0], pageLimit, operation -> {
+                            try {
+                                generator.writeObject(operation);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            lastId[0] = operation.getId();
+                        }));
+                remaining -= count;
+                if (count < pageLimit) {
+                    break;
+                }
+            }
+            generator.writeEndArray();
+        } catch (IOException | RuntimeException e) {
+            //Response is already started, client gets truncated array
+            LOGGER.error("Operation history streaming failed: " + e.getMessage(), e);
+            exchange.endExchange();
+        }
+    }
+
+    private void writeError(HttpServerExchange exchange, ObjectMapper mapper, ExpectedException e)
+            throws IOException {
+        exchange.setStatusCode(e.getErrorResponse().getHttpStatus());
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        mapper.writeValue(exchange.getOutputStream(), e.getErrorResponse());
+    }
+
+    private Long getParameter(HttpServerExchange exchange, String name) {
+        final String value = Optional.ofNullable(exchange.getQueryParameters().get(name))
+                .map(Deque::getFirst).orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ValidationException(String.format("Parameter '%s' must be a number", name));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.syuzhakov.moneytranfer.server;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stream response body is serialized into, it writes straight into buffers taken from the connection pool.
+ * Body is sent with one gathering write, which also sets content length, so a response allocates neither
+ * byte arrays nor heap byte buffers, whatever thread serializes it. Pooled buffers are returned when the write
+ * completes, or by {@link #release()} if the response is not sent.
+ */
+final class ResponseBuffer extends OutputStream {
+    private final ByteBufferPool pool;
+    private PooledByteBuffer[] pooled = new PooledByteBuffer[4];
+    private int count;
+    private ByteBuffer current;
+
+    private ResponseBuffer(ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns empty buffer backed by the pool of exchange connection.
+     */
+    static ResponseBuffer get(HttpServerExchange exchange) {
+        return new ResponseBuffer(exchange.getConnection().getByteBufferPool());
+    }
+
+    @Override
+    public void write(int b) {
+        if (current == null || !current.hasRemaining()) {
+            nextBuffer();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] source, int offset, int length) {
+        while (length > 0) {
+            if (current == null || !current.hasRemaining()) {
+                nextBuffer();
+            }
+            final int chunk = Math.min(current.remaining(), length);
+            current.put(source, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Sends buffer content as the whole response body and ends exchange.
+     */
+    void send(HttpServerExchange exchange) {
+        final PooledByteBuffer[] sent = Arrays.copyOf(pooled, count);
+        final ByteBuffer[] buffers = new ByteBuffer[sent.length];
+        for (int i = 0; i < sent.length; i++) {
+            buffers[i] = sent[i].getBuffer();
+            buffers[i].flip();
+        }
+        exchange.getResponseSender().send(buffers, new IoCallback() {
+            @Override
+            public void onComplete(HttpServerExchange exchange, Sender sender) {
+                release(sent);
+                IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+            }
+
+            @Override
+            public void onException(HttpServerExchange exchange, Sender sender, IOException exception) {
+                release(sent);
+                IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+            }
+        });
+    }
+
+    /**
+     * Returns pooled buffers of a response that is not sent.
+     */
+    void release() {
+        release(Arrays.copyOf(pooled, count));
+        count = 0;
+        current = null;
+    }
+
+    private static void release(PooledByteBuffer[] pooled) {
+        for (PooledByteBuffer buffer : pooled) {
+            buffer.close();
+        }
+    }
+
+    private void nextBuffer() {
+        if (count == pooled.length) {
+            pooled = Arrays.copyOf(pooled, count * 2);
+        }
+        pooled[count] = pool.allocate();
+        current = pooled[count++].getBuffer();
+        current.clear();
+    }
+}
@@ -1,8 +1,13 @@
 package org.syuzhakov.moneytranfer.server;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import org.slf4j.Logger;
@@ -10,37 +15,89 @@ import org.slf4j.LoggerFactory;
 import org.syuzhakov.moneytranfer.error.BadRequestException;
 import org.syuzhakov.moneytranfer.error.ErrorResponse;
 import org.syuzhakov.moneytranfer.error.ExpectedException;
+import org.syuzhakov.moneytranfer.error.ServiceUnavailableException;
 import org.syuzhakov.moneytranfer.error.UnexpectedException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Base handler of REST endpoints. Without executor request is handled in blocking mode by XNIO worker thread.
+ * With executor body is read by I/O thread without blocking, {@link #execute} is called by executor thread
+ * and response is sent asynchronously, so worker pool size does not limit number of requests in progress.
+ * Handler that reads body incrementally with {@link #readBody} gets it as a blocking stream on executor thread instead.
+ * Request body is read as Smile if {@code Content-Type} says so, response is Smile if {@code Accept} lists it.
+ */
 public abstract class RestHandler<T> implements HttpHandler {
     private final static Logger LOGGER = LoggerFactory.getLogger(RestHandler.class);
+    private static final String PRETTY_PARAMETER = "pretty";
     private final ObjectMapper mapper = JacksonFactory.getDefaultRestMapper();
-    private final Class<T> requestType;
+    private final JavaType requestType;
+    private final Executor executor;
 
     public RestHandler(Class<T> requestType) {
-        this.requestType = requestType;
+        this(requestType, null);
+    }
+
+    public RestHandler(TypeReference<T> requestType) {
+        this(requestType, null);
+    }
+
+    public RestHandler(Class<T> requestType, Executor executor) {
+        this.requestType = mapper.constructType(requestType);
+        this.executor = executor;
+    }
+
+    public RestHandler(TypeReference<T> requestType, Executor executor) {
+        this.requestType = mapper.getTypeFactory().constructType(requestType);
+        this.executor = executor;
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) {
-        //Dispatch execution to XNIO thread pool
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(() -> performDispatch(exchange));
+        if (executor == null) {
+            //Dispatch execution to XNIO thread pool
+            exchange.startBlocking();
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(() -> performDispatch(exchange, null));
+            }
+        } else if (Methods.GET.equals(exchange.getRequestMethod())) {
+            exchange.dispatch(SameThreadExecutor.INSTANCE, () -> submit(exchange, null));
+        } else if (readsBodyIncrementally()) {
+            //Body is read by executor thread while it is parsed
+            exchange.startBlocking();
+            exchange.dispatch(SameThreadExecutor.INSTANCE, () -> submit(exchange, null));
+        } else {
+            //Read body by I/O thread, then pass execution to handler executor
+            exchange.getRequestReceiver().receiveFullBytes(
+                    (ex, body) -> ex.dispatch(SameThreadExecutor.INSTANCE, () -> submit(ex, body)),
+                    (ex, e) -> sendErrorResponse(new BadRequestException(e.getMessage(), e).getErrorResponse(), ex));
         }
     }
 
-    private void performDispatch(HttpServerExchange exchange) {
+    private void submit(HttpServerExchange exchange, byte[] body) {
+        try {
+            executor.execute(() -> performDispatch(exchange, body));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Request \"{} {}\" is rejected, handler queue is full",
+                    exchange.getRequestMethod(), exchange.getRequestPath());
+            sendErrorResponse(new ServiceUnavailableException("Server is overloaded").getErrorResponse(), exchange);
+        }
+    }
+
+    private void performDispatch(HttpServerExchange exchange, byte[] body) {
         try {
             //Get request body, if present
             final T requestBody;
             if (Methods.GET.equals(exchange.getRequestMethod())) {
                 requestBody = null;
+            } else if (body != null) {
+                requestBody = readRequestBody(new ByteArrayInputStream(body), exchange);
             } else {
-                requestBody = readRequestBody(exchange);
+                requestBody = readRequestBody(exchange.getInputStream(), exchange);
             }
             //Log request
             if (LOGGER.isDebugEnabled()) {
@@ -87,22 +144,43 @@ public abstract class RestHandler<T> implements HttpHandler {
     }
 
     private void applyRestDefaults(HttpServerExchange exchange) {
-        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE,
+                acceptsSmile(exchange) ? JacksonFactory.SMILE_CONTENT_TYPE : "application/json");
     }
 
-    private T readRequestBody(HttpServerExchange exchange) {
-        try {
-            return mapper.readValue(exchange.getInputStream(), requestType);
+    private T readRequestBody(InputStream inputStream, HttpServerExchange exchange) {
+        final String contentType = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
+        final boolean smile = contentType != null && contentType.startsWith(JacksonFactory.SMILE_CONTENT_TYPE);
+        final ObjectMapper requestMapper = smile ? JacksonFactory.SMILE_INSTANCE : mapper;
+        try (JsonParser parser = requestMapper.getFactory().createParser(inputStream)) {
+            return readBody(requestMapper, parser);
         } catch (IOException e) {
             throw new BadRequestException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Reads request body from parser which is not advanced yet. Handler that overrides it to read body
+     * token by token should also override {@link #readsBodyIncrementally()}, so the body is not buffered first.
+     */
+    protected T readBody(ObjectMapper mapper, JsonParser parser) throws IOException {
+        return mapper.readValue(parser, requestType);
+    }
+
+    /**
+     * @return true if {@link #readBody} reads body token by token and may stop before its end
+     */
+    protected boolean readsBodyIncrementally() {
+        return false;
+    }
+
     private void writeResponseBody(Object responseObject, HttpServerExchange exchange) {
-        try (final OutputStream outputStream = exchange.getOutputStream()) {
-            if (responseObject != null) {
-                mapper.writeValue(outputStream, responseObject);
-            }
+        if (responseObject == null) {
+            exchange.endExchange();
+            return;
+        }
+        try {
+            send(responseObject, exchange);
         } catch (IOException e) {
             throw new UnexpectedException(e);
         }
@@ -111,12 +189,94 @@ public abstract class RestHandler<T> implements HttpHandler {
     private void sendErrorResponse(ErrorResponse errorResponse, HttpServerExchange exchange) {
         try {
             exchange.setStatusCode(errorResponse.getHttpStatus());
-            mapper.writeValue(exchange.getOutputStream(), errorResponse);
+            send(errorResponse, exchange);
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    private void send(Object responseObject, HttpServerExchange exchange) throws IOException {
+        //Error may be sent before defaults are applied
+        applyRestDefaults(exchange);
+        final ResponseBuffer buffer = ResponseBuffer.get(exchange);
+        final ObjectMapper responseMapper =
+                JacksonFactory.SMILE_CONTENT_TYPE.equals(exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE))
+                ? JacksonFactory.SMILE_INSTANCE
+                : JacksonFactory.getRestMapper(isPretty(exchange));
+        try {
+            responseMapper.writeValue(buffer, responseObject);
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        buffer.send(exchange);
+    }
+
+    /**
+     * Response is encoded with Smile only if it is the best match of {@code Accept} header, JSON otherwise.
+     * Media ranges are compared by q-value, then by specificity, and JSON wins a tie,
+     * so wildcards, malformed and missing header give JSON.
+     */
+    private static boolean acceptsSmile(HttpServerExchange exchange) {
+        final HeaderValues accept = exchange.getRequestHeaders().get(Headers.ACCEPT);
+        if (accept == null) {
+            return false;
+        }
+        double jsonQuality = 0;
+        int jsonMatch = 0;
+        double smileQuality = 0;
+        for (String header : accept) {
+            for (String entry : header.split(",")) {
+                final String[] parts = entry.split(";");
+                final String mediaRange = parts[0].trim();
+                final double quality = quality(parts);
+                final int match = jsonMatch(mediaRange);
+                if (match > 0 && (quality > jsonQuality || quality == jsonQuality && match > jsonMatch)) {
+                    jsonQuality = quality;
+                    jsonMatch = match;
+                } else if (JacksonFactory.SMILE_CONTENT_TYPE.equalsIgnoreCase(mediaRange)) {
+                    smileQuality = Math.max(smileQuality, quality);
+                }
+            }
+        }
+        return smileQuality > jsonQuality || smileQuality > 0 && smileQuality == jsonQuality && jsonMatch < 2;
+    }
+
+    /**
+     * Returns q parameter of media range, 1 if it is absent and 0 if it is malformed.
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            final String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    final double quality = Double.parseDouble(parameter.substring(2).trim());
+                    return quality >= 0 && quality <= 1 ? quality : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns how specific media range matches JSON: 2 - exactly, 1 - by wildcard, 0 - not at all.
+     */
+    private static int jsonMatch(String mediaRange) {
+        if ("application/json".equalsIgnoreCase(mediaRange)) {
+            return 2;
+        }
+        return "*/*".equals(mediaRange) || "application/*".equalsIgnoreCase(mediaRange) ? 1 : 0;
+    }
+
+    /**
+     * Responses are compact unless {@code pretty} query parameter is present.
+     */
+    static boolean isPretty(HttpServerExchange exchange) {
+        return exchange.getQueryParameters().containsKey(PRETTY_PARAMETER);
+    }
+
     public abstract Object execute(T body, HttpServerExchange exchange);
 }
@@ -0,0 +1,72 @@
+package org.syuzhakov.moneytranfer.server;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task in a new thread of the wrapped executor, at most {@code maxTasks} at once.
+ * Task beyond the limit is rejected, so waiting requests do not pile up in memory.
+ */
+public class ThreadPerTaskExecutor extends AbstractExecutorService {
+    private final ExecutorService executor;
+    private final int maxTasks;
+    private final Semaphore permits;
+
+    public ThreadPerTaskExecutor(ExecutorService executor, int maxTasks) {
+        this.executor = executor;
+        this.maxTasks = maxTasks;
+        this.permits = new Semaphore(maxTasks);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("All " + maxTasks + " tasks are in progress");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getActiveCount() {
+        return maxTasks - permits.availablePermits();
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -3,6 +3,9 @@ package org.syuzhakov.moneytranfer.service;
 import org.syuzhakov.moneytranfer.model.Account;
 import org.syuzhakov.moneytranfer.model.Balance;
 
+import java.util.List;
+import java.util.Map;
+
 public interface AccountService {
     Account createNewAccount(Account account);
 
@@ -11,4 +14,9 @@ public interface AccountService {
     void updateAccount(Account account);
 
     Balance getBalance(Long accountId);
+
+    /**
+     * @return balances of given accounts that exist and are active, in request order
+     */
+    Map<Long, Balance> getBalances(List<Long> accountIds);
 }
@@ -3,25 +3,40 @@ package org.syuzhakov.moneytranfer.service;
 import lombok.RequiredArgsConstructor;
 import org.syuzhakov.moneytranfer.database.AccountRepository;
 import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.database.BalanceSlotRepository;
 import org.syuzhakov.moneytranfer.error.BadRequestException;
 import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
 import org.syuzhakov.moneytranfer.error.Require;
+import org.syuzhakov.moneytranfer.error.ValidationException;
 import org.syuzhakov.moneytranfer.model.Account;
 import org.syuzhakov.moneytranfer.model.AccountStatus;
 import org.syuzhakov.moneytranfer.model.Balance;
 
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RequiredArgsConstructor
 public class AccountServiceImpl implements AccountService {
+    public static final int MAX_SLOTS = 64;
+    //Accounts resolved by one query
+    private static final int BALANCES_CHUNK_SIZE = 1000;
     private final AccountRepository accountRepository;
     private final BalanceRepository balanceRepository;
+    private final BalanceSlotRepository balanceSlotRepository;
 
     @Override
     public Account createNewAccount(Account account) {
         Require.notNull(account.getStatus(), "status");
-        return accountRepository.createNewAccount(account);
+        validateSlots(account.getSlots());
+        final Account createdAccount = accountRepository.createNewAccount(account);
+        if (createdAccount.getSlots() > 1) {
+            balanceSlotRepository.createSlots(createdAccount.getId(), createdAccount.getSlots());
+        }
+        return createdAccount;
     }
 
     @Override
@@ -33,6 +48,17 @@ public class AccountServiceImpl implements AccountService {
     public void updateAccount(Account account) {
         Require.notNull(account.getId(), "id");
         Require.notNull(account.getStatus(), "status");
+        validateSlots(account.getSlots());
+        if (account.getSlots() != null) {
+            //Slots keep money, so they cannot be removed
+            final Account currentAccount = accountRepository.getAccountById(account.getId(), true);
+            if (currentAccount != null && currentAccount.getSlots() > account.getSlots()) {
+                throw new ValidationException("Number of account slots cannot be reduced");
+            }
+            if (account.getSlots() > 1) {
+                balanceSlotRepository.createSlots(account.getId(), account.getSlots());
+            }
+        }
         accountRepository.updateAccount(account);
     }
 
@@ -45,7 +71,49 @@ public class AccountServiceImpl implements AccountService {
             throw new OperationImpossibleException(String.format("Account %s is not active", accountId));
         }
         final Instant requestTime = Instant.now();
-        return Optional.ofNullable(balanceRepository.getBalance(accountId, false))
+        final Balance balance = Optional.ofNullable(balanceRepository.getBalance(accountId, false))
                 .orElse(Balance.builder().account(accountId).balance(0L).actuality(requestTime).build());
+        if (account.getSlots() != null && account.getSlots() > 1) {
+            final long slotsTotal = balanceSlotRepository.getSlotTotals(List.of(accountId)).getOrDefault(accountId, 0L);
+            return withSlots(balance, slotsTotal, requestTime);
+        }
+        return balance;
+    }
+
+    @Override
+    public Map<Long, Balance> getBalances(List<Long> accountIds) {
+        Require.notNull(accountIds, "accountIds");
+        final Map<Long, Balance> balances = new HashMap<>();
+        for (int from = 0; from < accountIds.size(); from += BALANCES_CHUNK_SIZE) {
+            final List<Long> chunk = accountIds.subList(from, Math.min(from + BALANCES_CHUNK_SIZE, accountIds.size()));
+            final Map<Long, Balance> chunkBalances = balanceRepository.getActiveBalances(chunk);
+            final Instant requestTime = Instant.now();
+            balanceSlotRepository.getSlotTotals(chunkBalances.keySet()).forEach((accountId, slotsTotal) ->
+                    chunkBalances.put(accountId, withSlots(chunkBalances.get(accountId), slotsTotal, requestTime)));
+            balances.putAll(chunkBalances);
+        }
+        final Map<Long, Balance> result = new LinkedHashMap<>();
+        for (Long accountId : accountIds) {
+            Optional.ofNullable(balances.get(accountId)).ifPresent(balance -> result.put(accountId, balance));
+        }
+        return result;
+    }
+
+    private void validateSlots(Integer slots) {
+        if (slots != null && (slots < 1 || slots > MAX_SLOTS)) {
+            throw new ValidationException("Number of account slots must be from 1 to " + MAX_SLOTS);
+        }
+    }
+
+    /**
+     * Balance of split account is main balance plus sum of its slots, actual at request time.
+     */
+    private Balance withSlots(Balance balance, long slotsTotal, Instant requestTime) {
+        return Balance.builder()
+                .account(balance.getAccount())
+                .balance(balance.getBalance() + slotsTotal)
+                .operation(balance.getOperation())
+                .actuality(requestTime)
+                .build();
     }
 }
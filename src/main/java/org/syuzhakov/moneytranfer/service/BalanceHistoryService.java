@@ -0,0 +1,13 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.syuzhakov.moneytranfer.model.Balance;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public interface BalanceHistoryService {
+    Balance getBalanceAt(Long accountId, Instant at);
+
+    Map<Long, Balance> getBalancesAt(List<Long> accountIds, Instant at);
+}
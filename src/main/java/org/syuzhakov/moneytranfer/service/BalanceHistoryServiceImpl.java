@@ -0,0 +1,58 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.database.AccountRepository;
+import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.error.BadRequestException;
+import org.syuzhakov.moneytranfer.error.Require;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.Balance;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Balances as of a moment in the past, read from account and balance history kept in database.
+ * Account status at that moment does not matter, blocked accounts had balances too.
+ */
+@RequiredArgsConstructor
+public class BalanceHistoryServiceImpl implements BalanceHistoryService {
+    private final AccountRepository accountRepository;
+    private final BalanceRepository balanceRepository;
+
+    @Override
+    public Balance getBalanceAt(Long accountId, Instant at) {
+        Require.notNull(at, "at");
+        final Account account = accountRepository.getAccountAt(accountId, at);
+        if (account == null) {
+            throw new BadRequestException(String.format("Account %s does not exist at %s", accountId, at));
+        }
+        return Optional.ofNullable(balanceRepository.getBalanceAt(accountId, at))
+                .orElseGet(() -> zeroBalance(accountId, at));
+    }
+
+    @Override
+    public Map<Long, Balance> getBalancesAt(List<Long> accountIds, Instant at) {
+        Require.notNull(accountIds, "accountIds");
+        Require.notNull(at, "at");
+        final Map<Long, Account> accounts = accountRepository.getAccountsAt(accountIds, at);
+        final Map<Long, Balance> balances = balanceRepository.getBalancesAt(accounts.keySet(), at);
+
+        //Accounts that did not exist at the moment are omitted
+        final Map<Long, Balance> result = new LinkedHashMap<>();
+        for (Long accountId : accountIds) {
+            if (accounts.containsKey(accountId)) {
+                result.put(accountId, Optional.ofNullable(balances.get(accountId))
+                        .orElseGet(() -> zeroBalance(accountId, at)));
+            }
+        }
+        return result;
+    }
+
+    private Balance zeroBalance(Long accountId, Instant at) {
+        return Balance.builder().account(accountId).balance(0L).actuality(at).build();
+    }
+}
@@ -0,0 +1,11 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.syuzhakov.moneytranfer.model.BatchMode;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.util.List;
+
+public interface BatchOperationService {
+    List<TransferResult> transferMoney(List<Operation> operations, BatchMode mode);
+}
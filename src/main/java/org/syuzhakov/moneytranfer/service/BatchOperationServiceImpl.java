@@ -0,0 +1,309 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.syuzhakov.moneytranfer.database.AccountRepository;
+import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.database.BalanceSlotRepository;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.database.OperationRepository;
+import org.syuzhakov.moneytranfer.error.ErrorResponse;
+import org.syuzhakov.moneytranfer.error.ExpectedException;
+import org.syuzhakov.moneytranfer.error.LockConflictException;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.BatchMode;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Applies batches of transfers in database with as few round-trips as possible.
+ * Accounts of a chunk are locked once, in ascending id order, then their balances, then slots of split accounts
+ * debits borrow from, the same order single transfers lock them in. Split account that is only credited
+ * is not locked, its credits go to random slots.
+ * All operations and balances of the chunk are inserted with JDBC batches.
+ * Chunk failed by lock timeout or deadlock is run again in a new transaction, the same way
+ * {@link RetryingOperationService} runs single transfers. Best-effort batch goes on with the next chunks
+ * when a chunk fails by lock conflicts in every attempt.
+ */
+@RequiredArgsConstructor
+public class BatchOperationServiceImpl implements BatchOperationService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchOperationServiceImpl.class);
+    private final ConnectionFactory connectionFactory;
+    private final AccountRepository accountRepository;
+    private final BalanceRepository balanceRepository;
+    private final BalanceSlotRepository balanceSlotRepository;
+    private final OperationRepository operationRepository;
+    private final int chunkSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    @Override
+    public List<TransferResult> transferMoney(List<Operation> operations, BatchMode mode) {
+        if (mode == BatchMode.ATOMIC) {
+            return applyWithRetry(operations, true);
+        }
+        final List<TransferResult> results = new ArrayList<>(operations.size());
+        for (int from = 0; from < operations.size(); from += chunkSize) {
+            final List<Operation> chunk = operations.subList(from, Math.min(from + chunkSize, operations.size()));
+            try {
+                results.addAll(applyWithRetry(chunk, false));
+            } catch (LockConflictException e) {
+                //Accounts of this chunk are busy, later chunks may touch other ones
+                LOGGER.warn("Batch chunk at operation #{} of {} is not applied", from, operations.size(), e);
+                final ErrorResponse cause = e.getErrorResponse();
+                final ErrorResponse error = new ErrorResponse(cause.getHttpStatus(), cause.getErrorCode(),
+                        String.format("Not applied, chunk at operation #%s: %s", from, cause.getMessage()));
+                for (int i = 0; i < chunk.size(); i++) {
+                    results.add(TransferResult.builder().error(error).build());
+                }
+            } catch (RuntimeException e) {
+                //Earlier chunks are committed, so their results are returned and the rest is reported as failed
+                LOGGER.error("Batch stopped at operation #{} of {}", from, operations.size(), e);
+                final ErrorResponse error = notApplied(from, e);
+                while (results.size() < operations.size()) {
+                    results.add(TransferResult.builder().error(error).build());
+                }
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Applies chunk in its own transaction, runs it again when it fails by a lock conflict.
+     * Chunk called inside an outer transaction joins it and is not retried.
+     *
+     * @throws LockConflictException if chunk failed by lock conflicts in every attempt
+     */
+    private List<TransferResult> applyWithRetry(List<Operation> chunk, boolean atomic) {
+        final boolean retryable = !connectionFactory.isInTransaction();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return connectionFactory.executeInTransaction(() -> applyChunk(chunk, atomic));
+            } catch (RuntimeException e) {
+                final String conflict = RetryingOperationService.getLockConflict(e);
+                if (conflict == null) {
+                    throw e;
+                }
+                if (!retryable || attempt >= maxAttempts) {
+                    throw new LockConflictException(String.format(
+                            "Accounts are busy, chunk failed by %s after %d attempts", conflict, attempt), e);
+                }
+                RetryingOperationService.pause(attempt, backoffMillis, e);
+            }
+        }
+    }
+
+    private List<TransferResult> applyChunk(List<Operation> chunk, boolean atomic) {
+        final TransferResult[] results = new TransferResult[chunk.size()];
+
+        //Validate input
+        final TreeSet<Long> accountIds = new TreeSet<>();
+        final Set<Long> sourceAccountIds = new HashSet<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            final Operation operation = chunk.get(i);
+            try {
+                OperationValidator.validate(operation);
+                Optional.ofNullable(operation.getSourceAccount()).ifPresent(accountIds::add);
+                Optional.ofNullable(operation.getSourceAccount()).ifPresent(sourceAccountIds::add);
+                Optional.ofNullable(operation.getTargetAccount()).ifPresent(accountIds::add);
+            } catch (ExpectedException e) {
+                results[i] = failure(i, e, atomic);
+            }
+        }
+
+        //Lock accounts in ascending id order and then their balances. Split account is locked only when debited
+        final Map<Long, Account> accounts = new HashMap<>();
+        for (Long accountId : accountIds) {
+            Optional.ofNullable(getAccount(accountId, sourceAccountIds.contains(accountId)))
+                    .ifPresent(account -> accounts.put(accountId, account));
+        }
+        final Map<Long, Long> balances = new HashMap<>();
+        for (Long accountId : accountIds) {
+            final Account account = accounts.get(accountId);
+            if (account != null && (sourceAccountIds.contains(accountId) || !OperationServiceImpl.isSplit(account))) {
+                balances.put(accountId, Optional.ofNullable(balanceRepository.getBalance(accountId, true))
+                        .map(Balance::getBalance).orElse(0L));
+            }
+        }
+
+        //Apply operations one by one in memory
+        final SlotChanges slots = new SlotChanges();
+        final List<Integer> appliedIndexes = new ArrayList<>();
+        final List<Operation> applied = new ArrayList<>();
+        final List<Long[]> appliedBalances = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            final Operation operation = chunk.get(i);
+            try {
+                final Long sourceAccountId = operation.getSourceAccount();
+                final Long targetAccountId = operation.getTargetAccount();
+                if (sourceAccountId != null) {
+                    OperationServiceImpl.checkActive(sourceAccountId, accounts.get(sourceAccountId));
+                }
+                if (targetAccountId != null) {
+                    OperationServiceImpl.checkActive(targetAccountId, accounts.get(targetAccountId));
+                }
+                Long sourceBalance = null;
+                if (sourceAccountId != null) {
+                    long sourceAmount = balances.get(sourceAccountId);
+                    if (sourceAmount < operation.getAmount()
+                            && OperationServiceImpl.isSplit(accounts.get(sourceAccountId))) {
+                        //Borrow from slots only when main balance is insufficient
+                        final long required = operation.getAmount() - sourceAmount;
+                        if (slots.borrow(sourceAccountId, required)) {
+                            sourceAmount += required;
+                        }
+                    }
+                    if (sourceAmount < operation.getAmount()) {
+                        throw new OperationImpossibleException("Insufficient balance for account: " + sourceAccountId);
+                    }
+                    sourceBalance = sourceAmount - operation.getAmount();
+                    balances.put(sourceAccountId, sourceBalance);
+                }
+                Long targetBalance = null;
+                if (targetAccountId != null) {
+                    final Account targetAccount = accounts.get(targetAccountId);
+                    if (OperationServiceImpl.isSplit(targetAccount)) {
+                        slots.credit(targetAccountId, ThreadLocalRandom.current().nextInt(targetAccount.getSlots()),
+                                operation.getAmount());
+                    } else {
+                        targetBalance = balances.get(targetAccountId) + operation.getAmount();
+                        balances.put(targetAccountId, targetBalance);
+                    }
+                }
+                appliedIndexes.add(i);
+                applied.add(operation);
+                appliedBalances.add(new Long[]{sourceBalance, targetBalance});
+            } catch (ExpectedException e) {
+                results[i] = failure(i, e, atomic);
+            }
+        }
+        if (applied.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        //Persist operations and balances with JDBC batches
+        final List<Operation> created = operationRepository.createOperations(applied);
+        final List<Balance> newBalances = new ArrayList<>();
+        for (int i = 0; i < created.size(); i++) {
+            final Operation operation = created.get(i);
+            final Long[] balance = appliedBalances.get(i);
+            if (balance[0] != null) {
+                newBalances.add(newBalance(operation.getSourceAccount(), balance[0], operation));
+            }
+            if (balance[1] != null) {
+                newBalances.add(newBalance(operation.getTargetAccount(), balance[1], operation));
+            }
+            results[appliedIndexes.get(i)] = TransferResult.builder().operation(operation).build();
+        }
+        balanceRepository.updateBalances(newBalances);
+        slots.persist();
+        return Arrays.asList(results);
+    }
+
+    private Account getAccount(Long accountId, boolean debited) {
+        if (debited) {
+            return accountRepository.getAccountById(accountId, true);
+        }
+        final Account account = accountRepository.getAccountById(accountId, false);
+        if (!OperationServiceImpl.isSplit(account)) {
+            return accountRepository.getAccountById(accountId, true);
+        }
+        return account;
+    }
+
+    private TransferResult failure(int index, ExpectedException e, boolean atomic) {
+        if (atomic) {
+            //Whole batch is rolled back, point client to the operation that failed it
+            e.getErrorResponse().setMessage(String.format("Operation #%s: %s", index, e.getErrorResponse().getMessage()));
+            throw e;
+        }
+        return TransferResult.builder().error(e.getErrorResponse()).build();
+    }
+
+    private static ErrorResponse notApplied(int index, RuntimeException e) {
+        final ErrorResponse cause = e instanceof ExpectedException
+                ? ((ExpectedException) e).getErrorResponse()
+                : new UnexpectedException(e).getErrorResponse();
+        return new ErrorResponse(cause.getHttpStatus(), cause.getErrorCode(),
+                String.format("Not applied, batch stopped at operation #%s: %s", index, cause.getMessage()));
+    }
+
+    private Balance newBalance(Long accountId, Long balance, Operation operation) {
+        return Balance.builder()
+                .account(accountId)
+                .balance(balance)
+                .operation(operation.getId())
+                .actuality(operation.getTimestamp())
+                .build();
+    }
+
+    /**
+     * Slot balances changed by a chunk. Slots of an account are locked and read once, when a debit first
+     * borrows from them, credits of accounts that are not debited are added to slot rows without reading them.
+     */
+    private class SlotChanges {
+        //Locked slots by account, with changes of the chunk applied
+        private final Map<Long, Map<Integer, Long>> locked = new HashMap<>();
+        private final Map<Long, Set<Integer>> changed = new HashMap<>();
+        //Credits of slots that are not locked, by account
+        private final Map<Long, Map<Integer, Long>> credits = new HashMap<>();
+
+        boolean borrow(Long accountId, long required) {
+            final Map<Integer, Long> slots = locked.computeIfAbsent(accountId, this::lock);
+            final Map<Integer, Long> borrowed = OperationServiceImpl.borrowFromSlots(slots, required);
+            slots.putAll(borrowed);
+            changed.computeIfAbsent(accountId, id -> new HashSet<>()).addAll(borrowed.keySet());
+            return !borrowed.isEmpty();
+        }
+
+        void credit(Long accountId, int slot, long amount) {
+            final Map<Integer, Long> slots = locked.get(accountId);
+            if (slots == null) {
+                credits.computeIfAbsent(accountId, id -> new TreeMap<>()).merge(slot, amount, Long::sum);
+            } else {
+                slots.merge(slot, amount, Long::sum);
+                changed.computeIfAbsent(accountId, id -> new HashSet<>()).add(slot);
+            }
+        }
+
+        void persist() {
+            changed.forEach((accountId, slotNumbers) -> {
+                final Map<Integer, Long> balances = new TreeMap<>();
+                slotNumbers.forEach(slot -> balances.put(slot, locked.get(accountId).get(slot)));
+                balanceSlotRepository.updateSlotBalances(accountId, balances);
+            });
+            credits.forEach((accountId, slots) -> slots.forEach(
+                    (slot, amount) -> balanceSlotRepository.addToSlot(accountId, slot, amount)));
+        }
+
+        private Map<Integer, Long> lock(Long accountId) {
+            final Map<Integer, Long> slots = balanceSlotRepository.getSlotBalances(accountId, true);
+            //Earlier credits of the chunk are not written yet
+            Optional.ofNullable(credits.remove(accountId)).ifPresent(pending -> pending.forEach((slot, amount) -> {
+                slots.merge(slot, amount, Long::sum);
+                changed.computeIfAbsent(accountId, id -> new HashSet<>()).add(slot);
+            }));
+            return slots;
+        }
+    }
+}
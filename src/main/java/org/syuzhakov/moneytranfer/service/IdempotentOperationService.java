@@ -0,0 +1,98 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.database.OperationRepository;
+import org.syuzhakov.moneytranfer.error.DuplicateOperationException;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Makes transfers with idempotency key safe to retry: repeated request returns operation created by the first one.
+ * Recently created operations are looked up in memory, older ones in database by unique key.
+ * Engine that writes database asynchronously provides lookup of operations not saved yet, it is checked
+ * before database. Concurrent request with a key that is still in progress is rejected, so is a request whose
+ * accounts or amount differ from the operation created with its key.
+ */
+public class IdempotentOperationService implements OperationService {
+    public static final int MAX_KEY_LENGTH = 64;
+    private final OperationService operationService;
+    private final OperationRepository operationRepository;
+    private final ConnectionFactory connectionFactory;
+    private final BoundedCache<String, Operation> recentOperations;
+    private final Function<String, Operation> unsavedOperations;
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    public IdempotentOperationService(OperationService operationService, OperationRepository operationRepository,
+                                      ConnectionFactory connectionFactory,
+                                      BoundedCache<String, Operation> recentOperations) {
+        this(operationService, operationRepository, connectionFactory, recentOperations, key -> null);
+    }
+
+    public IdempotentOperationService(OperationService operationService, OperationRepository operationRepository,
+                                      ConnectionFactory connectionFactory,
+                                      BoundedCache<String, Operation> recentOperations,
+                                      Function<String, Operation> unsavedOperations) {
+        this.operationService = operationService;
+        this.operationRepository = operationRepository;
+        this.connectionFactory = connectionFactory;
+        this.recentOperations = recentOperations;
+        this.unsavedOperations = unsavedOperations;
+    }
+
+    @Override
+    public Operation transferMoney(Operation operation) {
+        final String key = operation == null ? null : operation.getIdempotencyKey();
+        if (key == null) {
+            return operationService.transferMoney(operation);
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new ValidationException("Idempotency key length must be from 1 to " + MAX_KEY_LENGTH);
+        }
+
+        //Repeated request within the window does not touch database
+        final Operation recent = recentOperations.get(key);
+        if (recent != null) {
+            return checkSameTransfer(operation, recent);
+        }
+
+        if (!inProgress.add(key)) {
+            throw new DuplicateOperationException("Operation with idempotency key is already in progress: " + key);
+        }
+        try {
+            //Request repeated after the window, unsaved operation is checked first as it is removed after commit
+            Operation existing = unsavedOperations.apply(key);
+            if (existing == null) {
+                //Joins transaction of the transfer, engines that do not run in one get their own
+                existing = connectionFactory.executeInTransaction(
+                        () -> operationRepository.getOperationByIdempotencyKey(key));
+            }
+            if (existing != null) {
+                recentOperations.merge(key, existing, (cached, fresh) -> cached);
+                return checkSameTransfer(operation, existing);
+            }
+
+            final Operation result = operationService.transferMoney(operation);
+            connectionFactory.afterCommit(() -> recentOperations.merge(key, result, (cached, fresh) -> cached));
+            return result;
+        } finally {
+            //Key is released only when transaction is over, so the next request sees committed operation
+            connectionFactory.afterCompletion(() -> inProgress.remove(key));
+        }
+    }
+
+    private static Operation checkSameTransfer(Operation request, Operation existing) {
+        if (!Objects.equals(request.getSourceAccount(), existing.getSourceAccount())
+                || !Objects.equals(request.getTargetAccount(), existing.getTargetAccount())
+                || !Objects.equals(request.getAmount(), existing.getAmount())) {
+            throw new ValidationException(String.format("Idempotency key %s is used by operation %s"
+                    + " with other accounts or amount", existing.getIdempotencyKey(), existing.getId()));
+        }
+        return existing;
+    }
+}
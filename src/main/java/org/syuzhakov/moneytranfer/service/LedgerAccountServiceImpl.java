@@ -0,0 +1,83 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.database.AccountRepository;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.error.BadRequestException;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.error.Require;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.ledger.Ledger;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accounts are saved to database, their statuses are put to ledger only after the account row is committed,
+ * so transfers never see an account or status the database rolled back.
+ */
+@RequiredArgsConstructor
+public class LedgerAccountServiceImpl implements AccountService {
+    private final AccountRepository accountRepository;
+    private final Ledger ledger;
+    private final ConnectionFactory connectionFactory;
+
+    @Override
+    public Account createNewAccount(Account account) {
+        Require.notNull(account.getStatus(), "status");
+        rejectSplit(account);
+        final Account result = accountRepository.createNewAccount(account);
+        connectionFactory.afterCommit(() -> ledger.putAccount(result.getId(), result.getStatus()));
+        return result;
+    }
+
+    @Override
+    public Account getAccountById(long id) {
+        return accountRepository.getAccountById(id, false);
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        Require.notNull(account.getId(), "id");
+        Require.notNull(account.getStatus(), "status");
+        rejectSplit(account);
+        accountRepository.updateAccount(account);
+        final long accountId = account.getId();
+        final AccountStatus status = account.getStatus();
+        connectionFactory.afterCommit(() -> ledger.putAccount(accountId, status));
+    }
+
+    @Override
+    public Balance getBalance(Long accountId) {
+        final AccountStatus status = ledger.readStatus(accountId);
+        if (status == null) {
+            throw new BadRequestException(String.format("Account %s does not exist", accountId));
+        } else if (status != AccountStatus.ACTIVE) {
+            throw new OperationImpossibleException(String.format("Account %s is not active", accountId));
+        }
+        return ledger.readBalance(accountId);
+    }
+
+    @Override
+    public Map<Long, Balance> getBalances(List<Long> accountIds) {
+        Require.notNull(accountIds, "accountIds");
+        final Map<Long, Balance> result = new LinkedHashMap<>();
+        for (Long accountId : accountIds) {
+            if (accountId != null && ledger.readStatus(accountId) == AccountStatus.ACTIVE) {
+                result.put(accountId, ledger.readBalance(accountId));
+            }
+        }
+        return result;
+    }
+
+    //Ledger keeps one balance per account in memory, so it has no slot contention to spread
+    private void rejectSplit(Account account) {
+        if (account.getSlots() != null && account.getSlots() > 1) {
+            throw new ValidationException("Split accounts are not supported by ledger engine");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.error.BadRequestException;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.error.OperationOutcomeUnknownException;
+import org.syuzhakov.moneytranfer.ledger.Ledger;
+import org.syuzhakov.moneytranfer.ledger.LedgerWriter;
+import org.syuzhakov.moneytranfer.ledger.TransferJournal;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Applies transfers to {@link Ledger} and passes them to {@link LedgerWriter}.
+ * With journal, record is appended under the account locks and group commit is awaited after they are released,
+ * so transfers of the same accounts share the fsync too. Transfer is answered and saved to database only once
+ * its record is durable. Later transfers may see its balances earlier, their records follow it in the journal
+ * and cannot become durable ahead of it.
+ */
+@RequiredArgsConstructor
+public class LedgerOperationServiceImpl implements OperationService {
+    private final Ledger ledger;
+    private final LedgerWriter ledgerWriter;
+    private final TransferJournal journal;
+
+    public LedgerOperationServiceImpl(Ledger ledger, LedgerWriter ledgerWriter) {
+        this(ledger, ledgerWriter, null);
+    }
+
+    @Override
+    public Operation transferMoney(Operation operation) {
+        //Validate input
+        OperationValidator.validate(operation);
+        final Long sourceAccountId = operation.getSourceAccount();
+        final Long targetAccountId = operation.getTargetAccount();
+        final long amount = operation.getAmount();
+
+        final Operation result;
+        CompletableFuture<Void> durable = null;
+        try (Ledger.Lock ignored = ledger.lock(sourceAccountId, targetAccountId)) {
+            //Check accounts status
+            Stream.of(sourceAccountId, targetAccountId).filter(Objects::nonNull).forEach(accountId -> {
+                final AccountStatus status = ledger.getStatus(accountId);
+                if (status == null) {
+                    throw new BadRequestException(String.format("Account %s does not exist", accountId));
+                } else if (status != AccountStatus.ACTIVE) {
+                    throw new OperationImpossibleException(String.format("Account %s is not active", accountId));
+                }
+            });
+
+            //Check balance of source account
+            Long sourceBalance = null;
+            if (sourceAccountId != null) {
+                sourceBalance = ledger.getBalance(sourceAccountId);
+                if (sourceBalance < amount) {
+                    throw new OperationImpossibleException("Insufficient balance for account: " + sourceAccountId);
+                }
+                sourceBalance -= amount;
+            }
+            Long targetBalance = null;
+            if (targetAccountId != null) {
+                targetBalance = ledger.getBalance(targetAccountId) + amount;
+            }
+
+            //Create operation
+            result = Operation.builder()
+                    .id(ledger.nextOperationId())
+                    .sourceAccount(sourceAccountId)
+                    .targetAccount(targetAccountId)
+                    .amount(amount)
+                    .timestamp(Instant.now())
+                    .idempotencyKey(operation.getIdempotencyKey())
+                    .build();
+
+            //Pass to database while locks are held, so per-account order is kept.
+            //Enqueued before ledger is changed, if it fails ledger stays untouched
+            ledgerWriter.checkRunning();
+            if (journal == null) {
+                ledgerWriter.write(result, sourceBalance, targetBalance);
+            } else {
+                //Appended transfer may become durable, it must not be lost because of interrupt.
+                //Writer saves it to database once it is durable
+                durable = journal.append(result, sourceBalance, targetBalance);
+                ledgerWriter.writeUninterruptibly(result, sourceBalance, targetBalance, durable);
+            }
+
+            //Change balances
+            if (sourceAccountId != null) {
+                ledger.putBalance(sourceAccountId, sourceBalance, result.getId());
+            }
+            if (targetAccountId != null) {
+                ledger.putBalance(targetAccountId, targetBalance, result.getId());
+            }
+        }
+        if (durable != null) {
+            try {
+                durable.join();
+            } catch (CompletionException e) {
+                //Record may still reach the disk and be replayed on restart
+                throw outcomeUnknown(result, e.getCause());
+            }
+        }
+        return result;
+    }
+
+    private static OperationOutcomeUnknownException outcomeUnknown(Operation operation, Throwable cause) {
+        return new OperationOutcomeUnknownException(String.format("Outcome of operation %s is unknown, it may be"
+                + " applied on restart. Repeat the request with the same idempotency key to learn it",
+                operation.getId()), cause);
+    }
+}
@@ -0,0 +1,30 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.syuzhakov.moneytranfer.metrics.Counter;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+/**
+ * Counts transfers by outcome: "success" or simple name of exception the transfer failed with.
+ */
+public class MeteredOperationService implements OperationService {
+    private final OperationService operationService;
+    private final Counter transfers;
+
+    public MeteredOperationService(OperationService operationService, MetricRegistry metricRegistry) {
+        this.operationService = operationService;
+        this.transfers = metricRegistry.counter("transfers_total", "Transfers by outcome", "outcome");
+    }
+
+    @Override
+    public Operation transferMoney(Operation operation) {
+        try {
+            final Operation result = operationService.transferMoney(operation);
+            transfers.increment("success");
+            return result;
+        } catch (RuntimeException e) {
+            transfers.increment(e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+}
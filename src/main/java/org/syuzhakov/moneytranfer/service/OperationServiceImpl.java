@@ -1,83 +1,287 @@
 package org.syuzhakov.moneytranfer.service;
 
-import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.config.ConcurrencyControl;
 import org.syuzhakov.moneytranfer.database.AccountRepository;
 import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.database.BalanceSlotRepository;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
 import org.syuzhakov.moneytranfer.database.OperationRepository;
 import org.syuzhakov.moneytranfer.error.BadRequestException;
+import org.syuzhakov.moneytranfer.error.LockConflictException;
 import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
-import org.syuzhakov.moneytranfer.error.Require;
-import org.syuzhakov.moneytranfer.error.ValidationException;
 import org.syuzhakov.moneytranfer.model.Account;
 import org.syuzhakov.moneytranfer.model.AccountStatus;
 import org.syuzhakov.moneytranfer.model.Balance;
 import org.syuzhakov.moneytranfer.model.Operation;
 
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
-@RequiredArgsConstructor
+/**
+ * Applies every transfer under row locks of its accounts and balances. Accounts are locked in ascending id order,
+ * balances only after both accounts.
+ * In optimistic mode accounts and balances are read without locks, balance is changed only if it was not changed
+ * since it was read, otherwise transfer is repeated within the same transaction. Account without balance has
+ * nothing to compare with, so it is locked instead.
+ * Credits of split accounts go to a random balance slot without locking the account, debits borrow
+ * from slots when main balance is insufficient.
+ */
 public class OperationServiceImpl implements OperationService {
     private final AccountRepository accountRepository;
     private final BalanceRepository balanceRepository;
+    private final BalanceSlotRepository balanceSlotRepository;
     private final OperationRepository operationRepository;
+    private final ConcurrencyControl concurrency;
+    //Rows are not locked when caller already guarantees that transfers of an account do not run concurrently.
+    //Always set in optimistic mode, which still locks slots and accounts without balance
+    private final boolean lockRows;
+    //Null in pessimistic mode
+    private final ConnectionFactory connectionFactory;
+    private final int optimisticMaxAttempts;
+
+    public OperationServiceImpl(AccountRepository accountRepository, BalanceRepository balanceRepository,
+                                BalanceSlotRepository balanceSlotRepository, OperationRepository operationRepository) {
+        this(accountRepository, balanceRepository, balanceSlotRepository, operationRepository, true);
+    }
+
+    /**
+     * Creates service in pessimistic mode.
+     *
+     * @param lockRows false if caller guarantees that transfers of an account do not run concurrently
+     */
+    public OperationServiceImpl(AccountRepository accountRepository, BalanceRepository balanceRepository,
+                                BalanceSlotRepository balanceSlotRepository, OperationRepository operationRepository,
+                                boolean lockRows) {
+        this(accountRepository, balanceRepository, balanceSlotRepository, operationRepository,
+                ConcurrencyControl.PESSIMISTIC, lockRows, null, 0);
+    }
+
+    /**
+     * Creates service in given mode, rows are locked as the mode requires.
+     *
+     * @param connectionFactory     source of savepoints changes of a conflicting attempt are rolled back to,
+     *                              required in optimistic mode
+     * @param optimisticMaxAttempts attempts of a transfer before it fails with {@link LockConflictException}
+     */
+    public OperationServiceImpl(AccountRepository accountRepository, BalanceRepository balanceRepository,
+                                BalanceSlotRepository balanceSlotRepository, OperationRepository operationRepository,
+                                ConcurrencyControl concurrency, ConnectionFactory connectionFactory,
+                                int optimisticMaxAttempts) {
+        this(accountRepository, balanceRepository, balanceSlotRepository, operationRepository, concurrency, true,
+                concurrency == ConcurrencyControl.OPTIMISTIC ? connectionFactory : null, optimisticMaxAttempts);
+    }
+
+    private OperationServiceImpl(AccountRepository accountRepository, BalanceRepository balanceRepository,
+                                 BalanceSlotRepository balanceSlotRepository, OperationRepository operationRepository,
+                                 ConcurrencyControl concurrency, boolean lockRows, ConnectionFactory connectionFactory,
+                                 int optimisticMaxAttempts) {
+        if (concurrency == ConcurrencyControl.OPTIMISTIC && connectionFactory == null) {
+            throw new IllegalArgumentException("Optimistic concurrency requires connection factory");
+        }
+        this.accountRepository = accountRepository;
+        this.balanceRepository = balanceRepository;
+        this.balanceSlotRepository = balanceSlotRepository;
+        this.operationRepository = operationRepository;
+        this.concurrency = concurrency;
+        this.lockRows = lockRows;
+        this.connectionFactory = connectionFactory;
+        this.optimisticMaxAttempts = Math.max(optimisticMaxAttempts, 1);
+    }
 
     @Override
     public Operation transferMoney(Operation operation) {
         //Validate input
-        Require.notNull(operation.getAmount(), "amount");
-        if (operation.getAmount() <= 0) {
-            throw new ValidationException("Operation amount must be positive");
+        OperationValidator.validate(operation);
+        if (concurrency == ConcurrencyControl.PESSIMISTIC) {
+            return applyTransfer(operation);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return connectionFactory.executeInSavepoint(() -> applyTransfer(operation));
+            } catch (BalanceChangedException e) {
+                if (attempt >= optimisticMaxAttempts) {
+                    throw new LockConflictException(String.format("Balance of account %s is changed by concurrent"
+                            + " transfers, transfer failed after %d attempts", e.accountId, attempt));
+                }
+            }
         }
+    }
+
+    private Operation applyTransfer(Operation operation) {
         final Long sourceAccountId = operation.getSourceAccount();
         final Long targetAccountId = operation.getTargetAccount();
-        if (sourceAccountId == null && targetAccountId == null) {
-            throw new ValidationException("At least one of 'sourceAccount' or 'targetAccount' should present");
-        }
-        if (Objects.equals(sourceAccountId, targetAccountId)) {
-            throw new ValidationException("Operation with same source and target account is impossible");
+        //Optimistic transfer checks balance versions instead of locking accounts
+        final boolean lockAccounts = concurrency == ConcurrencyControl.PESSIMISTIC && lockRows;
+
+        //Lock accounts in ascending id order, so opposite transfers between two accounts cannot deadlock.
+        //Split target account is not locked
+        Account sourceAccount = null;
+        Account targetAccount = null;
+        if (sourceAccountId != null && targetAccountId != null && targetAccountId < sourceAccountId) {
+            targetAccount = getTargetAccount(targetAccountId, lockAccounts);
+            sourceAccount = accountRepository.getAccountById(sourceAccountId, lockAccounts);
+        } else {
+            if (sourceAccountId != null) {
+                sourceAccount = accountRepository.getAccountById(sourceAccountId, lockAccounts);
+            }
+            if (targetAccountId != null) {
+                targetAccount = getTargetAccount(targetAccountId, lockAccounts);
+            }
         }
 
         //Check accounts status
-        Stream.of(sourceAccountId, targetAccountId).filter(Objects::nonNull).forEach(accountId -> {
-            final Account account = accountRepository.getAccountById(accountId, true);
-            if (account == null) {
-                throw new BadRequestException(String.format("Account %s does not exist", account));
-            } else if (account.getStatus() != AccountStatus.ACTIVE) {
-                throw new OperationImpossibleException(String.format("Account %s is not active", account));
-            }
-        });
+        if (sourceAccountId != null) {
+            checkActive(sourceAccountId, sourceAccount);
+        }
+        if (targetAccountId != null) {
+            checkActive(targetAccountId, targetAccount);
+        }
 
         //Check balance of source account and apply lock
-        long sourceBalance = 0;
+        Balance sourceBalance = null;
+        long sourceAmount = 0;
+        Map<Integer, Long> sourceSlots = null;
         if (sourceAccountId != null) {
-            sourceBalance = Optional.ofNullable(balanceRepository.getBalance(sourceAccountId, true)).map(Balance::getBalance).orElse(0L);
-            if (sourceBalance < operation.getAmount()) {
+            sourceBalance = readBalance(sourceAccountId);
+            sourceAmount = Optional.ofNullable(sourceBalance).map(Balance::getBalance).orElse(0L);
+            if (sourceAmount < operation.getAmount() && isSplit(sourceAccount)) {
+                //Borrow from slots only when main balance is insufficient
+                final long required = operation.getAmount() - sourceAmount;
+                sourceSlots = borrowFromSlots(sourceAccountId, required);
+                if (!sourceSlots.isEmpty()) {
+                    sourceAmount += required;
+                }
+            }
+            if (sourceAmount < operation.getAmount()) {
                 throw new OperationImpossibleException("Insufficient balance for account: " + sourceAccountId);
             }
         }
 
-        //Apply lock for target account
-        long targetBalance = 0;
-        if (targetAccountId != null) {
-            targetBalance = Optional.ofNullable(balanceRepository.getBalance(targetAccountId, true)).map(Balance::getBalance).orElse(0L);
+        //Apply lock for target account, unless credit goes to a slot
+        final boolean creditToSlot = isSplit(targetAccount);
+        Balance targetBalance = null;
+        long targetAmount = 0;
+        if (targetAccountId != null && !creditToSlot) {
+            targetBalance = readBalance(targetAccountId);
+            targetAmount = Optional.ofNullable(targetBalance).map(Balance::getBalance).orElse(0L);
         }
 
         //Create operation
-        operation = operationRepository.createOperation(operation);
+        final Operation created = operationRepository.createOperation(operation);
+
+        //Balances are changed in ascending account id order, so optimistic transfers wait for each other's rows
+        //in the same order
+        final boolean targetFirst = targetBalance != null && sourceAccountId != null
+                && targetAccountId < sourceAccountId;
+        if (targetFirst) {
+            changeBalance(targetAccountId, targetBalance, targetAmount + created.getAmount(), created);
+        }
 
         //Change source account balance
         if (sourceAccountId != null) {
-            balanceRepository.updateBalance(sourceAccountId, sourceBalance - operation.getAmount(), operation);
+            if (sourceSlots != null) {
+                balanceSlotRepository.updateSlotBalances(sourceAccountId, sourceSlots);
+            }
+            changeBalance(sourceAccountId, sourceBalance, sourceAmount - created.getAmount(), created);
         }
 
         //Change target account balance
-        if (targetAccountId != null) {
-            balanceRepository.updateBalance(targetAccountId, targetBalance + operation.getAmount(), operation);
+        if (creditToSlot) {
+            balanceSlotRepository.addToSlot(targetAccountId,
+                    ThreadLocalRandom.current().nextInt(targetAccount.getSlots()), created.getAmount());
+        } else if (targetAccountId != null && !targetFirst) {
+            changeBalance(targetAccountId, targetBalance, targetAmount + created.getAmount(), created);
+        }
+
+        return created;
+    }
+
+    private Balance readBalance(Long accountId) {
+        if (concurrency == ConcurrencyControl.PESSIMISTIC) {
+            return balanceRepository.getBalance(accountId, lockRows);
+        }
+        final Balance balance = balanceRepository.getBalanceVersion(accountId);
+        if (balance != null) {
+            return balance;
+        }
+        //First balance of account is inserted by one transfer at a time
+        accountRepository.getAccountById(accountId, true);
+        return balanceRepository.getBalanceVersion(accountId);
+    }
+
+    private void changeBalance(Long accountId, Balance current, long balance, Operation operation) {
+        if (concurrency == ConcurrencyControl.PESSIMISTIC || current == null) {
+            balanceRepository.updateBalance(accountId, balance, operation);
+        } else if (!balanceRepository.updateBalance(accountId, balance, operation, current.getOperation())) {
+            throw new BalanceChangedException(accountId);
         }
+    }
 
-        return operation;
+    private Account getTargetAccount(Long accountId, boolean lock) {
+        final Account account = accountRepository.getAccountById(accountId, false);
+        if (lock && !isSplit(account)) {
+            return accountRepository.getAccountById(accountId, true);
+        }
+        return account;
+    }
+
+    static void checkActive(Long accountId, Account account) {
+        if (account == null) {
+            throw new BadRequestException(String.format("Account %s does not exist", accountId));
+        } else if (account.getStatus() != AccountStatus.ACTIVE) {
+            throw new OperationImpossibleException(String.format("Account %s is not active", accountId));
+        }
     }
 
+    /**
+     * Locks slots of account and takes required amount from them in slot order.
+     *
+     * @return new balances of slots amount was taken from, empty if slots do not hold required amount
+     */
+    private Map<Integer, Long> borrowFromSlots(Long accountId, long required) {
+        return borrowFromSlots(balanceSlotRepository.getSlotBalances(accountId, lockRows), required);
+    }
+
+    /**
+     * Takes required amount from slot balances in slot order, given balances are not changed.
+     *
+     * @return new balances of slots amount was taken from, empty if slots do not hold required amount
+     */
+    static Map<Integer, Long> borrowFromSlots(Map<Integer, Long> slots, long required) {
+        final Map<Integer, Long> changedSlots = new TreeMap<>();
+        long remaining = required;
+        for (Map.Entry<Integer, Long> slot : slots.entrySet()) {
+            if (remaining == 0) {
+                break;
+            }
+            final long amount = Math.min(slot.getValue(), remaining);
+            if (amount > 0) {
+                changedSlots.put(slot.getKey(), slot.getValue() - amount);
+                remaining -= amount;
+            }
+        }
+        if (remaining > 0) {
+            changedSlots.clear();
+        }
+        return changedSlots;
+    }
+
+    static boolean isSplit(Account account) {
+        return account != null && account.getSlots() != null && account.getSlots() > 1;
+    }
+
+    /**
+     * Balance was changed by a concurrent transfer after it was read. Thrown to roll back to savepoint only,
+     * so it has no stack trace.
+     */
+    private static class BalanceChangedException extends RuntimeException {
+        private final Long accountId;
+
+        private BalanceChangedException(Long accountId) {
+            super(null, null, false, false);
+            this.accountId = accountId;
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.syuzhakov.moneytranfer.error.Require;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.Objects;
+
+class OperationValidator {
+    static void validate(Operation operation) {
+        Require.notNull(operation, "operation");
+        Require.notNull(operation.getAmount(), "amount");
+        if (operation.getAmount() <= 0) {
+            throw new ValidationException("Operation amount must be positive");
+        }
+        final Long sourceAccountId = operation.getSourceAccount();
+        final Long targetAccountId = operation.getTargetAccount();
+        if (sourceAccountId == null && targetAccountId == null) {
+            throw new ValidationException("At least one of 'sourceAccount' or 'targetAccount' should present");
+        }
+        if (Objects.equals(sourceAccountId, targetAccountId)) {
+            throw new ValidationException("Operation with same source and target account is impossible");
+        }
+    }
+}
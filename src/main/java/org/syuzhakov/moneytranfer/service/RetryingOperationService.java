@@ -0,0 +1,108 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.h2.api.ErrorCode;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.error.LockConflictException;
+import org.syuzhakov.moneytranfer.metrics.Counter;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs every transfer in its own transaction and runs it again in a new one when it could not lock a row
+ * within lock timeout, was chosen as a deadlock victim or, in optimistic mode, ran out of attempts to change
+ * a balance changed by concurrent transfers. Attempts are separated by a random pause of up to
+ * backoff * 2^(attempt - 1), so colliding transfers do not meet again at once.
+ * Transfer called inside an outer transaction joins it and is not retried.
+ */
+public class RetryingOperationService implements OperationService {
+    private final OperationService operationService;
+    private final ConnectionFactory connectionFactory;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Counter lockConflicts;
+    private final Counter retries;
+    private final Counter retriesExhausted;
+
+    public RetryingOperationService(OperationService operationService, ConnectionFactory connectionFactory,
+                                    int maxAttempts, long backoffMillis, MetricRegistry metricRegistry) {
+        this.operationService = operationService;
+        this.connectionFactory = connectionFactory;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.backoffMillis = backoffMillis;
+        this.lockConflicts = metricRegistry.counter("transfer_lock_conflicts_total",
+                "Transfer attempts failed by row locks", "error");
+        this.retries = metricRegistry.counter("transfer_retries_total",
+                "Transfers run again after a lock conflict");
+        this.retriesExhausted = metricRegistry.counter("transfer_retries_exhausted_total",
+                "Transfers failed by lock conflicts in every attempt");
+    }
+
+    @Override
+    public Operation transferMoney(Operation operation) {
+        //Outer transaction is not rolled back here, so it cannot be repeated
+        final boolean retryable = !connectionFactory.isInTransaction();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return connectionFactory.executeInTransaction(() -> operationService.transferMoney(operation));
+            } catch (RuntimeException e) {
+                final String conflict = getLockConflict(e);
+                if (conflict == null) {
+                    throw e;
+                }
+                lockConflicts.increment(conflict);
+                if (!retryable || attempt >= maxAttempts) {
+                    if (retryable) {
+                        retriesExhausted.increment();
+                    }
+                    throw new LockConflictException(String.format(
+                            "Accounts are busy, transfer failed by %s after %d attempts", conflict, attempt), e);
+                }
+                retries.increment();
+                pause(attempt, backoffMillis, e);
+            }
+        }
+    }
+
+    /**
+     * Sleeps for a random time of up to backoff * 2^(attempt - 1) before the next attempt.
+     */
+    static void pause(int attempt, long backoffMillis, RuntimeException conflict) {
+        final long bound = backoffMillis << Math.min(attempt - 1, 16);
+        if (bound <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound) + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LockConflictException("Interrupted while waiting to retry transfer", conflict);
+        }
+    }
+
+    /**
+     * @return lock error name if exception was caused by one, null otherwise
+     */
+    static String getLockConflict(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LockConflictException) {
+                return "balance_changed";
+            }
+            if (cause instanceof SQLException) {
+                switch (((SQLException) cause).getErrorCode()) {
+                    case ErrorCode.LOCK_TIMEOUT_1:
+                        return "lock_timeout";
+                    case ErrorCode.DEADLOCK_1:
+                        return "deadlock";
+                    case ErrorCode.CONCURRENT_UPDATE_1:
+                        return "concurrent_update";
+                    default:
+                        return null;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.error.ExpectedException;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.model.BatchMode;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch support for engines that apply transfers without database transactions:
+ * operations are passed to {@link OperationService} one by one.
+ */
+@RequiredArgsConstructor
+public class SequentialBatchOperationServiceImpl implements BatchOperationService {
+    private final OperationService operationService;
+
+    @Override
+    public List<TransferResult> transferMoney(List<Operation> operations, BatchMode mode) {
+        if (mode == BatchMode.ATOMIC) {
+            throw new ValidationException("Atomic batches are supported by database engine only");
+        }
+        final List<TransferResult> results = new ArrayList<>(operations.size());
+        for (Operation operation : operations) {
+            try {
+                results.add(TransferResult.builder().operation(operationService.transferMoney(operation)).build());
+            } catch (ExpectedException e) {
+                results.add(TransferResult.builder().error(e.getErrorResponse()).build());
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,51 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.error.Require;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.shard.ShardExecutor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies account updates in their own transaction on the shard of the account, so a status change is ordered
+ * with transfers of the account, which read the status without row lock. Other methods are delegated.
+ */
+@RequiredArgsConstructor
+public class ShardedAccountServiceImpl implements AccountService {
+    private final ShardExecutor shardExecutor;
+    private final ConnectionFactory connectionFactory;
+    private final AccountService accountService;
+
+    @Override
+    public Account createNewAccount(Account account) {
+        return accountService.createNewAccount(account);
+    }
+
+    @Override
+    public Account getAccountById(long id) {
+        return accountService.getAccountById(id);
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        Require.notNull(account.getId(), "id");
+        shardExecutor.execute(account.getId(), null, () -> connectionFactory.executeInTransaction(() -> {
+            accountService.updateAccount(account);
+            return null;
+        }));
+    }
+
+    @Override
+    public Balance getBalance(Long accountId) {
+        return accountService.getBalance(accountId);
+    }
+
+    @Override
+    public Map<Long, Balance> getBalances(List<Long> accountIds) {
+        return accountService.getBalances(accountIds);
+    }
+}
@@ -0,0 +1,25 @@
+package org.syuzhakov.moneytranfer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.syuzhakov.moneytranfer.database.ConnectionFactory;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.shard.ShardExecutor;
+
+/**
+ * Applies every transfer in its own transaction on the shards of its accounts. Shards serialize transfers
+ * of an account, so wrapped service is expected to work without row locks.
+ */
+@RequiredArgsConstructor
+public class ShardedOperationServiceImpl implements OperationService {
+    private final ShardExecutor shardExecutor;
+    private final ConnectionFactory connectionFactory;
+    private final OperationService operationService;
+
+    @Override
+    public Operation transferMoney(Operation operation) {
+        //Invalid operation is rejected without taking shard time
+        OperationValidator.validate(operation);
+        return shardExecutor.execute(operation.getSourceAccount(), operation.getTargetAccount(),
+                () -> connectionFactory.executeInTransaction(() -> operationService.transferMoney(operation)));
+    }
+}
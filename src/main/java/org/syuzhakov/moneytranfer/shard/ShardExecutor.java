@@ -0,0 +1,110 @@
+package org.syuzhakov.moneytranfer.shard;
+
+import org.syuzhakov.moneytranfer.error.ServiceUnavailableException;
+import org.syuzhakov.moneytranfer.metrics.Gauge;
+import org.syuzhakov.moneytranfer.metrics.Histogram;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Routes tasks to single-threaded shards by account id, so tasks of one account never run concurrently.
+ * Task touching two shards is handed off in ascending shard order: lower shard is parked until higher shard
+ * completes the task. Waits only go from lower to higher shard, so shards cannot deadlock each other.
+ */
+public class ShardExecutor {
+    private final ThreadPoolExecutor[] shards;
+    private final String[] shardNames;
+    private final Histogram queueWait;
+    private final Histogram execution;
+
+    public ShardExecutor(int shardCount, int queueSize, MetricRegistry metricRegistry) {
+        this.shards = new ThreadPoolExecutor[shardCount];
+        this.shardNames = new String[shardCount];
+        this.queueWait = metricRegistry.histogram("shard_queue_wait_seconds",
+                "Time tasks wait in shard queue", "shard");
+        this.execution = metricRegistry.histogram("shard_task_duration_seconds",
+                "Time shard thread spends on task", "shard");
+        final Gauge queueSizeGauge = metricRegistry.gauge("shard_queue_size", "Tasks waiting in shard queue", "shard");
+        for (int i = 0; i < shardCount; i++) {
+            final String name = String.valueOf(i);
+            final ThreadPoolExecutor shard = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize), runnable -> {
+                final Thread thread = new Thread(runnable, "shard-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+            shards[i] = shard;
+            shardNames[i] = name;
+            queueSizeGauge.set(() -> shard.getQueue().size(), name);
+        }
+    }
+
+    public int getShard(long accountId) {
+        return (int) Math.floorMod(accountId, (long) shards.length);
+    }
+
+    /**
+     * Runs task on shards of given accounts and waits for result. Null account ids are ignored.
+     */
+    public <T> T execute(Long accountId1, Long accountId2, Supplier<T> task) {
+        int first = accountId1 == null ? -1 : getShard(accountId1);
+        int second = accountId2 == null ? -1 : getShard(accountId2);
+        if (first == -1 || first == second) {
+            first = second;
+            second = -1;
+        } else if (second != -1 && second < first) {
+            final int swap = first;
+            first = second;
+            second = swap;
+        }
+        if (first == -1) {
+            return task.get();
+        }
+        if (second == -1) {
+            return join(submit(first, task));
+        }
+        final int higher = second;
+        return join(submit(first, () -> join(submit(higher, task))));
+    }
+
+    public void stop() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(int shard, Supplier<T> task) {
+        final long submitted = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                final long started = System.nanoTime();
+                queueWait.observeNanos(started - submitted, shardNames[shard]);
+                try {
+                    return task.get();
+                } finally {
+                    execution.observeNanos(System.nanoTime() - started, shardNames[shard]);
+                }
+            }, shards[shard]);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableException("Shard " + shard + " is overloaded");
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
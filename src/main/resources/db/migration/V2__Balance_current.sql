@@ -0,0 +1,29 @@
+drop table if exists balance_current;
+create table balance_current
+(
+    account_id   long      not null primary key,
+    balance      long      not null,
+    operation_id long      not null,
+    foreign key (operation_id) references operation (id),
+    ts           timestamp not null
+);
+insert into balance_current (account_id, balance, operation_id, ts)
+select account_id, balance, operation_id, fd
+from balance
+where td = parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT');
+
+drop table if exists balance_history;
+create table balance_history
+(
+    n            identity  not null primary key,
+    account_id   long      not null,
+    balance      long      not null,
+    operation_id long      not null,
+    foreign key (operation_id) references operation (id),
+    ts           timestamp not null
+);
+insert into balance_history (account_id, balance, operation_id, ts)
+select account_id, balance, operation_id, fd
+from balance
+order by n;
+create index ix_balance_history_account_id on balance_history (account_id);
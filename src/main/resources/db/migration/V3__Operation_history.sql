@@ -0,0 +1,2 @@
+create index ix_operation_source_account on operation (source_account, id);
+create index ix_operation_target_account on operation (target_account, id);
@@ -0,0 +1,9 @@
+-- Latest version as of a moment is the first index entry of the account with fd <= moment
+drop index if exists ix_account_id;
+create index ix_account_id_fd_td on account (id desc, fd desc, td);
+
+drop index if exists ix_balance_account_id;
+create index ix_balance_account_fd_td on balance (account_id desc, fd desc, td);
+
+drop index if exists ix_balance_history_account_id;
+create index ix_balance_history_account_ts on balance_history (account_id desc, ts desc, n desc);
@@ -0,0 +1,2 @@
+alter table operation add column idempotency_key varchar(64) null;
+create unique index ux_operation_idempotency_key on operation (idempotency_key);
@@ -0,0 +1,11 @@
+-- Split account spreads credits over slot rows, its balance is main balance plus sum of slots
+alter table account add column slots int default 1 not null;
+
+drop table if exists balance_slot;
+create table balance_slot
+(
+    account_id long not null,
+    slot       int  not null,
+    balance    long not null,
+    primary key (account_id, slot)
+);
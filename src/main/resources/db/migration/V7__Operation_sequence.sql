@@ -0,0 +1,3 @@
+drop sequence if exists sq_operation;
+create sequence sq_operation;
+alter sequence sq_operation restart with (select coalesce(max(id), 0) + 1 from operation);
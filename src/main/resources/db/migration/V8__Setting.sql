@@ -0,0 +1,19 @@
+-- Settings the data depends on, application refuses to start when its configuration contradicts them
+drop table if exists setting;
+create table setting
+(
+    name  varchar(64)  not null primary key,
+    value varchar(256) not null
+);
+
+-- Storage that saw the latest balance change is the one balances were last written in,
+-- when both saw it the storage is recorded on the next start from configuration
+insert into setting (name, value)
+select 'balance_storage', storage
+from (select case
+                 when t.last > c.last then 'TEMPORAL'
+                 when c.last > t.last then 'CURRENT'
+                 end as storage
+      from (select coalesce(max(operation_id), 0) as last from balance) t,
+           (select coalesce(max(operation_id), 0) as last from balance_history) c)
+where storage is not null;
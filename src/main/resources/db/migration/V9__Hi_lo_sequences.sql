@@ -0,0 +1,5 @@
+-- Sequence values become block numbers of hi/lo ids, block of the next value must follow ids saved so far.
+-- Ledger engine saved operations with its own ids without moving the sequence.
+-- Block size is datasource.idBlockSize of the migrating application, hi starts at 1 so id 0 is never assigned
+alter sequence sq_operation restart with (select coalesce(max(id), 0) / ${idBlockSize} + 1 from operation);
+alter sequence sq_account restart with (select coalesce(max(id), 0) / ${idBlockSize} + 1 from account);
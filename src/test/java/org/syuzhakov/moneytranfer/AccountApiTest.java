@@ -1,9 +1,11 @@
 package org.syuzhakov.moneytranfer;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -16,6 +18,11 @@ import org.syuzhakov.moneytranfer.model.AccountStatus;
 import org.syuzhakov.moneytranfer.model.Balance;
 import org.syuzhakov.moneytranfer.server.JacksonFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public class AccountApiTest {
@@ -176,4 +183,103 @@ public class AccountApiTest {
         Assertions.assertNotNull(errorResponse.getMessage());
         Assertions.assertNull(errorResponse.getHttpStatus());
     }
+
+    @Test
+    void getBalanceAtMoment() throws Exception {
+        // Create account
+        final HttpResponse createResponse = Request.Put(localhost + "/account")
+                .bodyString(
+                        objectMapper.writeValueAsString(new Account(null, AccountStatus.BLOCKED, null)),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        final Account createdAccount = objectMapper.readValue(createResponse.getEntity().getContent(), Account.class);
+        final Long accountId = createdAccount.getId();
+        final Instant now = Instant.now();
+
+        //Get balance of blocked account as of now
+        final HttpResponse response = Request.Get(localhost + "/account/" + accountId + "/balance?at=" + now)
+                .execute()
+                .returnResponse();
+        final Balance balance = objectMapper.readValue(response.getEntity().getContent(), Balance.class);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertEquals(0L, balance.getBalance());
+
+        //Get snapshot of balances, missing account is omitted
+        final HttpResponse snapshotResponse = Request.Post(localhost + "/account/balances/snapshot?at=" + now)
+                .bodyString(objectMapper.writeValueAsString(List.of(accountId, 88005553535L)),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        final Map<Long, Balance> snapshot = objectMapper.readValue(snapshotResponse.getEntity().getContent(),
+                new TypeReference<Map<Long, Balance>>() {
+                });
+        Assertions.assertEquals(200, snapshotResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(Set.of(accountId), snapshot.keySet());
+
+        //Invalid moment
+        final HttpResponse invalidResponse = Request.Get(localhost + "/account/" + accountId + "/balance?at=yesterday")
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(400, invalidResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    void getBalancesOfManyAccounts() throws Exception {
+        final long activeAccountId = createAccount(AccountStatus.ACTIVE);
+        final long blockedAccountId = createAccount(AccountStatus.BLOCKED);
+        final long topupAccountId = createAccount(AccountStatus.ACTIVE);
+        Request.Post(localhost + "/operation/transfer")
+                .bodyString("{\"targetAccount\": " + topupAccountId + ", \"amount\": 100}", ContentType.APPLICATION_JSON)
+                .execute()
+                .discardContent();
+
+        final HttpResponse response = Request.Post(localhost + "/account/balances")
+                .bodyString(objectMapper.writeValueAsString(
+                        List.of(topupAccountId, blockedAccountId, 88005553535L, activeAccountId)),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        final Map<Long, Balance> balances = objectMapper.readValue(response.getEntity().getContent(),
+                new TypeReference<Map<Long, Balance>>() {
+                });
+
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertEquals(List.of(topupAccountId, activeAccountId), List.copyOf(balances.keySet()));
+        Assertions.assertEquals(100L, balances.get(topupAccountId).getBalance());
+        Assertions.assertNotNull(balances.get(topupAccountId).getOperation());
+        Assertions.assertEquals(0L, balances.get(activeAccountId).getBalance());
+        Assertions.assertNull(balances.get(activeAccountId).getOperation());
+    }
+
+    @Test
+    void compactAndPrettyResponses() throws Exception {
+        final long accountId = createAccount(AccountStatus.ACTIVE);
+
+        //Compact body is sent with one write of known length
+        final HttpResponse compact = Request.Get(localhost + "/account/" + accountId)
+                .execute()
+                .returnResponse();
+        final byte[] compactBody = EntityUtils.toByteArray(compact.getEntity());
+        Assertions.assertEquals(String.valueOf(compactBody.length),
+                compact.getFirstHeader("Content-Length").getValue());
+        Assertions.assertFalse(new String(compactBody, StandardCharsets.UTF_8).contains("\n"));
+
+        final HttpResponse pretty = Request.Get(localhost + "/account/" + accountId + "?pretty")
+                .execute()
+                .returnResponse();
+        final byte[] prettyBody = EntityUtils.toByteArray(pretty.getEntity());
+        Assertions.assertTrue(new String(prettyBody, StandardCharsets.UTF_8).contains("\n"));
+        Assertions.assertEquals(objectMapper.readValue(compactBody, Account.class).getId(),
+                objectMapper.readValue(prettyBody, Account.class).getId());
+    }
+
+    private long createAccount(AccountStatus status) throws Exception {
+        final HttpResponse createResponse = Request.Put(localhost + "/account")
+                .bodyString(objectMapper.writeValueAsString(new Account(null, status, null)),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        return objectMapper.readValue(createResponse.getEntity().getContent(), Account.class).getId();
+    }
 }
@@ -0,0 +1,128 @@
+package org.syuzhakov.moneytranfer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.HandlerMode;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.ErrorResponse;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.server.JacksonFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AsyncApiTest {
+    private static App app;
+    private static ObjectMapper objectMapper;
+    private static String localhost;
+
+    @BeforeAll
+    static void beforeAll() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .handlerMode(HandlerMode.ASYNC)
+                        .handlerThreads(4)
+                        .build())
+                .start();
+        localhost = "http://127.0.0.1:" + app.getListenerPort();
+        objectMapper = JacksonFactory.getDefaultRestMapper();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        app.stop();
+    }
+
+    @Test
+    void concurrentTopups() throws Exception {
+        final ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Long>> accountIds = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                final long amount = i + 1;
+                accountIds.add(clients.submit(() -> {
+                    final long accountId = createAccount();
+                    Assertions.assertEquals(200, transfer(Operation.builder()
+                            .targetAccount(accountId)
+                            .amount(amount)
+                            .build()));
+                    return accountId;
+                }));
+            }
+            for (int i = 0; i < accountIds.size(); i++) {
+                Assertions.assertEquals(i + 1L, getBalance(accountIds.get(i).get()).getBalance());
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    void getUnexistingAccount() throws Exception {
+        final HttpResponse response = Request.Get(localhost + "/account/88005553535")
+                .execute()
+                .returnResponse();
+
+        Assertions.assertNull(response.getEntity());
+        Assertions.assertEquals(204, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    void malformedBody() throws Exception {
+        final HttpResponse response = Request.Post(localhost + "/operation/transfer")
+                .bodyString("{\"amount\":", ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        final ErrorResponse errorResponse = objectMapper.readValue(response.getEntity().getContent(), ErrorResponse.class);
+
+        Assertions.assertEquals(400, response.getStatusLine().getStatusCode());
+        Assertions.assertEquals(400002, errorResponse.getErrorCode());
+    }
+
+    private long createAccount() throws Exception {
+        final HttpResponse response = Request.Put(localhost + "/account")
+                .bodyString(objectMapper.writeValueAsString(new Account(null, AccountStatus.ACTIVE, null)),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return objectMapper.readValue(response.getEntity().getContent(), Account.class).getId();
+    }
+
+    private int transfer(Operation operation) throws Exception {
+        return Request.Post(localhost + "/operation/transfer")
+                .bodyString(objectMapper.writeValueAsString(operation), ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse()
+                .getStatusLine()
+                .getStatusCode();
+    }
+
+    private Balance getBalance(long accountId) throws Exception {
+        final HttpResponse response = Request.Get(localhost + "/account/" + accountId + "/balance")
+                .execute()
+                .returnResponse();
+        return objectMapper.readValue(response.getEntity().getContent(), Balance.class);
+    }
+}
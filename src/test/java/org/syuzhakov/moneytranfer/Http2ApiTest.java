@@ -0,0 +1,92 @@
+package org.syuzhakov.moneytranfer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.HandlerMode;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.server.JacksonFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+public class Http2ApiTest {
+    private static App app;
+    private static ObjectMapper objectMapper;
+    private static String localhost;
+
+    @BeforeAll
+    static void beforeAll() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .handlerMode(HandlerMode.ASYNC)
+                        .handlerThreads(4)
+                        .http2Enabled(true)
+                        .build())
+                .start();
+        localhost = "http://127.0.0.1:" + app.getListenerPort();
+        objectMapper = JacksonFactory.getDefaultRestMapper();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        app.stop();
+    }
+
+    @Test
+    void concurrentTopupsOverOneConnection() throws Exception {
+        final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        final List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            accounts.add(app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                    .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())));
+        }
+
+        //First request upgrades connection to h2c, the rest are streams of it
+        final HttpResponse<String> upgrade = client.send(HttpRequest.newBuilder(
+                URI.create(localhost + "/account/" + accounts.get(0).getId())).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, upgrade.statusCode());
+
+        final List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (Account account : accounts) {
+            final byte[] topup = objectMapper.writeValueAsBytes(
+                    Operation.builder().targetAccount(account.getId()).amount(10L).build());
+            responses.add(client.sendAsync(HttpRequest.newBuilder(URI.create(localhost + "/operation/transfer"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(topup))
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assertions.assertEquals(200, response.get().statusCode());
+            Assertions.assertEquals(HttpClient.Version.HTTP_2, response.get().version());
+        }
+
+        for (Account account : accounts) {
+            final HttpResponse<String> balance = client.send(HttpRequest.newBuilder(
+                    URI.create(localhost + "/account/" + account.getId() + "/balance")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertEquals(10L, objectMapper.readValue(balance.body(), Balance.class).getBalance());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.syuzhakov.moneytranfer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.server.JacksonFactory;
+
+import java.util.UUID;
+
+public class MetricsApiTest {
+    private static App app;
+    private static ObjectMapper objectMapper;
+    private static String localhost;
+
+    @BeforeAll
+    static void beforeAll() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .build())
+                .start();
+        localhost = "http://127.0.0.1:" + app.getListenerPort();
+        objectMapper = JacksonFactory.getDefaultRestMapper();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        app.stop();
+    }
+
+    @Test
+    void requestsAndTransfersAreMeasured() throws Exception {
+        final long accountId = createAccount();
+        Assertions.assertEquals(200, transfer(Operation.builder().targetAccount(accountId).amount(100L).build()));
+        Assertions.assertEquals(500, transfer(Operation.builder().sourceAccount(accountId).amount(200L).build()));
+
+        final HttpResponse response = Request.Get(localhost + "/metrics")
+                .execute()
+                .returnResponse();
+        final String metrics = EntityUtils.toString(response.getEntity());
+
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain"));
+        Assertions.assertTrue(metrics.contains("# TYPE http_request_duration_seconds histogram"));
+        Assertions.assertTrue(metrics.contains(
+                "http_request_duration_seconds_count{method=\"PUT\",route=\"/account\",status=\"200\"} 1"));
+        Assertions.assertTrue(metrics.contains(
+                "http_request_duration_seconds_bucket{method=\"POST\",route=\"/operation/transfer\",status=\"500\",le=\"+Inf\"} 1"));
+        Assertions.assertTrue(metrics.contains("transfers_total{outcome=\"success\"} 1"));
+        Assertions.assertTrue(metrics.contains("transfers_total{outcome=\"OperationImpossibleException\"} 1"));
+        Assertions.assertTrue(metrics.contains("db_transaction_duration_seconds_count{outcome=\"commit\"}"));
+        Assertions.assertTrue(metrics.contains("db_transaction_rollbacks_total{exception=\"OperationImpossibleException\"} 1"));
+        Assertions.assertTrue(metrics.contains("db_pool_connections_active 0"));
+        Assertions.assertTrue(metrics.contains("# TYPE db_pool_connections_pending gauge"));
+    }
+
+    private long createAccount() throws Exception {
+        final HttpResponse response = Request.Put(localhost + "/account")
+                .bodyString(objectMapper.writeValueAsString(new Account(null, AccountStatus.ACTIVE, null)),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return objectMapper.readValue(response.getEntity().getContent(), Account.class).getId();
+    }
+
+    private int transfer(Operation operation) throws Exception {
+        return Request.Post(localhost + "/operation/transfer")
+                .bodyString(objectMapper.writeValueAsString(operation), ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse()
+                .getStatusLine()
+                .getStatusCode();
+    }
+}
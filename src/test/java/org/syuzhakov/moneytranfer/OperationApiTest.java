@@ -9,14 +9,17 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
 import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
 import org.syuzhakov.moneytranfer.error.ErrorResponse;
 import org.syuzhakov.moneytranfer.model.Account;
 import org.syuzhakov.moneytranfer.model.AccountStatus;
 import org.syuzhakov.moneytranfer.model.Balance;
 import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
 import org.syuzhakov.moneytranfer.server.JacksonFactory;
 
+import java.util.List;
 import java.util.UUID;
 
 public class OperationApiTest {
@@ -36,6 +39,10 @@ public class OperationApiTest {
                         .enabled(true)
                         .port(0)
                         .build())
+                .operationConfiguration(OperationConfiguration.builder()
+                        .historyPageSize(2)
+                        .batchMaxSize(4)
+                        .build())
                 .start();
         localhost = "http://127.0.0.1:" + app.getListenerPort();
         objectMapper = JacksonFactory.getDefaultRestMapper();
@@ -194,6 +201,296 @@ public class OperationApiTest {
     }
 
 
+    @Test
+    void bestEffortBatchTransfer() throws Exception {
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1000L);
+
+        final List<Operation> batch = List.of(
+                Operation.builder().sourceAccount(account1).targetAccount(account2).amount(600L).build(),
+                Operation.builder().sourceAccount(account1).targetAccount(account2).amount(600L).build(),
+                Operation.builder().sourceAccount(account2).targetAccount(account1).amount(100L).build(),
+                Operation.builder().sourceAccount(account2).amount(0L).build());
+        final HttpResponse batchResponse = Request.Post(localhost + "/operation/transfer/batch")
+                .bodyString(objectMapper.writeValueAsString(batch), ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, batchResponse.getStatusLine().getStatusCode());
+        final TransferResult[] results = objectMapper.readValue(batchResponse.getEntity().getContent(), TransferResult[].class);
+        Assertions.assertEquals(4, results.length);
+        Assertions.assertNotNull(results[0].getOperation().getId());
+        Assertions.assertNull(results[0].getError());
+        Assertions.assertEquals(500010, results[1].getError().getErrorCode());
+        Assertions.assertNull(results[1].getOperation());
+        Assertions.assertNotNull(results[2].getOperation().getId());
+        Assertions.assertEquals(400001, results[3].getError().getErrorCode());
+
+        //Check balance account 1
+        final HttpResponse getBalanceResponse = Request.Get(localhost + "/account/" + account1 + "/balance")
+                .execute()
+                .returnResponse();
+        final Balance balance = objectMapper.readValue(getBalanceResponse.getEntity().getContent(), Balance.class);
+        Assertions.assertEquals(500L, balance.getBalance());
+        Assertions.assertEquals(results[2].getOperation().getId(), balance.getOperation());
+    }
+
+    @Test
+    void atomicBatchTransferIsRolledBack() throws Exception {
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1000L);
+
+        final List<Operation> batch = List.of(
+                Operation.builder().sourceAccount(account1).targetAccount(account2).amount(600L).build(),
+                Operation.builder().sourceAccount(account1).targetAccount(account2).amount(600L).build());
+        final HttpResponse batchResponse = Request.Post(localhost + "/operation/transfer/batch?mode=atomic")
+                .bodyString(objectMapper.writeValueAsString(batch), ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        final ErrorResponse errorResponse = objectMapper.readValue(batchResponse.getEntity().getContent(), ErrorResponse.class);
+        Assertions.assertEquals(500, batchResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(500010, errorResponse.getErrorCode());
+
+        //Check balance account 1
+        final HttpResponse getBalanceResponse = Request.Get(localhost + "/account/" + account1 + "/balance")
+                .execute()
+                .returnResponse();
+        final Balance balance = objectMapper.readValue(getBalanceResponse.getEntity().getContent(), Balance.class);
+        Assertions.assertEquals(1000L, balance.getBalance());
+    }
+
+    @Test
+    void batchWithNullsIsValidated() throws Exception {
+        final HttpResponse nullResponse = Request.Post(localhost + "/operation/transfer/batch")
+                .bodyString("null", ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(400, nullResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(400001, objectMapper.readValue(nullResponse.getEntity().getContent(),
+                ErrorResponse.class).getErrorCode());
+
+        final long account = accountWithMoney(1000L);
+        final HttpResponse batchResponse = Request.Post(localhost + "/operation/transfer/batch")
+                .bodyString("[null, {\"sourceAccount\": " + account + ", \"amount\": 100}]",
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, batchResponse.getStatusLine().getStatusCode());
+        final TransferResult[] results =
+                objectMapper.readValue(batchResponse.getEntity().getContent(), TransferResult[].class);
+        Assertions.assertEquals(400001, results[0].getError().getErrorCode());
+        Assertions.assertNotNull(results[1].getOperation().getId());
+    }
+
+    @Test
+    void batchOverMaxSizeIsRejectedWhileRead() throws Exception {
+        //Array is never closed, so only a limit checked while reading answers it
+        final StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 5; i++) {
+            body.append("{\"targetAccount\": 1, \"amount\": 1},");
+        }
+        final HttpResponse batchResponse = Request.Post(localhost + "/operation/transfer/batch")
+                .bodyString(body.toString(), ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(400, batchResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(400001, objectMapper.readValue(batchResponse.getEntity().getContent(),
+                ErrorResponse.class).getErrorCode());
+    }
+
+    @Test
+    void batchOverMaxSizeIsRejected() throws Exception {
+        final long account = accountWithMoney(1000L);
+        final Operation operation = Operation.builder().sourceAccount(account).amount(1L).build();
+        final List<Operation> batch = List.of(operation, operation, operation, operation, operation);
+        final HttpResponse batchResponse = Request.Post(localhost + "/operation/transfer/batch?mode=atomic")
+                .bodyString(objectMapper.writeValueAsString(batch), ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        final ErrorResponse errorResponse = objectMapper.readValue(batchResponse.getEntity().getContent(), ErrorResponse.class);
+        Assertions.assertEquals(400, batchResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(400001, errorResponse.getErrorCode());
+    }
+
+    @Test
+    void operationHistoryOfAccount() throws Exception {
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1000L);
+        final long account3 = accountWithMoney(1000L);
+        final List<Operation> batch = List.of(
+                Operation.builder().sourceAccount(account1).targetAccount(account2).amount(1L).build(),
+                Operation.builder().sourceAccount(account3).targetAccount(account2).amount(2L).build(),
+                Operation.builder().sourceAccount(account2).targetAccount(account1).amount(3L).build(),
+                Operation.builder().sourceAccount(account2).amount(4L).build());
+        Request.Post(localhost + "/operation/transfer/batch")
+                .bodyString(objectMapper.writeValueAsString(batch), ContentType.APPLICATION_JSON)
+                .execute()
+                .discardContent();
+
+        //History is read in pages of 2 operations
+        final Operation[] history = getOperations("/account/" + account2 + "/operations");
+        Assertions.assertEquals(5, history.length);
+        Assertions.assertEquals(account2, history[0].getTargetAccount());
+        Assertions.assertEquals(1000L, history[0].getAmount());
+        for (int i = 1; i < history.length; i++) {
+            Assertions.assertEquals(i, history[i].getAmount());
+            Assertions.assertTrue(history[i].getId() > history[i - 1].getId());
+        }
+
+        //Keyset pagination
+        final Operation[] page = getOperations("/account/" + account2 + "/operations?after="
+                + history[1].getId() + "&limit=2");
+        Assertions.assertEquals(2, page.length);
+        Assertions.assertEquals(history[2], page[0]);
+        Assertions.assertEquals(history[3], page[1]);
+    }
+    @Test
+    void repeatedTransferWithIdempotencyKey() throws Exception {
+        final long account = accountWithMoney(1000L);
+        final String key = UUID.randomUUID().toString();
+        final Operation operation = transferWithKey(account, key);
+        final Operation repeated = transferWithKey(account, key);
+        Assertions.assertEquals(operation.getId(), repeated.getId());
+        Assertions.assertEquals(key, repeated.getIdempotencyKey());
+        Assertions.assertNotEquals(operation.getId(), transferWithKey(account, UUID.randomUUID().toString()).getId());
+
+        final HttpResponse getBalanceResponse = Request.Get(localhost + "/account/" + account + "/balance")
+                .execute()
+                .returnResponse();
+        final Balance balance = objectMapper.readValue(getBalanceResponse.getEntity().getContent(), Balance.class);
+        Assertions.assertEquals(800L, balance.getBalance());
+    }
+
+    @Test
+    void transferWithSmile() throws Exception {
+        final ObjectMapper smileMapper = JacksonFactory.createSmileObjectMapper();
+        final ContentType smile = ContentType.create(JacksonFactory.SMILE_CONTENT_TYPE);
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1000L);
+
+        final HttpResponse transferResponse = Request.Post(localhost + "/operation/transfer")
+                .addHeader("Accept", JacksonFactory.SMILE_CONTENT_TYPE)
+                .bodyByteArray(smileMapper.writeValueAsBytes(Operation.builder()
+                        .sourceAccount(account1).targetAccount(account2).amount(300L).build()), smile)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, transferResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(JacksonFactory.SMILE_CONTENT_TYPE,
+                transferResponse.getFirstHeader("Content-Type").getValue());
+        final Operation operation = smileMapper.readValue(transferResponse.getEntity().getContent(), Operation.class);
+        Assertions.assertNotNull(operation.getId());
+        Assertions.assertEquals(300L, operation.getAmount());
+
+        //Errors are encoded the same way
+        final HttpResponse errorResponse = Request.Post(localhost + "/operation/transfer")
+                .addHeader("Accept", JacksonFactory.SMILE_CONTENT_TYPE)
+                .bodyByteArray(smileMapper.writeValueAsBytes(Operation.builder()
+                        .sourceAccount(account1).amount(1_000_000L).build()), smile)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(500, errorResponse.getStatusLine().getStatusCode());
+        Assertions.assertEquals(500010, smileMapper.readValue(errorResponse.getEntity().getContent(),
+                ErrorResponse.class).getErrorCode());
+
+        //Clients that do not ask for Smile get JSON
+        final HttpResponse balanceResponse = Request.Get(localhost + "/account/" + account2 + "/balance")
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals("application/json", balanceResponse.getFirstHeader("Content-Type").getValue());
+        Assertions.assertEquals(1300L, objectMapper.readValue(balanceResponse.getEntity().getContent(),
+                Balance.class).getBalance());
+    }
+
+    @Test
+    void smileIsSentOnlyWhenItIsBestAcceptMatch() throws Exception {
+        final long account = accountWithMoney(1000L);
+        Assertions.assertEquals(JacksonFactory.SMILE_CONTENT_TYPE,
+                balanceContentType(account, "application/json;q=0.5, application/x-jackson-smile"));
+        Assertions.assertEquals(JacksonFactory.SMILE_CONTENT_TYPE,
+                balanceContentType(account, "*/*, application/x-jackson-smile"));
+        Assertions.assertEquals("application/json",
+                balanceContentType(account, "application/x-jackson-smile;q=0.2, application/json; charset=utf-8"));
+        Assertions.assertEquals("application/json",
+                balanceContentType(account, "application/x-jackson-smile;q=0, */*"));
+        Assertions.assertEquals("application/json",
+                balanceContentType(account, "application/x-jackson-smile, application/json"));
+        Assertions.assertEquals("application/json", balanceContentType(account, "*/*"));
+    }
+
+    private String balanceContentType(long account, String accept) throws Exception {
+        final HttpResponse response = Request.Get(localhost + "/account/" + account + "/balance")
+                .addHeader("Accept", accept)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return response.getFirstHeader("Content-Type").getValue();
+    }
+
+    private Operation transferWithKey(long account, String key) throws Exception {
+        final HttpResponse response = Request.Post(localhost + "/operation/transfer")
+                .addHeader("Idempotency-Key", key)
+                .bodyString(
+                        objectMapper.writeValueAsString(Operation.builder().sourceAccount(account).amount(100L).build()),
+                        ContentType.APPLICATION_JSON)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return objectMapper.readValue(response.getEntity().getContent(), Operation.class);
+    }
+
+
+    @Test
+    void operationsExport() throws Exception {
+        final long account = accountWithMoney(1000L);
+        final Operation[] firstPage = getOperations("/operations?limit=3");
+        Assertions.assertEquals(3, firstPage.length);
+        final Operation[] rest = getOperations("/operations?after=" + firstPage[2].getId());
+        Assertions.assertTrue(rest.length > 0);
+        Assertions.assertTrue(rest[0].getId() > firstPage[2].getId());
+        Assertions.assertEquals(account, rest[rest.length - 1].getTargetAccount());
+        Assertions.assertEquals(0, getOperations("/operations?after=" + rest[rest.length - 1].getId()).length);
+
+        final HttpResponse invalidLimitResponse = Request.Get(localhost + "/operations?limit=0")
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(400, invalidLimitResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    void exportsOverLimitAreRejected() throws Exception {
+        final App limited = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .build())
+                .operationConfiguration(OperationConfiguration.builder()
+                        .historyMaxExports(0)
+                        .build())
+                .start();
+        try {
+            final HttpResponse response = Request.Get("http://127.0.0.1:" + limited.getListenerPort() + "/operations")
+                    .execute()
+                    .returnResponse();
+            Assertions.assertEquals(503, response.getStatusLine().getStatusCode());
+            final ErrorResponse error = objectMapper.readValue(response.getEntity().getContent(), ErrorResponse.class);
+            Assertions.assertEquals(503001, error.getErrorCode());
+        } finally {
+            limited.stop();
+        }
+    }
+
+    private Operation[] getOperations(String path) throws Exception {
+        final HttpResponse response = Request.Get(localhost + path)
+                .execute()
+                .returnResponse();
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return objectMapper.readValue(response.getEntity().getContent(), Operation[].class);
+    }
+
     private long accountWithMoney(long money) throws Exception {
         //Create account
         final HttpResponse createResponse = Request.Put(localhost + "/account")
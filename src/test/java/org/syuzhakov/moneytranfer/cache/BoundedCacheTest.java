@@ -0,0 +1,55 @@
+package org.syuzhakov.moneytranfer.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class BoundedCacheTest {
+    @Test
+    void segmentedCacheKeepsMaxSize() throws Exception {
+        final BoundedCache<Long, Long> cache = new BoundedCache<>("segmented-test", 256, 60_000L);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            final long first = thread * 1000L;
+            futures.add(executor.submit(() -> {
+                for (long key = first; key < first + 1000; key++) {
+                    cache.put(key, key, cache.stamp(key));
+                    cache.get(key - 1);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assertions.assertEquals(256, cache.getSize());
+        Assertions.assertEquals(8000 - 256, cache.getEvictions());
+    }
+
+    @Test
+    void valueReadBeforeInvalidationIsNotPut() {
+        //Cache of 256 entries has 4 segments, keys 1 and 5 share one
+        final BoundedCache<Long, Long> cache = new BoundedCache<>("invalidation-test", 256, 60_000L);
+        final long stamp = cache.stamp(1L);
+        cache.invalidate(5L);
+        cache.put(1L, 1L, stamp);
+        Assertions.assertNull(cache.get(1L));
+        cache.put(1L, 1L, cache.stamp(1L));
+        Assertions.assertEquals(1L, cache.get(1L));
+    }
+
+    @Test
+    void invalidationOfOtherSegmentDoesNotRefusePut() {
+        final BoundedCache<Long, Long> cache = new BoundedCache<>("segment-invalidation-test", 256, 60_000L);
+        final long stamp = cache.stamp(1L);
+        cache.invalidate(2L);
+        cache.put(1L, 1L, stamp);
+        Assertions.assertEquals(1L, cache.get(1L));
+    }
+}
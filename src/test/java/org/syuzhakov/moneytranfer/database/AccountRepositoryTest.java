@@ -79,4 +79,21 @@ class AccountRepositoryTest {
     void getUnexistingAccount() {
         Assertions.assertNull(accountRepository.getAccountById(0L, false));
     }
-}
\ No newline at end of file
+
+    @Test
+    void statementsAreReused() {
+        final StatementCache statementCache = app.getConnectionFactory().getStatementCache();
+        final long id = accountRepository
+                .createNewAccount(new Account(null, AccountStatus.ACTIVE, null))
+                .getId();
+        accountRepository.getAccountById(id, false);
+        final long hits = statementCache.getHits();
+        final long misses = statementCache.getMisses();
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(id, accountRepository.getAccountById(id, false).getId());
+        }
+        Assertions.assertEquals(hits + 10, statementCache.getHits());
+        Assertions.assertEquals(misses, statementCache.getMisses());
+    }
+}
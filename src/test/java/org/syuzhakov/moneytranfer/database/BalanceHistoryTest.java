@@ -0,0 +1,128 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.BadRequestException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class BalanceHistoryTest {
+    private App app;
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @ParameterizedTest
+    @EnumSource(BalanceStorage.class)
+    void balanceAtMoment(BalanceStorage storage) throws Exception {
+        app = startApp(storage);
+        final Instant beforeAccount = pause();
+        final long firstAccountId = createAccount();
+        final long secondAccountId = createAccount();
+        final Instant beforeTopup = pause();
+        transfer(null, firstAccountId, 100L);
+        final Instant afterTopup = pause();
+        transfer(firstAccountId, secondAccountId, 30L);
+        final Instant afterTransfer = pause();
+        blockAccount(firstAccountId);
+        transfer(null, secondAccountId, 5L);
+
+        Assertions.assertThrows(BadRequestException.class, () -> getBalanceAt(firstAccountId, beforeAccount));
+        Assertions.assertEquals(0L, getBalanceAt(firstAccountId, beforeTopup).getBalance());
+        Assertions.assertEquals(100L, getBalanceAt(firstAccountId, afterTopup).getBalance());
+        Assertions.assertEquals(afterTopup, getBalanceAt(firstAccountId, afterTopup).getActuality());
+        Assertions.assertEquals(70L, getBalanceAt(firstAccountId, afterTransfer).getBalance());
+        //Account is blocked now, but its history is still available
+        Assertions.assertEquals(70L, getBalanceAt(firstAccountId, Instant.now()).getBalance());
+        Assertions.assertEquals(35L, getBalanceAt(secondAccountId, Instant.now()).getBalance());
+    }
+
+    @ParameterizedTest
+    @EnumSource(BalanceStorage.class)
+    void balancesSnapshot(BalanceStorage storage) throws Exception {
+        app = startApp(storage);
+        final long firstAccountId = createAccount();
+        final long secondAccountId = createAccount();
+        transfer(null, firstAccountId, 100L);
+        transfer(firstAccountId, secondAccountId, 30L);
+        final Instant snapshotTime = pause();
+        final long thirdAccountId = createAccount();
+        transfer(secondAccountId, thirdAccountId, 10L);
+
+        final Map<Long, Balance> snapshot = app.getConnectionFactory().executeInTransaction(() ->
+                app.getBalanceHistoryService().getBalancesAt(
+                        List.of(secondAccountId, firstAccountId, thirdAccountId, 88005553535L), snapshotTime));
+
+        Assertions.assertEquals(List.of(secondAccountId, firstAccountId), List.copyOf(snapshot.keySet()));
+        Assertions.assertEquals(30L, snapshot.get(secondAccountId).getBalance());
+        Assertions.assertEquals(70L, snapshot.get(firstAccountId).getBalance());
+        Assertions.assertEquals(snapshotTime, snapshot.get(firstAccountId).getActuality());
+    }
+
+    private App startApp(BalanceStorage storage) {
+        return App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .balanceStorage(storage)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .start();
+    }
+
+    /**
+     * Separates moments of database changes, H2 timestamps are taken once per transaction.
+     */
+    private Instant pause() throws InterruptedException {
+        Thread.sleep(10);
+        final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        Thread.sleep(10);
+        return now;
+    }
+
+    private Balance getBalanceAt(long accountId, Instant at) {
+        return app.getConnectionFactory().executeInTransaction(() ->
+                app.getBalanceHistoryService().getBalanceAt(accountId, at));
+    }
+
+    private long createAccount() {
+        return app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())
+                .getId());
+    }
+
+    private void blockAccount(long accountId) {
+        app.getConnectionFactory().executeInTransaction(() -> {
+            app.getAccountService().updateAccount(Account.builder().id(accountId).status(AccountStatus.BLOCKED).build());
+            return null;
+        });
+    }
+
+    private Operation transfer(Long sourceAccountId, Long targetAccountId, long amount) {
+        return app.getConnectionFactory().executeInTransaction(() -> app.getOperationService()
+                .transferMoney(Operation.builder()
+                        .sourceAccount(sourceAccountId)
+                        .targetAccount(targetAccountId)
+                        .amount(amount)
+                        .build()));
+    }
+}
@@ -0,0 +1,140 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.CacheConfiguration;
+import org.syuzhakov.moneytranfer.config.CacheConsistency;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.UUID;
+
+class CachingBalanceRepositoryTest {
+    private App app;
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void strictCacheIsRefreshedAfterCommit() {
+        app = startApp(CacheConsistency.STRICT, 2, 60_000L);
+        final BoundedCache<Long, Balance> cache = app.getBalanceCache();
+        final long accountId = createAccount();
+        transfer(accountId, 100L);
+
+        Assertions.assertEquals(100L, getBalance(accountId));
+        final long misses = cache.getMisses();
+        Assertions.assertEquals(100L, getBalance(accountId));
+        transfer(accountId, 50L);
+        Assertions.assertEquals(150L, getBalance(accountId));
+        Assertions.assertEquals(misses, cache.getMisses());
+        Assertions.assertTrue(cache.getHits() >= 2);
+    }
+
+    @Test
+    void rolledBackChangeIsNotCached() {
+        app = startApp(CacheConsistency.STRICT, 2, 60_000L);
+        final long accountId = createAccount();
+        transfer(accountId, 100L);
+        Assertions.assertEquals(100L, getBalance(accountId));
+
+        Assertions.assertThrows(IllegalStateException.class, () ->
+                app.getConnectionFactory().executeInTransaction(() -> {
+                    final Operation operation = app.getOperationRepository().createOperation(
+                            Operation.builder().targetAccount(accountId).amount(1L).build());
+                    app.getBalanceRepository().updateBalance(accountId, 101L, operation);
+                    throw new IllegalStateException("rollback");
+                }));
+        Assertions.assertEquals(100L, getBalance(accountId));
+    }
+
+    @Test
+    void boundedCacheServesStaleBalanceUntilExpired() throws Exception {
+        app = startApp(CacheConsistency.BOUNDED, 2, 200L);
+        final long accountId = createAccount();
+        transfer(accountId, 100L);
+        Assertions.assertEquals(100L, getBalance(accountId));
+
+        transfer(accountId, 50L);
+        Assertions.assertEquals(100L, getBalance(accountId));
+        Thread.sleep(300);
+        Assertions.assertEquals(150L, getBalance(accountId));
+    }
+
+    @Test
+    void transferSeesBlockedAccountDespiteBoundedCache() {
+        app = startApp(CacheConsistency.BOUNDED, 10, 60_000L);
+        //Split account is not locked by transfers to it
+        final Account account = app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).slots(2).build()));
+        transfer(account.getId(), 10L);
+        app.getConnectionFactory().executeInTransaction(() -> app.getAccountService().getAccountById(account.getId()));
+
+        app.getConnectionFactory().executeInTransaction(() -> {
+            app.getAccountService().updateAccount(
+                    Account.builder().id(account.getId()).status(AccountStatus.BLOCKED).slots(2).build());
+            return null;
+        });
+        Assertions.assertThrows(OperationImpossibleException.class, () -> transfer(account.getId(), 10L));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        app = startApp(CacheConsistency.STRICT, 2, 60_000L);
+        final BoundedCache<Long, Balance> cache = app.getBalanceCache();
+        for (int i = 0; i < 3; i++) {
+            final long accountId = createAccount();
+            transfer(accountId, 10L);
+            getBalance(accountId);
+        }
+        Assertions.assertEquals(2, cache.getSize());
+        Assertions.assertTrue(cache.getEvictions() >= 1);
+    }
+
+    private App startApp(CacheConsistency consistency, int maxSize, long timeToLiveMillis) {
+        return App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .balanceStorage(BalanceStorage.CURRENT)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .cacheConfiguration(CacheConfiguration.builder()
+                        .enabled(true)
+                        .consistency(consistency)
+                        .maxSize(maxSize)
+                        .timeToLiveMillis(timeToLiveMillis)
+                        .build())
+                .start();
+    }
+
+    private long createAccount() {
+        return app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())
+                .getId());
+    }
+
+    private void transfer(long targetAccountId, long amount) {
+        app.getConnectionFactory().executeInTransaction(() -> app.getOperationService()
+                .transferMoney(Operation.builder().targetAccount(targetAccountId).amount(amount).build()));
+    }
+
+    private long getBalance(long accountId) {
+        return app.getConnectionFactory().executeInTransaction(() -> app.getAccountService().getBalance(accountId))
+                .getBalance();
+    }
+}
@@ -0,0 +1,180 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class CurrentBalanceRepositoryTest {
+    private App app;
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void balanceIsUpdatedInPlace() throws Exception {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString();
+        app = startApp(url);
+        final long firstAccountId = createAccount();
+        final long secondAccountId = createAccount();
+        transfer(null, firstAccountId, 100L);
+        transfer(firstAccountId, secondAccountId, 30L);
+
+        Assertions.assertEquals(70L, app.getAccountService().getBalance(firstAccountId).getBalance());
+        Assertions.assertEquals(30L, app.getAccountService().getBalance(secondAccountId).getBalance());
+        Assertions.assertEquals(2, count("select count(*) from balance_current"));
+        Assertions.assertEquals(3, count("select count(*) from balance_history"));
+    }
+
+    @Test
+    void concurrentTransfersDoNotLoseUpdates() throws Exception {
+        app = startApp("jdbc:h2:mem:" + UUID.randomUUID().toString());
+        final long firstAccountId = createAccount();
+        final long secondAccountId = createAccount();
+        transfer(null, firstAccountId, 1000L);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(executor.submit(() -> transfer(firstAccountId, secondAccountId, 10L)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertEquals(0L, app.getAccountService().getBalance(firstAccountId).getBalance());
+        Assertions.assertEquals(1000L, app.getAccountService().getBalance(secondAccountId).getBalance());
+    }
+
+    @Test
+    void activeBalancesAreReadTogether() {
+        app = startApp("jdbc:h2:mem:" + UUID.randomUUID().toString());
+        final long firstAccountId = createAccount();
+        final long secondAccountId = createAccount();
+        final long blockedAccountId = createAccount();
+        transfer(null, firstAccountId, 100L);
+        app.getConnectionFactory().executeInTransaction(() -> {
+            app.getAccountService().updateAccount(
+                    Account.builder().id(blockedAccountId).status(AccountStatus.BLOCKED).build());
+            return null;
+        });
+
+        final Map<Long, Balance> balances = app.getConnectionFactory().executeInTransaction(() ->
+                app.getBalanceRepository().getActiveBalances(
+                        List.of(firstAccountId, secondAccountId, blockedAccountId, 88005553535L)));
+
+        Assertions.assertEquals(Set.of(firstAccountId, secondAccountId), balances.keySet());
+        Assertions.assertEquals(100L, balances.get(firstAccountId).getBalance());
+        Assertions.assertEquals(0L, balances.get(secondAccountId).getBalance());
+        Assertions.assertNull(balances.get(secondAccountId).getOperation());
+    }
+
+    @Test
+    void migrationCopiesCurrentBalances() throws Exception {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+        Flyway.configure().dataSource(url, "sa", "sa").target("1")
+                .placeholders(Map.of("idBlockSize", "100")).load().migrate();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "sa");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("insert into operation (id, target_account, amount, ts) values (1, 5, 10, sysdate)");
+            statement.executeUpdate("insert into operation (id, target_account, amount, ts) values (2, 5, 20, sysdate)");
+            statement.executeUpdate("insert into balance (account_id, balance, operation_id, fd, td) " +
+                    "values (5, 10, 1, sysdate, sysdate)");
+            statement.executeUpdate("insert into balance (account_id, balance, operation_id, fd, td) " +
+                    "values (5, 30, 2, sysdate, parsedatetime('9999-01-01', 'yyyy-MM-dd', 'en', 'GMT'))");
+        }
+
+        app = startApp(url);
+        Assertions.assertEquals(30L, app.getBalanceRepository().getBalance(5L, false).getBalance());
+        Assertions.assertEquals(2L, app.getBalanceRepository().getBalance(5L, false).getOperation());
+        Assertions.assertEquals(2, count("select count(*) from balance_history"));
+    }
+
+    @Test
+    void storageCannotBeChangedOnceBalancesAreWritten() {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+        app = startApp(url);
+        final long accountId = createAccount();
+        transfer(null, accountId, 100L);
+        app.stop();
+
+        final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class,
+                () -> startApp(url, BalanceStorage.TEMPORAL));
+        Assertions.assertTrue(e.getMessage().contains("current"), e.getMessage());
+
+        app = startApp(url);
+        Assertions.assertEquals(100L, app.getAccountService().getBalance(accountId).getBalance());
+    }
+
+    private App startApp(String url) {
+        return startApp(url, BalanceStorage.CURRENT);
+    }
+
+    private App startApp(String url, BalanceStorage balanceStorage) {
+        return App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url(url)
+                        .user("sa")
+                        .password("sa")
+                        .balanceStorage(balanceStorage)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .start();
+    }
+
+    private long createAccount() {
+        return app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())
+                .getId());
+    }
+
+    private Operation transfer(Long sourceAccountId, Long targetAccountId, long amount) {
+        return app.getConnectionFactory().executeInTransaction(() -> app.getOperationService()
+                .transferMoney(Operation.builder()
+                        .sourceAccount(sourceAccountId)
+                        .targetAccount(targetAccountId)
+                        .amount(amount)
+                        .build()));
+    }
+
+    private int count(String sql) {
+        return app.getConnectionFactory().executeInTransaction(() -> {
+            try (ResultSet resultSet = app.getConnectionFactory().prepareStatement(sql).executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
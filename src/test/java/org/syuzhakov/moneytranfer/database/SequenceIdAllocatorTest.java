@@ -0,0 +1,160 @@
+package org.syuzhakov.moneytranfer.database;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class SequenceIdAllocatorTest {
+    private App app;
+    private ConnectionFactory connectionFactory;
+
+    @BeforeEach
+    void beforeEach() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .idBlockSize(10)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .start();
+        connectionFactory = app.getConnectionFactory();
+    }
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void idsAreReservedInBlocks() {
+        final SequenceIdAllocator allocator = new SequenceIdAllocator(connectionFactory, "SQ_OPERATION", 10);
+        final long first = connectionFactory.executeInTransaction(allocator::nextId);
+        //One sequence value is a block of ids
+        Assertions.assertEquals(0, first % 10);
+        Assertions.assertEquals(first / 10, currentValue("SQ_OPERATION"));
+        final long[] next = connectionFactory.executeInTransaction(() -> allocator.nextIds(15));
+        for (int i = 0; i < next.length; i++) {
+            Assertions.assertEquals(first + i + 1, next[i]);
+        }
+        //Second block is reserved by one query, the rest of it is still in memory
+        Assertions.assertEquals(first / 10 + 1, currentValue("SQ_OPERATION"));
+    }
+
+    @Test
+    void createdOperationsEqualStoredOnes() {
+        final OperationRepository operationRepository = app.getOperationRepository();
+        final Operation created = connectionFactory.executeInTransaction(() -> operationRepository.createOperation(
+                Operation.builder().targetAccount(1L).amount(100L).idempotencyKey("key").build()));
+        final List<Operation> batch = connectionFactory.executeInTransaction(() -> operationRepository.createOperations(
+                Arrays.asList(Operation.builder().sourceAccount(1L).amount(10L).build(),
+                        Operation.builder().sourceAccount(1L).targetAccount(2L).amount(20L).build())));
+        Assertions.assertEquals(created.getId() + 1, batch.get(0).getId().longValue());
+        Assertions.assertEquals(created.getId() + 2, batch.get(1).getId().longValue());
+
+        final List<Operation> stored = new ArrayList<>();
+        connectionFactory.executeReadOnly(() -> operationRepository.forEachOperation(null, 0, 10, stored::add));
+        Assertions.assertEquals(Arrays.asList(created, batch.get(0), batch.get(1)), stored);
+    }
+
+    @Test
+    void explicitIdsAreSkipped() {
+        final OperationRepository operationRepository = app.getOperationRepository();
+        final long first = connectionFactory.executeInTransaction(() -> operationRepository.createOperation(
+                Operation.builder().targetAccount(1L).amount(1L).build())).getId();
+        connectionFactory.executeInTransaction(() -> {
+            operationRepository.saveOperation(Operation.builder()
+                    .id(first + 1).targetAccount(1L).amount(1L).timestamp(Instant.now()).build());
+            operationRepository.saveOperation(Operation.builder()
+                    .id(first + 1000).targetAccount(1L).amount(1L).timestamp(Instant.now()).build());
+            return null;
+        });
+        final Operation created = connectionFactory.executeInTransaction(() -> operationRepository.createOperation(
+                Operation.builder().targetAccount(1L).amount(1L).build()));
+        Assertions.assertEquals(first + 1001, created.getId().longValue());
+        //Blocks up to saved id are reserved by one query
+        Assertions.assertEquals((first + 1000) / 10, currentValue("SQ_OPERATION"));
+    }
+
+    @Test
+    void smallerBlockSizeIsRefused() {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+        App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder().url(url).user("sa").password("sa")
+                        .idBlockSize(10).build())
+                .webServiceConfiguration(WebServiceConfiguration.builder().enabled(false).build())
+                .start()
+                .stop();
+        final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder().url(url).user("sa").password("sa")
+                        .idBlockSize(5).build())
+                .webServiceConfiguration(WebServiceConfiguration.builder().enabled(false).build())
+                .start());
+        Assertions.assertTrue(e.getMessage().contains("blocks of 10"), e.getMessage());
+    }
+
+    @Test
+    void migratedSequencesContinueAfterSavedIds() throws SQLException {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+        //Database written before ids were assigned in blocks
+        Flyway.configure().dataSource(url, "sa", "sa").target("8")
+                .placeholders(Map.of("idBlockSize", "10")).load().migrate();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "sa");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("insert into account (id, fd, td, status) values (57, now(), '9999-12-31', 1)");
+            statement.executeUpdate("insert into operation (id, target_account, amount, ts) values (1234, 57, 1, now())");
+        }
+        final App migrated = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder().url(url).user("sa").password("sa")
+                        .idBlockSize(10).build())
+                .webServiceConfiguration(WebServiceConfiguration.builder().enabled(false).build())
+                .start();
+        try {
+            //First block follows the saved ids, no id range is skipped
+            final Operation operation = migrated.getConnectionFactory().executeInTransaction(() -> migrated
+                    .getOperationRepository().createOperation(Operation.builder().targetAccount(57L).amount(1L).build()));
+            Assertions.assertEquals(1240L, operation.getId().longValue());
+            final long accountId = migrated.getAccountService().createNewAccount(
+                    Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+            Assertions.assertEquals(60L, accountId);
+        } finally {
+            migrated.stop();
+        }
+    }
+
+    private long currentValue(String sequence) {
+        return connectionFactory.executeInTransaction(() -> {
+            //Current_value of information_schema lags behind values taken from sequence cache
+            try (Statement select = connectionFactory.getConnection().createStatement();
+                 ResultSet resultSet = select.executeQuery("select " + sequence + ".currval")) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
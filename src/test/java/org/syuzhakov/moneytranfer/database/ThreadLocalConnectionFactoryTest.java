@@ -0,0 +1,127 @@
+package org.syuzhakov.moneytranfer.database;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class ThreadLocalConnectionFactoryTest {
+    private App app;
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void moreThreadsThanConnections() throws Exception {
+        app = start(2);
+        final ConnectionFactory connectionFactory = app.getConnectionFactory();
+        final HikariDataSource pool = (HikariDataSource) connectionFactory.getDataSource();
+        Assertions.assertEquals(2, pool.getMaximumPoolSize());
+
+        final ExecutorService workers = Executors.newFixedThreadPool(8);
+        final List<Future<Account>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(workers.submit(() -> connectionFactory.executeInTransaction(() -> app.getAccountRepository()
+                    .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()))));
+        }
+        for (Future<Account> future : futures) {
+            Assertions.assertNotNull(future.get().getId());
+        }
+        workers.shutdown();
+        Assertions.assertEquals(0, pool.getHikariPoolMXBean().getActiveConnections());
+    }
+
+    @Test
+    void closedConnectionIsReplaced() throws Exception {
+        app = start(2);
+        final ConnectionFactory connectionFactory = app.getConnectionFactory();
+        final Connection connection = connectionFactory.getConnection();
+        connection.close();
+        Assertions.assertFalse(connectionFactory.getConnection().isClosed());
+        Assertions.assertNotNull(connectionFactory.executeInTransaction(() ->
+                app.getAccountRepository().createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())));
+    }
+
+    @Test
+    void statementsOfRetiredConnectionsAreForgotten() throws Exception {
+        app = start(2);
+        final ConnectionFactory connectionFactory = app.getConnectionFactory();
+        final StatementCache statementCache = connectionFactory.getStatementCache();
+        connectionFactory.executeInTransaction(() -> app.getAccountRepository()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()));
+        Assertions.assertTrue(statementCache.getConnectionCount() > 0);
+
+        //In-memory database is dropped with its last connection, so one is kept out of the pool
+        try (Connection ignored = DriverManager.getConnection(app.getDatabaseConfiguration().getUrl(), "sa", "sa")) {
+            //Pool closes retired connections in background
+            ((HikariDataSource) connectionFactory.getDataSource()).getHikariPoolMXBean().softEvictConnections();
+            final long deadline = System.currentTimeMillis() + 5_000;
+            while (statementCache.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(0, statementCache.getConnectionCount());
+            Assertions.assertNotNull(connectionFactory.executeInTransaction(() -> app.getAccountRepository()
+                    .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())));
+        }
+    }
+
+    @Test
+    void readsUseReadOnlyPool() throws Exception {
+        app = start(2);
+        final ConnectionFactory connectionFactory = app.getConnectionFactory();
+        final Long accountId = connectionFactory.executeInTransaction(() -> app.getAccountRepository()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())).getId();
+
+        //Committed data is visible to read-only connection, which is returned when read is done
+        final String[] metrics = new String[1];
+        final Account account = connectionFactory.executeReadOnly(() -> {
+            final Account result = app.getAccountRepository().getAccountById(accountId, false);
+            metrics[0] = app.getMetricRegistry().scrape();
+            return result;
+        });
+        Assertions.assertTrue(metrics[0].contains("db_readonly_pool_connections_active 1"));
+        Assertions.assertTrue(metrics[0].contains("db_pool_connections_active 0"));
+        Assertions.assertEquals(accountId, account.getId());
+        Assertions.assertTrue(app.getMetricRegistry().scrape().contains("db_readonly_pool_connections_active 0"));
+
+        //Inside of transaction reads join it
+        connectionFactory.executeInTransaction(() -> {
+            final Account created = app.getAccountRepository()
+                    .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build());
+            Assertions.assertNotNull(connectionFactory.executeReadOnly(() ->
+                    app.getAccountRepository().getAccountById(created.getId(), false)));
+            return created;
+        });
+    }
+
+    private App start(int poolSize) {
+        return App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .poolMaxSize(poolSize)
+                        .connectionTimeoutMillis(10_000L)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .start();
+    }
+}
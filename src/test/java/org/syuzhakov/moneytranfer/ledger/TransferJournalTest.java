@@ -0,0 +1,108 @@
+package org.syuzhakov.moneytranfer.ledger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+class TransferJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendAndReplay() {
+        final TransferJournal journal = new TransferJournal(directory, 1024, 16, 100);
+        journal.replay((operation, sourceBalance, targetBalance) -> Assertions.fail("Journal should be empty"));
+        journal.start();
+        final Instant timestamp = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        journal.append(Operation.builder().id(1L).targetAccount(10L).amount(100L).timestamp(timestamp).build(),
+                null, 100L).join();
+        journal.append(Operation.builder().id(2L).sourceAccount(10L).targetAccount(11L).amount(100L).timestamp(timestamp)
+                .idempotencyKey("ключ-1").build(), 0L, 100L).join();
+        journal.stop();
+
+        final List<Operation> operations = new ArrayList<>();
+        final List<Long> balances = new ArrayList<>();
+        new TransferJournal(directory, 1024, 16, 100).replay((operation, sourceBalance, targetBalance) -> {
+            operations.add(operation);
+            balances.add(sourceBalance);
+            balances.add(targetBalance);
+        });
+        Assertions.assertEquals(2, operations.size());
+        Assertions.assertEquals(Operation.builder().id(1L).targetAccount(10L).amount(100L).timestamp(timestamp).build(),
+                operations.get(0));
+        Assertions.assertEquals(Operation.builder().id(2L).sourceAccount(10L).targetAccount(11L).amount(100L).timestamp(timestamp)
+                .idempotencyKey("ключ-1").build(), operations.get(1));
+        Assertions.assertEquals(List.of(0L, 100L), balances.subList(2, 4));
+        Assertions.assertNull(balances.get(0));
+    }
+
+    @Test
+    void concurrentAppendsAcrossSegments() throws Exception {
+        //Segment of 14 records forces several rolls
+        final TransferJournal journal = new TransferJournal(directory, 1024, 8, 1000);
+        journal.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (long i = 1; i <= 200; i++) {
+            final Operation operation = Operation.builder().id(i).targetAccount(i).amount(i).timestamp(Instant.now()).build();
+            futures.add(CompletableFuture.supplyAsync(() -> journal.append(operation, null, operation.getAmount()), executor)
+                    .thenCompose(durable -> durable));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        journal.stop();
+        executor.shutdown();
+
+        final long[] count = new long[1];
+        new TransferJournal(directory, 1024, 8, 1000).replay((operation, sourceBalance, targetBalance) -> {
+            Assertions.assertEquals(operation.getAmount(), targetBalance);
+            count[0]++;
+        });
+        Assertions.assertEquals(200, count[0]);
+    }
+
+    @Test
+    void checkpointDeletesSavedSegments() throws Exception {
+        final TransferJournal journal = new TransferJournal(directory, 1024, 8, 100);
+        journal.start();
+        for (long i = 1; i <= 100; i++) {
+            journal.append(Operation.builder().id(i).targetAccount(i).amount(i).timestamp(Instant.now()).build(),
+                    null, i).join();
+        }
+        final long segments = countSegments();
+        journal.checkpoint(50);
+        Assertions.assertTrue(countSegments() < segments);
+        journal.stop();
+
+        //Every operation after checkpoint is still there
+        final List<Long> ids = new ArrayList<>();
+        final TransferJournal restarted = new TransferJournal(directory, 1024, 8, 100);
+        restarted.replay((operation, sourceBalance, targetBalance) -> ids.add(operation.getId()));
+        Assertions.assertTrue(ids.get(0) <= 51);
+        Assertions.assertEquals(100L, ids.get(ids.size() - 1));
+
+        //Replayed segments are deleted by checkpoint after restart, appends go to a new one
+        restarted.start();
+        restarted.checkpoint(100);
+        Assertions.assertEquals(1, countSegments());
+        restarted.stop();
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.syuzhakov.moneytranfer.load;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Optional;
+import java.util.Properties;
+
+@Getter
+public class LoadConfiguration {
+    private int threads = 16;
+    private boolean virtualThreads = false;
+    private long durationSeconds = 30;
+    //Requests per second of all threads together, 0 means every thread sends next request right after response
+    private int rate = 0;
+    private int accounts = 1000;
+    //Zipf exponent for picking accounts, 0 means uniform
+    private double skew = 1.0;
+    private int createAccountWeight = 5;
+    private int topupWeight = 25;
+    private int transferWeight = 70;
+    private long seed = 20190601L;
+
+    public LoadConfiguration(Properties properties) {
+        threads = Optional.ofNullable(properties.getProperty("load.threads"))
+                .map(Integer::parseInt).orElse(threads);
+        virtualThreads = "true".equals(properties.getProperty("load.virtualThreads"));
+        durationSeconds = Optional.ofNullable(properties.getProperty("load.durationSeconds"))
+                .map(Long::parseLong).orElse(durationSeconds);
+        rate = Optional.ofNullable(properties.getProperty("load.rate"))
+                .map(Integer::parseInt).orElse(rate);
+        accounts = Optional.ofNullable(properties.getProperty("load.accounts"))
+                .map(Integer::parseInt).orElse(accounts);
+        skew = Optional.ofNullable(properties.getProperty("load.skew"))
+                .map(Double::parseDouble).orElse(skew);
+        createAccountWeight = Optional.ofNullable(properties.getProperty("load.createAccountWeight"))
+                .map(Integer::parseInt).orElse(createAccountWeight);
+        topupWeight = Optional.ofNullable(properties.getProperty("load.topupWeight"))
+                .map(Integer::parseInt).orElse(topupWeight);
+        transferWeight = Optional.ofNullable(properties.getProperty("load.transferWeight"))
+                .map(Integer::parseInt).orElse(transferWeight);
+        seed = Optional.ofNullable(properties.getProperty("load.seed"))
+                .map(Long::parseLong).orElse(seed);
+    }
+
+    @Builder
+    public LoadConfiguration(Integer threads, boolean virtualThreads, Long durationSeconds, Integer rate,
+                             Integer accounts, Double skew,
+                             Integer createAccountWeight, Integer topupWeight, Integer transferWeight, Long seed) {
+        this.threads = Optional.ofNullable(threads).orElse(this.threads);
+        this.virtualThreads = virtualThreads;
+        this.durationSeconds = Optional.ofNullable(durationSeconds).orElse(this.durationSeconds);
+        this.rate = Optional.ofNullable(rate).orElse(this.rate);
+        this.accounts = Optional.ofNullable(accounts).orElse(this.accounts);
+        this.skew = Optional.ofNullable(skew).orElse(this.skew);
+        this.createAccountWeight = Optional.ofNullable(createAccountWeight).orElse(this.createAccountWeight);
+        this.topupWeight = Optional.ofNullable(topupWeight).orElse(this.topupWeight);
+        this.transferWeight = Optional.ofNullable(transferWeight).orElse(this.transferWeight);
+        this.seed = Optional.ofNullable(seed).orElse(this.seed);
+    }
+}
@@ -0,0 +1,235 @@
+package org.syuzhakov.moneytranfer.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.CacheConfiguration;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.server.JacksonFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Closed or open loop HTTP load against running application. Prepares accounts with large balance,
+ * then mixes account creation, topups and transfers between accounts picked with configured skew.
+ * With fixed rate latency is measured from the time request was due to be sent, so a stalled server
+ * is not hidden by requests that were never sent (coordinated omission).
+ */
+public class LoadGenerator {
+    public static final String CREATE_ACCOUNT = "PUT /account";
+    public static final String TOPUP = "POST /operation/transfer topup";
+    public static final String TRANSFER = "POST /operation/transfer";
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+    private final String baseUrl;
+    private final LoadConfiguration configuration;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper mapper = JacksonFactory.getDefaultRestMapper();
+    private final LoadReport report = new LoadReport();
+
+    public LoadGenerator(String baseUrl, LoadConfiguration configuration) {
+        this.baseUrl = baseUrl;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Runs load against application at "load.url" or against application started in-process with
+     * application.properties from classpath. Every property may be overridden with system property.
+     */
+    public static void main(String[] args) throws Exception {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = App.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (inputStream != null) {
+                properties.load(inputStream);
+            }
+        }
+        properties.setProperty("server.port", "0");
+        properties.putAll(System.getProperties());
+
+        App app = null;
+        String baseUrl = properties.getProperty("load.url");
+        if (baseUrl == null) {
+            app = App.builder()
+                    .databaseConfiguration(new DatabaseConfiguration(properties))
+                    .webServiceConfiguration(new WebServiceConfiguration(properties))
+                    .operationConfiguration(new OperationConfiguration(properties))
+                    .cacheConfiguration(new CacheConfiguration(properties))
+                    .start();
+            baseUrl = "http://127.0.0.1:" + app.getListenerPort();
+        }
+        try {
+            new LoadGenerator(baseUrl, new LoadConfiguration(properties)).run().print(System.out);
+        } finally {
+            if (app != null) {
+                app.stop();
+            }
+        }
+    }
+
+    public LoadReport run() throws InterruptedException, ExecutionException {
+        final ExecutorService executor = createExecutor();
+        try {
+            //Prepare accounts, not measured
+            final long[] accountIds = new long[configuration.getAccounts()];
+            final List<Future<?>> preparations = new ArrayList<>();
+            for (int i = 0; i < accountIds.length; i++) {
+                final int index = i;
+                preparations.add(executor.submit(() -> {
+                    accountIds[index] = createAccount(null);
+                    transfer(TOPUP, null, accountIds[index], INITIAL_BALANCE, null);
+                    return null;
+                }));
+            }
+            for (Future<?> preparation : preparations) {
+                preparation.get();
+            }
+
+            //Run load
+            final ZipfSampler sampler = new ZipfSampler(accountIds.length, configuration.getSkew());
+            final long start = System.nanoTime();
+            final long deadline = start + configuration.getDurationSeconds() * 1_000_000_000L;
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < configuration.getThreads(); i++) {
+                final int workerIndex = i;
+                workers.add(executor.submit(() -> {
+                    runWorker(workerIndex, accountIds, sampler, start, deadline);
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            report.setDurationNanos(System.nanoTime() - start);
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runWorker(int workerIndex, long[] accountIds, ZipfSampler sampler, long start, long deadline) {
+        final SplittableRandom random = new SplittableRandom(configuration.getSeed() + workerIndex);
+        final int totalWeight = configuration.getCreateAccountWeight() + configuration.getTopupWeight()
+                + configuration.getTransferWeight();
+        final long interval = configuration.getRate() > 0
+                ? 1_000_000_000L * configuration.getThreads() / configuration.getRate()
+                : 0;
+        long dueTime = start + interval * workerIndex / configuration.getThreads();
+        while (true) {
+            final long now = System.nanoTime();
+            final long startTime;
+            if (interval > 0) {
+                if (dueTime > now) {
+                    LockSupport.parkNanos(dueTime - now);
+                }
+                startTime = dueTime;
+                dueTime += interval;
+            } else {
+                startTime = now;
+            }
+            if (startTime >= deadline) {
+                return;
+            }
+
+            final int action = random.nextInt(totalWeight);
+            if (action < configuration.getCreateAccountWeight()) {
+                createAccount(startTime);
+            } else if (action < configuration.getCreateAccountWeight() + configuration.getTopupWeight()) {
+                transfer(TOPUP, null, accountIds[sampler.next(random)], 1 + random.nextInt(100), startTime);
+            } else {
+                final int target = sampler.next(random);
+                int source = sampler.next(random);
+                while (source == target && accountIds.length > 1) {
+                    source = sampler.next(random);
+                }
+                transfer(TRANSFER, accountIds[source], accountIds[target], 1 + random.nextInt(100), startTime);
+            }
+        }
+    }
+
+    /**
+     * @param startTime time to measure latency from, null if request must not be recorded
+     */
+    private long createAccount(Long startTime) {
+        final HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + "/account"))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(toJson(new Account(null, AccountStatus.ACTIVE, null))));
+        final HttpResponse<byte[]> response = send(CREATE_ACCOUNT, request, startTime);
+        if (response == null || response.statusCode() != 200) {
+            return 0;
+        }
+        try {
+            return mapper.readValue(response.body(), Account.class).getId();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void transfer(String endpoint, Long sourceAccountId, Long targetAccountId, long amount, Long startTime) {
+        final Operation operation = Operation.builder()
+                .sourceAccount(sourceAccountId)
+                .targetAccount(targetAccountId)
+                .amount(amount)
+                .build();
+        send(endpoint, HttpRequest.newBuilder(URI.create(baseUrl + "/operation/transfer"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(toJson(operation))), startTime);
+    }
+
+    private HttpResponse<byte[]> send(String endpoint, HttpRequest.Builder request, Long startTime) {
+        final long requestStart = startTime == null ? System.nanoTime() : startTime;
+        HttpResponse<byte[]> response;
+        int statusCode;
+        try {
+            response = client.send(request.header("Content-Type", "application/json").build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            statusCode = response.statusCode();
+        } catch (IOException e) {
+            //Status 0 stands for connection errors
+            response = null;
+            statusCode = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (startTime != null) {
+            report.record(endpoint, statusCode, System.nanoTime() - requestStart);
+        }
+        return response;
+    }
+
+    private byte[] toJson(Object body) {
+        try {
+            return mapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        if (!configuration.isVirtualThreads()) {
+            return Executors.newFixedThreadPool(configuration.getThreads());
+        }
+        //Looked up reflectively, so load generator still compiles for Java 11
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later", e);
+        }
+    }
+}
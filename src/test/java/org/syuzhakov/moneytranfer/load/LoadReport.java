@@ -0,0 +1,83 @@
+package org.syuzhakov.moneytranfer.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and response codes of every endpoint.
+ */
+public class LoadReport {
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private volatile long durationNanos;
+
+    void record(String endpoint, int statusCode, long latencyNanos) {
+        final Endpoint stats = endpoints.computeIfAbsent(endpoint, ignored -> new Endpoint());
+        stats.latencies.recordValue(Math.min(latencyNanos, MAX_LATENCY_NANOS));
+        stats.statusCodes.computeIfAbsent(statusCode, ignored -> new LongAdder()).increment();
+    }
+
+    void setDurationNanos(long durationNanos) {
+        this.durationNanos = durationNanos;
+    }
+
+    public long getRequests(String endpoint) {
+        final Endpoint stats = endpoints.get(endpoint);
+        return stats == null ? 0 : stats.latencies.getTotalCount();
+    }
+
+    /**
+     * @return number of responses with status other than 2xx
+     */
+    public long getErrors(String endpoint) {
+        final Endpoint stats = endpoints.get(endpoint);
+        if (stats == null) {
+            return 0;
+        }
+        return stats.statusCodes.entrySet().stream()
+                .filter(entry -> entry.getKey() / 100 != 2)
+                .mapToLong(entry -> entry.getValue().sum())
+                .sum();
+    }
+
+    public Histogram getLatencies(String endpoint) {
+        final Endpoint stats = endpoints.get(endpoint);
+        return stats == null ? null : stats.latencies;
+    }
+
+    public void print(PrintStream out) {
+        final double seconds = durationNanos / 1e9;
+        out.printf("%-32s %10s %10s %10s %10s %10s %10s  %s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "status codes");
+        new TreeMap<>(endpoints).forEach((name, stats) -> {
+            final Histogram latencies = stats.latencies;
+            final Map<Integer, Long> statusCodes = new TreeMap<>();
+            stats.statusCodes.forEach((code, count) -> statusCodes.put(code, count.sum()));
+            out.printf("%-32s %10d %10.1f %10.3f %10.3f %10.3f %10.3f  %s%n",
+                    name,
+                    latencies.getTotalCount(),
+                    latencies.getTotalCount() / seconds,
+                    millis(latencies.getValueAtPercentile(50)),
+                    millis(latencies.getValueAtPercentile(99)),
+                    millis(latencies.getValueAtPercentile(99.9)),
+                    millis(latencies.getMaxValue()),
+                    statusCodes);
+        });
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static class Endpoint {
+        private final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY_NANOS, 3);
+        private final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,61 @@
+package org.syuzhakov.moneytranfer.load;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+
+import java.util.UUID;
+
+/**
+ * Load runs take wall time and assert on timing, so they are run only on demand, with -Dload.enabled=true.
+ */
+@EnabledIfSystemProperty(named = "load.enabled", matches = "true")
+class LoadTest {
+
+    @Test
+    void shortLoad() throws Exception {
+        final App app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .balanceStorage(BalanceStorage.CURRENT)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .build())
+                .start();
+        try {
+            final LoadReport report = new LoadGenerator("http://127.0.0.1:" + app.getListenerPort(),
+                    LoadConfiguration.builder()
+                            .threads(4)
+                            .durationSeconds(1L)
+                            .rate(200)
+                            .accounts(20)
+                            .build())
+                    .run();
+            report.print(System.out);
+
+            Assertions.assertTrue(report.getRequests(LoadGenerator.TRANSFER) > 0);
+            Assertions.assertTrue(report.getRequests(LoadGenerator.TOPUP) > 0);
+            Assertions.assertEquals(0, report.getErrors(LoadGenerator.TOPUP));
+            Assertions.assertEquals(0, report.getErrors(LoadGenerator.CREATE_ACCOUNT));
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Full load run, configured with system properties, e.g.
+     * mvn test -Dtest=LoadTest -Dload.enabled=true -Dload.threads=64 -Dload.durationSeconds=60
+     */
+    @Test
+    void configuredLoad() throws Exception {
+        LoadGenerator.main(new String[0]);
+    }
+}
@@ -0,0 +1,29 @@
+package org.syuzhakov.moneytranfer.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Samples indexes from [0, size) with Zipf distribution: index k is picked with probability proportional to 1/(k+1)^s.
+ * Exponent 0 gives uniform distribution. Shared with benchmarks through test jar.
+ */
+public final class ZipfSampler {
+    private final double[] cumulativeProbabilities;
+
+    public ZipfSampler(int size, double exponent) {
+        cumulativeProbabilities = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    public int next(SplittableRandom random) {
+        final int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, cumulativeProbabilities.length - 1);
+    }
+}
@@ -0,0 +1,122 @@
+package org.syuzhakov.moneytranfer.logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.fluent.Request;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.AccessLogMode;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AsyncFileAccessLogReceiverTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void messagesFromManyThreadsAreWritten() throws Exception {
+        final AsyncFileAccessLogReceiver receiver = new AsyncFileAccessLogReceiver(directory, 1 << 16,
+                1024 * 1024, 2);
+        receiver.start();
+        final ExecutorService producers = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int producer = thread;
+                futures.add(producers.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        receiver.logMessage(producer + "-" + i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            producers.shutdown();
+        }
+        receiver.stop();
+
+        final List<String> lines = Files.readAllLines(directory.resolve("access.log"));
+        Assertions.assertEquals(4000, lines.size());
+        Assertions.assertEquals(0, receiver.getDropped());
+        for (int thread = 0; thread < 4; thread++) {
+            //Order of every producer is kept
+            final String prefix = thread + "-";
+            final List<String> producerLines = new ArrayList<>();
+            lines.stream().filter(line -> line.startsWith(prefix)).forEach(producerLines::add);
+            for (int i = 0; i < 1000; i++) {
+                Assertions.assertEquals(prefix + i, producerLines.get(i));
+            }
+        }
+    }
+
+    @Test
+    void fileIsRotated() throws Exception {
+        final AsyncFileAccessLogReceiver receiver = new AsyncFileAccessLogReceiver(directory, 1024, 100, 2);
+        receiver.start();
+        for (int i = 0; i < 40; i++) {
+            //10 bytes per line with line break
+            receiver.logMessage(String.format("line-%04d", i));
+        }
+        receiver.stop();
+
+        Assertions.assertEquals(List.of("line-0030", "line-0031", "line-0032", "line-0033", "line-0034",
+                "line-0035", "line-0036", "line-0037", "line-0038", "line-0039"),
+                Files.readAllLines(directory.resolve("access.log")));
+        Assertions.assertEquals("line-0020", Files.readAllLines(directory.resolve("access.log.1")).get(0));
+        Assertions.assertEquals("line-0010", Files.readAllLines(directory.resolve("access.log.2")).get(0));
+        Assertions.assertFalse(Files.exists(directory.resolve("access.log.3")));
+    }
+
+    @Test
+    void messagesAreDroppedWhenBufferIsFull() throws Exception {
+        //Writer is not started, so nothing is taken from buffer
+        final AsyncFileAccessLogReceiver receiver = new AsyncFileAccessLogReceiver(directory, 8, 1024, 2);
+        for (int i = 0; i < 10; i++) {
+            receiver.logMessage("message-" + i);
+        }
+        Assertions.assertEquals(2, receiver.getDropped());
+    }
+
+    @Test
+    void requestsAreLoggedAsJsonLines() throws Exception {
+        final App app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(true)
+                        .port(0)
+                        .accessLogMode(AccessLogMode.FILE)
+                        .accessLogDirectory(directory.toString())
+                        .build())
+                .start();
+        try {
+            Request.Get("http://127.0.0.1:" + app.getListenerPort() + "/account/42?x=1").execute().discardContent();
+        } finally {
+            app.stop();
+        }
+
+        final List<String> lines = Files.readAllLines(directory.resolve("access.log"));
+        Assertions.assertEquals(1, lines.size());
+        final JsonNode line = new ObjectMapper().readTree(lines.get(0));
+        Assertions.assertEquals("GET", line.get("method").asText());
+        Assertions.assertEquals("/account/42?x=1", line.get("uri").asText());
+        Assertions.assertEquals(204, line.get("status").asInt());
+        Assertions.assertTrue(line.get("micros").asLong() >= 0);
+    }
+}
@@ -0,0 +1,44 @@
+package org.syuzhakov.moneytranfer.server;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.error.ErrorResponse;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+class ModelJsonModuleTest {
+    private static final Instant NOW = Instant.parse("2019-06-01T12:00:00.123456Z");
+    //Reflective serializers without indentation are the reference format
+    private final ObjectWriter reflective = JacksonFactory.createPrettyRestObjectMapper().writer()
+            .without(SerializationFeature.INDENT_OUTPUT);
+    private final ObjectWriter compact = JacksonFactory.getDefaultRestMapper().writer();
+
+    @Test
+    void sameOutputAsReflectiveSerializers() throws Exception {
+        assertSameJson(Operation.builder().id(1L).sourceAccount(2L).targetAccount(3L).amount(4L).timestamp(NOW)
+                .idempotencyKey("key \"1\"").build());
+        assertSameJson(Operation.builder().targetAccount(3L).amount(4L).build());
+        assertSameJson(Balance.builder().account(1L).operation(2L).balance(-3L).actuality(NOW).build());
+        assertSameJson(Balance.builder().account(1L).balance(0L).build());
+        assertSameJson(Account.builder().id(1L).status(AccountStatus.BLOCKED).actuality(NOW).slots(4).build());
+        assertSameJson(new Account());
+        assertSameJson(new ErrorResponse(400, 400001, "Amount must be positive"));
+        assertSameJson(Arrays.asList(
+                TransferResult.builder().operation(Operation.builder().id(1L).amount(1L).build()).build(),
+                TransferResult.builder().error(new ErrorResponse(500, 500010, "Not enough money")).build()));
+        assertSameJson(Collections.singletonMap(1L, Balance.builder().account(1L).balance(1L).build()));
+    }
+
+    private void assertSameJson(Object value) throws Exception {
+        Assertions.assertEquals(reflective.writeValueAsString(value), compact.writeValueAsString(value));
+    }
+}
@@ -0,0 +1,51 @@
+package org.syuzhakov.moneytranfer.server;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class ThreadPerTaskExecutorTest {
+
+    @Test
+    void tasksBeyondLimitAreRejected() throws Exception {
+        //Platform threads stand in for virtual ones, executor only counts tasks in progress
+        final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(Executors.newCachedThreadPool(), 2);
+        try {
+            final CountDownLatch started = new CountDownLatch(2);
+            final CountDownLatch release = new CountDownLatch(1);
+            for (int i = 0; i < 2; i++) {
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(2, executor.getActiveCount());
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+
+            release.countDown();
+            //Finished tasks return their permits
+            final CountDownLatch done = new CountDownLatch(1);
+            for (long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5); ; ) {
+                try {
+                    executor.execute(done::countDown);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    Assertions.assertTrue(System.nanoTime() < deadline);
+                    Thread.sleep(1);
+                }
+            }
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.BatchMode;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class BatchOperationServiceTest {
+    private App app;
+
+    @BeforeEach
+    void beforeEach() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .operationConfiguration(OperationConfiguration.builder()
+                        .batchChunkSize(2)
+                        .build())
+                .start();
+    }
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void splitAccountCreditsGoToSlotsAndDebitsBorrowFromThem() {
+        final long splitAccount = app.getAccountService().createNewAccount(
+                Account.builder().status(AccountStatus.ACTIVE).slots(4).build()).getId();
+        final long target = newAccount();
+        final List<Operation> operations = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            operations.add(Operation.builder().targetAccount(splitAccount).amount(10L).build());
+        }
+        //Second debit has nothing left to borrow
+        operations.add(Operation.builder().sourceAccount(splitAccount).targetAccount(target).amount(30L).build());
+        operations.add(Operation.builder().sourceAccount(splitAccount).targetAccount(target).amount(30L).build());
+        operations.add(Operation.builder().targetAccount(splitAccount).amount(5L).build());
+
+        final List<TransferResult> results = app.getBatchOperationService().transferMoney(operations,
+                BatchMode.BEST_EFFORT);
+        Assertions.assertEquals(8, results.size());
+        Assertions.assertNotNull(results.get(5).getOperation());
+        Assertions.assertNotNull(results.get(6).getError());
+        Assertions.assertNotNull(results.get(7).getOperation());
+
+        final Map<Integer, Long> slots = app.getBalanceSlotRepository().getSlotBalances(splitAccount, false);
+        Assertions.assertEquals(25L, slots.values().stream().mapToLong(Long::longValue).sum());
+        Assertions.assertEquals(25L, app.getAccountService().getBalance(splitAccount).getBalance());
+        Assertions.assertEquals(30L, app.getAccountService().getBalance(target).getBalance());
+    }
+
+    @Test
+    void bestEffortReturnsCommittedChunksWhenDatabaseFails() throws Exception {
+        final long account = newAccount();
+        try (Connection connection = app.getConnectionFactory().getDataSource().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("alter table operation add constraint no_thirteen check (amount <> 13)");
+        }
+        final List<Operation> operations = new ArrayList<>();
+        for (long amount = 10; amount < 16; amount++) {
+            operations.add(Operation.builder().targetAccount(account).amount(amount).build());
+        }
+
+        final List<TransferResult> results = app.getBatchOperationService().transferMoney(operations,
+                BatchMode.BEST_EFFORT);
+        Assertions.assertEquals(6, results.size());
+        //First chunk is committed, second one fails in database and the third one is not applied
+        Assertions.assertNotNull(results.get(0).getOperation());
+        Assertions.assertNotNull(results.get(1).getOperation());
+        for (TransferResult result : results.subList(2, 6)) {
+            Assertions.assertNull(result.getOperation());
+            Assertions.assertEquals(500, result.getError().getHttpStatus());
+            Assertions.assertTrue(result.getError().getMessage().startsWith("Not applied, batch stopped at"));
+        }
+        Assertions.assertEquals(21L, app.getAccountService().getBalance(account).getBalance());
+    }
+
+    private long newAccount() {
+        return app.getAccountService().createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+    }
+}
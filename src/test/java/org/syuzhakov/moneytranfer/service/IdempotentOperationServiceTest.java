@@ -0,0 +1,97 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.UUID;
+
+public class IdempotentOperationServiceTest {
+    private App app;
+    private OperationService operationService;
+    private AccountService accountService;
+
+    @BeforeEach
+    void beforeEach() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .start();
+        accountService = app.getAccountService();
+        operationService = app.getOperationService();
+    }
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void repeatedTransferWithIdempotencyKey() {
+        final long accountId = accountWithMoney(1000L);
+        final Operation operation = operationService.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(100L).idempotencyKey("withdraw-1").build());
+        //Repeated request is answered from memory
+        final Operation repeated = operationService.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(100L).idempotencyKey("withdraw-1").build());
+        Assertions.assertEquals(operation.getId(), repeated.getId());
+        Assertions.assertEquals("withdraw-1", repeated.getIdempotencyKey());
+        //Request repeated after the window is answered from database, restart is emulated with a new service
+        final OperationService restarted = new IdempotentOperationService(
+                new OperationServiceImpl(app.getAccountRepository(), app.getBalanceRepository(),
+                        app.getBalanceSlotRepository(), app.getOperationRepository()),
+                app.getOperationRepository(), app.getConnectionFactory(), new BoundedCache<>("test", 10, 60_000));
+        final Operation repeatedLater = restarted.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(100L).idempotencyKey("withdraw-1").build());
+        Assertions.assertEquals(operation.getId(), repeatedLater.getId());
+        Assertions.assertEquals(900L, accountService.getBalance(accountId).getBalance());
+        //Other key makes new operation
+        final Operation other = operationService.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(100L).idempotencyKey("withdraw-2").build());
+        Assertions.assertNotEquals(operation.getId(), other.getId());
+        Assertions.assertEquals(800L, accountService.getBalance(accountId).getBalance());
+        Assertions.assertThrows(ValidationException.class, () -> operationService.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(100L).idempotencyKey("x".repeat(65)).build()));
+    }
+
+    @Test
+    void repeatedKeyWithOtherTransferIsRejected() {
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1000L);
+        operationService.transferMoney(Operation.builder()
+                .sourceAccount(account1).targetAccount(account2).amount(100L).idempotencyKey("transfer-1").build());
+        Assertions.assertThrows(ValidationException.class, () -> operationService.transferMoney(Operation.builder()
+                .sourceAccount(account1).targetAccount(account2).amount(200L).idempotencyKey("transfer-1").build()));
+        Assertions.assertThrows(ValidationException.class, () -> operationService.transferMoney(Operation.builder()
+                .sourceAccount(account2).targetAccount(account1).amount(100L).idempotencyKey("transfer-1").build()));
+        //Mismatch is found in database too
+        final OperationService restarted = new IdempotentOperationService(
+                new OperationServiceImpl(app.getAccountRepository(), app.getBalanceRepository(),
+                        app.getBalanceSlotRepository(), app.getOperationRepository()),
+                app.getOperationRepository(), app.getConnectionFactory(), new BoundedCache<>("test", 10, 60_000));
+        Assertions.assertThrows(ValidationException.class, () -> restarted.transferMoney(Operation.builder()
+                .sourceAccount(account1).amount(100L).idempotencyKey("transfer-1").build()));
+        Assertions.assertEquals(900L, accountService.getBalance(account1).getBalance());
+        Assertions.assertEquals(1100L, accountService.getBalance(account2).getBalance());
+    }
+
+    private long accountWithMoney(long money) {
+        final Long accountId = accountService.createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        return operationService.transferMoney(Operation.builder().targetAccount(accountId).amount(money).build()).getTargetAccount();
+    }
+}
@@ -0,0 +1,288 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.cache.BoundedCache;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationEngine;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.OperationOutcomeUnknownException;
+import org.syuzhakov.moneytranfer.error.ServiceUnavailableException;
+import org.syuzhakov.moneytranfer.error.UnexpectedException;
+import org.syuzhakov.moneytranfer.ledger.LedgerWriter;
+import org.syuzhakov.moneytranfer.ledger.TransferJournal;
+import org.syuzhakov.moneytranfer.metrics.MetricRegistry;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class LedgerOperationServiceTest extends OperationServiceTest {
+    @Override
+    protected OperationConfiguration operationConfiguration() {
+        return OperationConfiguration.builder()
+                .engine(OperationEngine.LEDGER)
+                .build();
+    }
+
+    @Test
+    void balancesArePersistedToDatabase() {
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1L);
+        final Operation operation = operationService.transferMoney(
+                Operation.builder().sourceAccount(account1).amount(300L).targetAccount(account2).build());
+        //Wait for background writer
+        app.getLedgerWriter().stop();
+
+        final Balance balance1 = app.getBalanceRepository().getBalance(account1, false);
+        Assertions.assertEquals(700L, balance1.getBalance());
+        Assertions.assertEquals(operation.getId(), balance1.getOperation());
+        final Balance balance2 = app.getBalanceRepository().getBalance(account2, false);
+        Assertions.assertEquals(301L, balance2.getBalance());
+        Assertions.assertEquals(operation.getId(), balance2.getOperation());
+    }
+
+    @Test
+    void writerStopsOnOperationRejectedByDatabase() {
+        final long accountId = accountWithMoney(1L);
+        //Bypasses idempotency check, second operation violates unique key in database
+        final OperationService unchecked = new LedgerOperationServiceImpl(app.getLedger(), app.getLedgerWriter());
+        final Operation saved = unchecked.transferMoney(
+                Operation.builder().targetAccount(accountId).amount(10L).idempotencyKey("key").build());
+        unchecked.transferMoney(Operation.builder().targetAccount(accountId).amount(20L).idempotencyKey("key").build());
+        Assertions.assertThrows(UnexpectedException.class, () -> app.getLedgerWriter().awaitSaved());
+
+        Assertions.assertThrows(ServiceUnavailableException.class, () -> operationService.transferMoney(
+                Operation.builder().targetAccount(accountId).amount(30L).build()));
+        app.getLedgerWriter().stop();
+        //Database has no balance of the rejected operation
+        final Balance balance = app.getBalanceRepository().getBalance(accountId, false);
+        Assertions.assertEquals(11L, balance.getBalance());
+        Assertions.assertEquals(saved.getId(), balance.getOperation());
+        Assertions.assertTrue(app.getMetricRegistry().scrape().contains("ledger_writer_failed 1"));
+    }
+
+    @Test
+    void repeatedKeyIsFoundBeforeWriterSavesOperation() {
+        final long accountId = accountWithMoney(1L);
+        //Writer is not started and cache keeps nothing, so operation can be found only among unsaved ones
+        final LedgerWriter writer = new LedgerWriter(app.getConnectionFactory(), app.getBalanceRepository(),
+                app.getOperationRepository(), 16, 16, new MetricRegistry());
+        final OperationService service = new IdempotentOperationService(
+                new LedgerOperationServiceImpl(app.getLedger(), writer), app.getOperationRepository(),
+                app.getConnectionFactory(), new BoundedCache<>("unsaved-test", 0, 0L), writer::getUnsavedOperation);
+        final Operation request = Operation.builder().targetAccount(accountId).amount(10L).idempotencyKey("key").build();
+
+        final Operation first = app.getConnectionFactory().executeInTransaction(() -> service.transferMoney(request));
+        final Operation second = app.getConnectionFactory().executeInTransaction(() -> service.transferMoney(request));
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(11L, app.getLedger().readBalance(accountId).getBalance());
+    }
+
+    @Test
+    void ledgerIsNotChangedByRolledBackAccountTransaction() {
+        final long accountId = accountWithMoney(100L);
+        final List<Long> created = new ArrayList<>();
+        Assertions.assertThrows(IllegalStateException.class, () ->
+                app.getConnectionFactory().executeInTransaction(() -> {
+                    created.add(accountService.createNewAccount(
+                            Account.builder().status(AccountStatus.ACTIVE).build()).getId());
+                    accountService.updateAccount(
+                            Account.builder().id(accountId).status(AccountStatus.BLOCKED).build());
+                    throw new IllegalStateException("Rolled back");
+                }));
+        //Neither the account nor the status the database rolled back is seen by transfers
+        Assertions.assertNull(app.getLedger().readStatus(created.get(0)));
+        Assertions.assertEquals(AccountStatus.ACTIVE, app.getLedger().readStatus(accountId));
+        operationService.transferMoney(Operation.builder().targetAccount(accountId).amount(10L).build());
+        Assertions.assertEquals(110L, app.getLedger().readBalance(accountId).getBalance());
+    }
+
+    @Test
+    void journalRestoresBalancesOnStartup(@TempDir Path journalDirectory) throws IOException {
+        final App first = startWithJournal(journalDirectory);
+        final Long accountId = first.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        first.getOperationService().transferMoney(Operation.builder().targetAccount(accountId).amount(500L).build());
+        final Operation last = first.getOperationService()
+                .transferMoney(Operation.builder().sourceAccount(accountId).amount(200L).build());
+        first.stop();
+
+        //Fresh database, balances come from journal only
+        final App second = startWithJournal(journalDirectory);
+        final Balance balance = second.getLedger().readBalance(accountId);
+        Assertions.assertEquals(300L, balance.getBalance());
+        Assertions.assertEquals(last.getId(), balance.getOperation());
+        //Replayed operations are saved, so only the new segment is left
+        try (Stream<Path> segments = Files.list(journalDirectory)) {
+            Assertions.assertEquals(1, segments.count());
+        }
+        second.stop();
+    }
+
+    @Test
+    void journalReplaysOperationsSavedOutOfOrder(@TempDir Path journalDirectory) throws SQLException {
+        //Database outlives both runs, as a file database would
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+        final App first = startWithJournal(journalDirectory, url, BalanceStorage.CURRENT);
+        final long account1 = first.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        final long account2 = first.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        final Operation lost = first.getOperationService()
+                .transferMoney(Operation.builder().targetAccount(account1).amount(10L).build());
+        final Operation saved = first.getOperationService()
+                .transferMoney(Operation.builder().targetAccount(account2).amount(20L).build());
+        first.stop();
+
+        //Crash after writer saved the later operation but not the earlier one
+        try (Connection connection = first.getConnectionFactory().getDataSource().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("delete from balance_history where operation_id = " + lost.getId());
+            statement.executeUpdate("delete from balance_current where operation_id = " + lost.getId());
+            statement.executeUpdate("delete from operation where id = " + lost.getId());
+        }
+
+        final App second = startWithJournal(journalDirectory, url, BalanceStorage.CURRENT);
+        second.getLedgerWriter().stop();
+        final List<Long> operations = new ArrayList<>();
+        second.getConnectionFactory().executeInTransaction(() -> second.getOperationRepository()
+                .forEachOperation(null, 0L, 10, operation -> operations.add(operation.getId())));
+        Assertions.assertEquals(Arrays.asList(lost.getId(), saved.getId()), operations);
+        Assertions.assertEquals(10L, second.getBalanceRepository().getBalance(account1, false).getBalance());
+        Assertions.assertEquals(20L, second.getBalanceRepository().getBalance(account2, false).getBalance());
+        second.stop();
+    }
+
+    @Test
+    void transferIsNotSavedWhenJournalCommitFails(@TempDir Path journalDirectory) {
+        final long accountId = accountWithMoney(100L);
+        final TransferJournal journal = new TransferJournal(journalDirectory, 4096, 16, 100) {
+            @Override
+            protected void force(MappedByteBuffer buffer) {
+                throw new UncheckedIOException(new IOException("Disk failure"));
+            }
+        };
+        journal.start();
+        final OperationService service =
+                new LedgerOperationServiceImpl(app.getLedger(), app.getLedgerWriter(), journal);
+
+        Assertions.assertThrows(OperationOutcomeUnknownException.class, () -> service.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(40L).build()));
+        //Writer never saves a transfer that is not durable and refuses further ones
+        Assertions.assertThrows(UnexpectedException.class, () -> app.getLedgerWriter().awaitSaved());
+        Assertions.assertThrows(ServiceUnavailableException.class, () -> service.transferMoney(
+                Operation.builder().sourceAccount(accountId).amount(10L).build()));
+        journal.stop();
+        app.getLedgerWriter().stop();
+        Assertions.assertEquals(100L, app.getBalanceRepository().getBalance(accountId, false).getBalance());
+    }
+
+    @Test
+    void transfersOfSameAccountShareJournalCommit(@TempDir Path journalDirectory) throws Exception {
+        final long accountId = accountWithMoney(100L);
+        final AtomicInteger forces = new AtomicInteger();
+        //Batch is committed only when both records are appended, long before linger passes
+        final TransferJournal journal = new TransferJournal(journalDirectory, 4096, 2, 60_000_000L) {
+            @Override
+            protected void force(MappedByteBuffer buffer) {
+                forces.incrementAndGet();
+                super.force(buffer);
+            }
+        };
+        journal.start();
+        final OperationService service =
+                new LedgerOperationServiceImpl(app.getLedger(), app.getLedgerWriter(), journal);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<Operation>> operations = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                operations.add(executor.submit(() -> service.transferMoney(
+                        Operation.builder().sourceAccount(accountId).amount(10L).build())));
+            }
+            for (Future<Operation> operation : operations) {
+                Assertions.assertNotNull(operation.get(10, TimeUnit.SECONDS).getId());
+            }
+        } finally {
+            executor.shutdownNow();
+            journal.stop();
+        }
+        Assertions.assertEquals(1, forces.get());
+        Assertions.assertEquals(80L, app.getLedger().readBalance(accountId).getBalance());
+    }
+
+    @Test
+    void journalKeepsOperationRejectedByDatabase(@TempDir Path journalDirectory) throws SQLException {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1";
+        final App first = startWithJournal(journalDirectory, url, BalanceStorage.CURRENT);
+        final long accountId = first.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        //Bypasses idempotency check, second operation violates unique key in database
+        final OperationService unchecked =
+                new LedgerOperationServiceImpl(first.getLedger(), first.getLedgerWriter(), first.getJournal());
+        unchecked.transferMoney(Operation.builder().targetAccount(accountId).amount(10L).idempotencyKey("key").build());
+        unchecked.transferMoney(Operation.builder().targetAccount(accountId).amount(20L).idempotencyKey("key").build());
+        Assertions.assertThrows(UnexpectedException.class, () -> first.getLedgerWriter().awaitSaved());
+        first.stop();
+
+        //Rejected again on replay, startup fails until the conflict is resolved in database
+        Assertions.assertThrows(UnexpectedException.class,
+                () -> startWithJournal(journalDirectory, url, BalanceStorage.CURRENT));
+        try (Connection connection = first.getConnectionFactory().getDataSource().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("update operation set idempotency_key = null where idempotency_key = 'key'");
+        }
+
+        final App second = startWithJournal(journalDirectory, url, BalanceStorage.CURRENT);
+        Assertions.assertEquals(30L, second.getLedger().readBalance(accountId).getBalance());
+        Assertions.assertEquals(30L, second.getBalanceRepository().getBalance(accountId, false).getBalance());
+        second.stop();
+    }
+
+    private App startWithJournal(Path journalDirectory) {
+        return startWithJournal(journalDirectory, "jdbc:h2:mem:" + UUID.randomUUID().toString(),
+                BalanceStorage.TEMPORAL);
+    }
+
+    private App startWithJournal(Path journalDirectory, String url, BalanceStorage balanceStorage) {
+        return App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url(url)
+                        .user("sa")
+                        .password("sa")
+                        .balanceStorage(balanceStorage)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .operationConfiguration(OperationConfiguration.builder()
+                        .engine(OperationEngine.LEDGER)
+                        .journalEnabled(true)
+                        .journalDirectory(journalDirectory.toString())
+                        .build())
+                .start();
+    }
+}
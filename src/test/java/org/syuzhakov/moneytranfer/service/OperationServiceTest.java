@@ -5,7 +5,9 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
 import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
 import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
 import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
 import org.syuzhakov.moneytranfer.error.ValidationException;
@@ -17,10 +19,21 @@ import org.syuzhakov.moneytranfer.model.Operation;
 import java.sql.SQLException;
 import java.util.UUID;
 
+/**
+ * Transfer rules every operation engine follows, subclasses run them against other engines.
+ */
 public class OperationServiceTest {
-    private App app;
-    private OperationService operationService;
-    private AccountService accountService;
+    protected App app;
+    protected OperationService operationService;
+    protected AccountService accountService;
+
+    protected OperationConfiguration operationConfiguration() {
+        return OperationConfiguration.builder().build();
+    }
+
+    protected BalanceStorage balanceStorage() {
+        return BalanceStorage.TEMPORAL;
+    }
 
     @BeforeEach
     void beforeEach() {
@@ -29,10 +42,12 @@ public class OperationServiceTest {
                         .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
                         .user("sa")
                         .password("sa")
+                        .balanceStorage(balanceStorage())
                         .build())
                 .webServiceConfiguration(WebServiceConfiguration.builder()
                         .enabled(false)
                         .build())
+                .operationConfiguration(operationConfiguration())
                 .start();
 
         accountService = app.getAccountService();
@@ -41,6 +56,7 @@ public class OperationServiceTest {
 
     @AfterEach
     void afterEach() {
+        app.stop();
         try {
             app.getConnectionFactory().getConnection().close();
         } catch (SQLException e) {
@@ -157,8 +173,7 @@ public class OperationServiceTest {
         });
     }
 
-
-    private long accountWithMoney(long money) {
+    protected long accountWithMoney(long money) {
         final Long accountId = accountService.createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
         return operationService.transferMoney(Operation.builder().targetAccount(accountId).amount(money).build()).getTargetAccount();
     }
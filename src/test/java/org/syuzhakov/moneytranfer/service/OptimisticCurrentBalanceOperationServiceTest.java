@@ -0,0 +1,10 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.syuzhakov.moneytranfer.config.BalanceStorage;
+
+public class OptimisticCurrentBalanceOperationServiceTest extends OptimisticOperationServiceTest {
+    @Override
+    protected BalanceStorage balanceStorage() {
+        return BalanceStorage.CURRENT;
+    }
+}
@@ -0,0 +1,125 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.config.ConcurrencyControl;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.database.BalanceRepository;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Balance;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class OptimisticOperationServiceTest extends OperationServiceTest {
+    private ExecutorService executor;
+
+    @Override
+    protected OperationConfiguration operationConfiguration() {
+        return OperationConfiguration.builder()
+                .concurrency(ConcurrencyControl.OPTIMISTIC)
+                .build();
+    }
+
+    @BeforeEach
+    void startExecutor() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void versionedUpdateFailsAfterConcurrentChange() {
+        final long account = accountWithMoney(100L);
+        final BalanceRepository balanceRepository = app.getBalanceRepository();
+        final Balance read = app.getConnectionFactory().executeInTransaction(
+                () -> balanceRepository.getBalanceVersion(account));
+        Assertions.assertEquals(100L, read.getBalance());
+
+        //Balance is changed after it was read
+        operationService.transferMoney(Operation.builder().targetAccount(account).amount(1L).build());
+        Assertions.assertFalse(app.getConnectionFactory().executeInTransaction(() -> {
+            final Operation operation = app.getOperationRepository().createOperation(
+                    Operation.builder().targetAccount(account).amount(5L).build());
+            return balanceRepository.updateBalance(account, read.getBalance() + 5L, operation, read.getOperation());
+        }));
+        Assertions.assertEquals(101L, accountService.getBalance(account).getBalance());
+
+        final Balance current = app.getConnectionFactory().executeInTransaction(
+                () -> balanceRepository.getBalanceVersion(account));
+        Assertions.assertTrue(app.getConnectionFactory().executeInTransaction(() -> {
+            final Operation operation = app.getOperationRepository().createOperation(
+                    Operation.builder().targetAccount(account).amount(5L).build());
+            return balanceRepository.updateBalance(account, current.getBalance() + 5L, operation,
+                    current.getOperation());
+        }));
+        Assertions.assertEquals(106L, accountService.getBalance(account).getBalance());
+    }
+
+    @Test
+    void concurrentTransfersOfHotAccounts() throws Exception {
+        final long account1 = accountWithMoney(10_000L);
+        final long account2 = accountWithMoney(10_000L);
+        final long account3 = accountService.createNewAccount(
+                Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        final List<Future<Operation>> operations = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final Operation operation;
+            if (i % 3 == 0) {
+                operation = Operation.builder().sourceAccount(account1).targetAccount(account2).amount(1L).build();
+            } else if (i % 3 == 1) {
+                operation = Operation.builder().sourceAccount(account2).targetAccount(account1).amount(2L).build();
+            } else {
+                operation = Operation.builder().targetAccount(account3).amount(1L).build();
+            }
+            operations.add(executor.submit(() -> operationService.transferMoney(operation)));
+        }
+        for (Future<Operation> operation : operations) {
+            Assertions.assertNotNull(operation.get().getId());
+        }
+        Assertions.assertEquals(10_100L, accountService.getBalance(account1).getBalance());
+        Assertions.assertEquals(9_900L, accountService.getBalance(account2).getBalance());
+        Assertions.assertEquals(100L, accountService.getBalance(account3).getBalance());
+    }
+
+    @Test
+    void insufficientBalanceIsCheckedAgainstCurrentVersion() throws Exception {
+        final long account = accountWithMoney(100L);
+        final List<Future<Operation>> operations = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            operations.add(executor.submit(() -> operationService.transferMoney(
+                    Operation.builder().sourceAccount(account).amount(10L).build())));
+        }
+        int rejected = 0;
+        for (Future<Operation> operation : operations) {
+            try {
+                operation.get();
+            } catch (Exception e) {
+                Assertions.assertTrue(e.getCause() instanceof OperationImpossibleException, e.toString());
+                rejected++;
+            }
+        }
+        //Exactly the money there was is withdrawn
+        Assertions.assertEquals(10, rejected);
+        Assertions.assertEquals(0L, accountService.getBalance(account).getBalance());
+    }
+
+    @Test
+    void optimisticModeRequiresConnectionFactory() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OperationServiceImpl(
+                app.getAccountRepository(), app.getBalanceRepository(), app.getBalanceSlotRepository(),
+                app.getOperationRepository(), ConcurrencyControl.OPTIMISTIC, null, 10));
+    }
+
+}
@@ -0,0 +1,163 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.LockConflictException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.BatchMode;
+import org.syuzhakov.moneytranfer.model.Operation;
+import org.syuzhakov.moneytranfer.model.TransferResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RetryingOperationServiceTest {
+    private App app;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void beforeEach() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .lockTimeoutMillis(200)
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .operationConfiguration(OperationConfiguration.builder()
+                        .retryMaxAttempts(2)
+                        .retryBackoffMillis(1L)
+                        .batchChunkSize(1)
+                        .build())
+                .start();
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+        app.stop();
+    }
+
+    @Test
+    void oppositeTransfersDoNotDeadlock() throws Exception {
+        final long account1 = accountWithMoney(10_000L);
+        final long account2 = accountWithMoney(10_000L);
+        final List<Future<Operation>> operations = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final Operation operation = i % 2 == 0
+                    ? Operation.builder().sourceAccount(account1).targetAccount(account2).amount(1L).build()
+                    : Operation.builder().sourceAccount(account2).targetAccount(account1).amount(2L).build();
+            operations.add(executor.submit(() -> app.getOperationService().transferMoney(operation)));
+        }
+        for (Future<Operation> operation : operations) {
+            Assertions.assertNotNull(operation.get().getId());
+        }
+        Assertions.assertEquals(10_100L, app.getAccountService().getBalance(account1).getBalance());
+        Assertions.assertEquals(9_900L, app.getAccountService().getBalance(account2).getBalance());
+        Assertions.assertFalse(app.getMetricRegistry().scrape().contains("error=\"deadlock\""));
+    }
+
+    @Test
+    void concurrentTopupsAreNotLost() throws Exception {
+        final long account = accountWithMoney(0L);
+        final List<Future<Operation>> operations = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            operations.add(executor.submit(() -> app.getOperationService().transferMoney(
+                    Operation.builder().targetAccount(account).amount(1L).build())));
+        }
+        for (Future<Operation> operation : operations) {
+            operation.get();
+        }
+        Assertions.assertEquals(200L, app.getAccountService().getBalance(account).getBalance());
+    }
+
+    @Test
+    void bestEffortBatchGoesOnAfterLockedChunk() throws Exception {
+        final long locked = accountWithMoney(100L);
+        final long free = accountWithMoney(100L);
+        final CountDownLatch lockTaken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<?> holder = executor.submit(() -> app.getConnectionFactory().executeInTransaction(() -> {
+            app.getAccountRepository().getAccountById(locked, true);
+            lockTaken.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        Assertions.assertTrue(lockTaken.await(5, TimeUnit.SECONDS));
+
+        final List<TransferResult> results = app.getBatchOperationService().transferMoney(List.of(
+                Operation.builder().sourceAccount(locked).amount(10L).build(),
+                Operation.builder().sourceAccount(free).amount(10L).build()), BatchMode.BEST_EFFORT);
+        release.countDown();
+        holder.get();
+
+        Assertions.assertEquals(503002, results.get(0).getError().getErrorCode());
+        Assertions.assertTrue(results.get(0).getError().getMessage().contains("after 2 attempts"));
+        Assertions.assertNotNull(results.get(1).getOperation());
+        Assertions.assertEquals(100L, app.getAccountService().getBalance(locked).getBalance());
+        Assertions.assertEquals(90L, app.getAccountService().getBalance(free).getBalance());
+    }
+
+    @Test
+    void lockTimeoutIsRetriedAndReported() throws Exception {
+        final long account = accountWithMoney(100L);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<?> holder = executor.submit(() -> app.getConnectionFactory().executeInTransaction(() -> {
+            app.getAccountRepository().getAccountById(account, true);
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        Assertions.assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertThrows(LockConflictException.class, () -> app.getOperationService().transferMoney(
+                Operation.builder().sourceAccount(account).amount(10L).build()));
+        release.countDown();
+        holder.get();
+
+        final String metrics = app.getMetricRegistry().scrape();
+        Assertions.assertTrue(metrics.contains("transfer_lock_conflicts_total{error=\"lock_timeout\"} 2"));
+        Assertions.assertTrue(metrics.contains("transfer_retries_total 1"));
+        Assertions.assertTrue(metrics.contains("transfer_retries_exhausted_total 1"));
+        Assertions.assertTrue(metrics.contains("transfers_total{outcome=\"LockConflictException\"} 1"));
+
+        //Lock is released, the same transfer succeeds
+        app.getOperationService().transferMoney(Operation.builder().sourceAccount(account).amount(10L).build());
+        Assertions.assertEquals(90L, app.getAccountService().getBalance(account).getBalance());
+    }
+
+    private long accountWithMoney(long money) {
+        final long accountId = app.getConnectionFactory().executeInTransaction(() -> app.getAccountService()
+                .createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build())).getId();
+        if (money > 0) {
+            app.getOperationService().transferMoney(Operation.builder().targetAccount(accountId).amount(money).build());
+        }
+        return accountId;
+    }
+}
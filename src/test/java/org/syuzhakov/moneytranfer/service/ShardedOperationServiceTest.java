@@ -0,0 +1,124 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.config.OperationConfiguration;
+import org.syuzhakov.moneytranfer.config.OperationEngine;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ShardedOperationServiceTest extends OperationServiceTest {
+    @Override
+    protected OperationConfiguration operationConfiguration() {
+        return OperationConfiguration.builder()
+                .engine(OperationEngine.SHARDED)
+                .shards(4)
+                .build();
+    }
+
+    @Test
+    void transferMoneyBetweenShards() {
+        final long account1 = accountWithMoney(1000L);
+        final long account2 = accountWithMoney(1000L);
+        Assertions.assertNotEquals(app.getShardExecutor().getShard(account1), app.getShardExecutor().getShard(account2));
+
+        final Operation operation = operationService.transferMoney(
+                Operation.builder().sourceAccount(account1).targetAccount(account2).amount(300L).build());
+        Assertions.assertNotNull(operation.getId());
+        Assertions.assertEquals(700L, accountService.getBalance(account1).getBalance());
+        Assertions.assertEquals(1300L, accountService.getBalance(account2).getBalance());
+        Assertions.assertTrue(app.getMetricRegistry().scrape().contains("shard_queue_size{shard=\"0\"}"));
+    }
+
+    @Test
+    void transferRunsInShardTransactionOnly() {
+        final long account = accountWithMoney(100L);
+        final long committed = committedTransactions();
+        operationService.transferMoney(Operation.builder().sourceAccount(account).amount(10L).build());
+        //Caller thread does not hold a transaction of its own while shard applies the transfer
+        Assertions.assertEquals(committed + 1, committedTransactions());
+        Assertions.assertFalse(app.getMetricRegistry().scrape().contains("transfer_retries_total"));
+    }
+
+    @Test
+    void accountUpdateWaitsForShardOfAccount() throws Exception {
+        final long account = accountWithMoney(100L);
+        final CountDownLatch shardHeld = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService clients = Executors.newFixedThreadPool(2);
+        final Future<?> holder = clients.submit(() -> app.getShardExecutor().execute(account, null, () -> {
+            shardHeld.countDown();
+            await(release);
+            return null;
+        }));
+        shardHeld.await();
+        final Future<?> update = clients.submit(() -> accountService.updateAccount(
+                Account.builder().id(account).status(AccountStatus.BLOCKED).build()));
+        //Status change is queued behind work of the shard, as transfers of the account are
+        Assertions.assertThrows(TimeoutException.class, () -> update.get(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        holder.get();
+        update.get();
+        clients.shutdown();
+
+        Assertions.assertThrows(OperationImpossibleException.class, () ->
+                operationService.transferMoney(Operation.builder().sourceAccount(account).amount(1L).build()));
+    }
+
+    @Test
+    void concurrentTransfersInBothDirections() throws Exception {
+        final List<Long> accounts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            accounts.add(accountWithMoney(10_000L));
+        }
+        final ExecutorService clients = Executors.newFixedThreadPool(8);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            final long source = accounts.get(i % accounts.size());
+            final long target = accounts.get((i * 7 + 1) % accounts.size());
+            if (source == target) {
+                continue;
+            }
+            futures.add(clients.submit(() -> operationService.transferMoney(
+                    Operation.builder().sourceAccount(source).targetAccount(target).amount(10L).build())));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        clients.shutdown();
+
+        long total = 0;
+        for (Long account : accounts) {
+            total += accountService.getBalance(account).getBalance();
+        }
+        Assertions.assertEquals(60_000L, total);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long committedTransactions() {
+        final String prefix = "db_transaction_duration_seconds_count{outcome=\"commit\"} ";
+        return app.getMetricRegistry().scrape().lines()
+                .filter(line -> line.startsWith(prefix))
+                .mapToLong(line -> (long) Double.parseDouble(line.substring(prefix.length())))
+                .sum();
+    }
+}
@@ -0,0 +1,81 @@
+package org.syuzhakov.moneytranfer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.syuzhakov.moneytranfer.App;
+import org.syuzhakov.moneytranfer.config.DatabaseConfiguration;
+import org.syuzhakov.moneytranfer.config.WebServiceConfiguration;
+import org.syuzhakov.moneytranfer.error.OperationImpossibleException;
+import org.syuzhakov.moneytranfer.error.ValidationException;
+import org.syuzhakov.moneytranfer.model.Account;
+import org.syuzhakov.moneytranfer.model.AccountStatus;
+import org.syuzhakov.moneytranfer.model.Operation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class SplitAccountOperationServiceTest {
+    private App app;
+    private OperationService operationService;
+    private AccountService accountService;
+
+    @BeforeEach
+    void beforeEach() {
+        app = App.builder()
+                .databaseConfiguration(DatabaseConfiguration.builder()
+                        .url("jdbc:h2:mem:" + UUID.randomUUID().toString())
+                        .user("sa")
+                        .password("sa")
+                        .build())
+                .webServiceConfiguration(WebServiceConfiguration.builder()
+                        .enabled(false)
+                        .build())
+                .start();
+        accountService = app.getAccountService();
+        operationService = app.getOperationService();
+    }
+
+    @AfterEach
+    void afterEach() {
+        app.stop();
+    }
+
+    @Test
+    void splitAccountSpreadsCredits() {
+        final Long splitAccount = accountService.createNewAccount(
+                Account.builder().status(AccountStatus.ACTIVE).slots(4).build()).getId();
+        for (int i = 0; i < 20; i++) {
+            operationService.transferMoney(Operation.builder().targetAccount(splitAccount).amount(10L).build());
+        }
+        //Credits went to slots, main balance is untouched
+        final Map<Integer, Long> slots = app.getBalanceSlotRepository().getSlotBalances(splitAccount, false);
+        Assertions.assertEquals(4, slots.size());
+        Assertions.assertEquals(200L, slots.values().stream().mapToLong(Long::longValue).sum());
+        Assertions.assertNull(app.getBalanceRepository().getBalance(splitAccount, false));
+        Assertions.assertEquals(200L, accountService.getBalance(splitAccount).getBalance());
+
+        //Debit borrows from slots
+        final long target = accountWithMoney(1L);
+        operationService.transferMoney(Operation.builder().sourceAccount(splitAccount).targetAccount(target).amount(150L).build());
+        Assertions.assertEquals(50L, accountService.getBalance(splitAccount).getBalance());
+        Assertions.assertEquals(151L, accountService.getBalance(target).getBalance());
+        Assertions.assertEquals(50L, accountService.getBalances(List.of(splitAccount, target)).get(splitAccount).getBalance());
+        Assertions.assertThrows(OperationImpossibleException.class, () -> operationService.transferMoney(
+                Operation.builder().sourceAccount(splitAccount).amount(60L).build()));
+        Assertions.assertEquals(50L, accountService.getBalance(splitAccount).getBalance());
+
+        //Slots cannot be removed
+        Assertions.assertThrows(ValidationException.class, () -> accountService.updateAccount(
+                Account.builder().id(splitAccount).status(AccountStatus.ACTIVE).slots(2).build()));
+        Assertions.assertThrows(ValidationException.class, () -> accountService.createNewAccount(
+                Account.builder().status(AccountStatus.ACTIVE).slots(0).build()));
+    }
+
+    private long accountWithMoney(long money) {
+        final Long accountId = accountService.createNewAccount(Account.builder().status(AccountStatus.ACTIVE).build()).getId();
+        return operationService.transferMoney(Operation.builder().targetAccount(accountId).amount(money).build()).getTargetAccount();
+    }
+}